@@ -0,0 +1,315 @@
+/**
+ * AdaptiveViewer.java
+ *
+ * One MJPEG client, moved between stream renditions to fit its link. The
+ * stream blocks while the client's socket drains, so the time from handing a
+ * frame out to being asked for the next one is the time spent writing it.
+ * Once per EVAL_MS the share of wall time spent writing and the age of frames
+ * when fully written are checked:
+ *   busy or late       step down: JPEG quality, then width, then frame rate, as many
+ *                      steps (up to MAX_STEPS_DOWN) as the measured throughput says are needed
+ *   idle for a while   step back up one at a time in reverse order, up to what the client asked for
+ * Steps stay within the client's floor (minfps, minw, minq) and land on shared
+ * quality and width values, so clients on similar links share renditions.
+ * A change is applied between frames by moving to another rendition's viewer.
+ */
+package com.tencent.yolo11ncnn;
+
+import android.util.Log;
+import com.google.gson.JsonObject;
+
+public class AdaptiveViewer {
+    private static final String TAG = "AdaptiveViewer";
+
+    public static final int DEFAULT_MIN_FPS = 2;
+    public static final int DEFAULT_MIN_WIDTH = 320;
+    public static final int DEFAULT_MIN_QUALITY = 30;
+    private static final int QUALITY_STEP = 10;
+    // Widths stepped through, largest first
+    private static final int[] WIDTHS = { 1920, 1280, 960, 640, 480, 320, 240, 160 };
+    private static final double FPS_STEP = 1.5;
+
+    private static final long EVAL_MS = 1000;
+    // Time after a change before stepping up, so its effect is measured first
+    private static final long COOLDOWN_MS = 2000;
+    // Share of wall time spent writing frames
+    private static final double DEGRADE_BUSY = 0.8;
+    private static final double TARGET_BUSY = 0.6;
+    private static final double UPGRADE_BUSY = 0.4;
+    private static final int MAX_STEPS_DOWN = 4;
+    // Rough frame size change of one quality step
+    private static final double QUALITY_STEP_FACTOR = 0.85;
+    // Consecutive idle windows before stepping up
+    private static final int UPGRADE_WINDOWS = 3;
+    // Frame age when fully written, beyond its own frame interval, past which the client is falling behind
+    private static final long MAX_LATENCY_MS = 500;
+    private static final double EWMA_ALPHA = 0.3;
+
+    private final VideoStreamServer server;
+    private final String name;
+    private final boolean adaptive;
+    private final long openedMs = System.currentTimeMillis();
+    // Ceiling (what the client asked for) and floor; width 0 means the source width
+    private final int maxFps;
+    private final int maxWidth;
+    private final int maxQuality;
+    private final int minFps;
+    private final int minWidth;
+    private final int minQuality;
+
+    // Current settings; written by the client's thread only
+    private volatile int fps;
+    private volatile int width;
+    private volatile int quality;
+    private volatile FrameHub.Viewer viewer;
+
+    // Frame being written
+    private boolean sending = false;
+    private long sendStartNs;
+    private long sendingTimestampNs;
+    private int sendingBytes;
+
+    // Current window
+    private long windowStartNs = System.nanoTime();
+    private long windowSendNs = 0;
+    private long windowBytes = 0;
+    private int windowFrames = 0;
+    private long windowMaxLatencyNs = 0;
+    private int idleWindows = 0;
+    private long lastChangeMs = 0;
+
+    private volatile double busy = 0;
+    private volatile double sendMs = 0;
+    private volatile double latencyMs = 0;
+    private volatile double throughputKbps = 0;
+    private volatile long delivered = 0;
+    private volatile long skipped = 0;
+    private volatile long bytes = 0;
+    private volatile long stepsDown = 0;
+    private volatile long stepsUp = 0;
+
+    /**
+     * @param fps     requested frame rate, width and quality; 0 for the server default.
+     *                These are also the ceiling when adapting
+     * @param minFps  floor when adapting; 0 for the default
+     */
+    AdaptiveViewer(VideoStreamServer server, String name, boolean adaptive, int fps, int width, int quality,
+                   int minFps, int minWidth, int minQuality) {
+        this.server = server;
+        this.name = name;
+        this.adaptive = adaptive;
+        this.maxFps = fps > 0 ? Math.min(fps, Rendition.MAX_FPS) : Rendition.MAX_FPS;
+        this.maxWidth = width > 0 ? Math.max(width, Rendition.MIN_WIDTH) : 0;
+        this.maxQuality = quality > 0
+                ? Math.max(Rendition.MIN_QUALITY, Math.min(quality, Rendition.MAX_QUALITY))
+                : VideoStreamServer.JPEG_QUALITY;
+        this.minFps = Math.min(maxFps, minFps > 0 ? minFps : DEFAULT_MIN_FPS);
+        int floorWidth = Math.max(Rendition.MIN_WIDTH, minWidth > 0 ? minWidth : DEFAULT_MIN_WIDTH);
+        this.minWidth = maxWidth > 0 ? Math.min(maxWidth, floorWidth) : floorWidth;
+        this.minQuality = Math.min(maxQuality, Math.max(Rendition.MIN_QUALITY,
+                minQuality > 0 ? minQuality : DEFAULT_MIN_QUALITY));
+        this.fps = maxFps;
+        this.width = maxWidth;
+        this.quality = maxQuality;
+        this.viewer = server.openViewer(name, this.fps, this.width, this.quality);
+    }
+
+    /**
+     * Newest frame for this client, as FrameHub.Viewer.next. Calling it means the
+     * previous frame has been written, which is what the measurements are based on.
+     */
+    public FrameHub.Frame next(long timeoutMs) throws InterruptedException {
+        long now = System.nanoTime();
+        if (sending) {
+            sending = false;
+            onFrameWritten(now);
+        }
+        if (now - windowStartNs >= EVAL_MS * 1000000L) {
+            evaluate(now);
+        }
+        FrameHub.Frame frame = viewer.next(timeoutMs);
+        if (frame != null) {
+            sending = true;
+            sendStartNs = System.nanoTime();
+            sendingTimestampNs = frame.timestampNs;
+            sendingBytes = frame.size();
+            delivered++;
+        }
+        return frame;
+    }
+
+    private void onFrameWritten(long nowNs) {
+        long sendNs = nowNs - sendStartNs;
+        long latencyNs = nowNs - sendingTimestampNs;
+        windowSendNs += sendNs;
+        windowBytes += sendingBytes;
+        windowFrames++;
+        windowMaxLatencyNs = Math.max(windowMaxLatencyNs, latencyNs);
+        bytes += sendingBytes;
+        sendMs += EWMA_ALPHA * (sendNs / 1e6 - sendMs);
+        latencyMs += EWMA_ALPHA * (latencyNs / 1e6 - latencyMs);
+    }
+
+    private void evaluate(long nowNs) {
+        long windowNs = nowNs - windowStartNs;
+        busy = (double) windowSendNs / windowNs;
+        if (windowSendNs > 0) {
+            throughputKbps = windowBytes * 8.0 * 1e6 / windowSendNs;
+        }
+        // Share of time the link would need at the full frame rate; above 1 it cannot keep up
+        double demand = windowFrames > 0 && throughputKbps > 0
+                ? (double) windowBytes / windowFrames * 8 * fps / 1000 / throughputKbps : busy;
+        // A frame can be up to one interval old when taken
+        boolean late = windowMaxLatencyNs > (MAX_LATENCY_MS + 1000 / fps) * 1000000L;
+        windowStartNs = nowNs;
+        windowSendNs = 0;
+        windowBytes = 0;
+        windowFrames = 0;
+        windowMaxLatencyNs = 0;
+        if (!adaptive) return;
+
+        long nowMs = System.currentTimeMillis();
+        boolean cooling = nowMs - lastChangeMs < COOLDOWN_MS;
+        if (busy > DEGRADE_BUSY || late) {
+            idleWindows = 0;
+            // The window just measured started after the last change, so no cooldown here
+            int steps = 0;
+            double factor;
+            do {
+                factor = stepDown();
+                if (factor == 0) break;
+                demand *= factor;
+                steps++;
+            } while (demand > TARGET_BUSY && steps < MAX_STEPS_DOWN);
+            if (steps > 0) {
+                stepsDown += steps;
+                apply(nowMs, late ? "late" : "busy");
+            }
+        } else if (busy < UPGRADE_BUSY) {
+            if (++idleWindows >= UPGRADE_WINDOWS && !cooling && stepUp()) {
+                idleWindows = 0;
+                stepsUp++;
+                apply(nowMs, "idle");
+            }
+        } else {
+            idleWindows = 0;
+        }
+    }
+
+    /**
+     * Lower quality, then width, then frame rate. Returns the expected change in
+     * bytes per second, or 0 at the floor.
+     */
+    private double stepDown() {
+        if (quality - QUALITY_STEP >= minQuality) {
+            quality -= QUALITY_STEP;
+            return QUALITY_STEP_FACTOR;
+        }
+        int current = effectiveWidth();
+        if (current > 0) {
+            for (int w : WIDTHS) {
+                if (w < current && w >= minWidth) {
+                    width = w;
+                    double scale = (double) w / current;
+                    return scale * scale;
+                }
+            }
+        }
+        if (fps > minFps) {
+            int old = fps;
+            fps = Math.max(minFps, (int) (fps / FPS_STEP));
+            return (double) fps / old;
+        }
+        return 0;
+    }
+
+    /**
+     * Undo stepDown in reverse order: frame rate, then width, then quality; false at the ceiling.
+     */
+    private boolean stepUp() {
+        if (fps < maxFps) {
+            fps = Math.min(maxFps, (int) Math.ceil(fps * FPS_STEP));
+            return true;
+        }
+        if (width != maxWidth) {
+            int ceiling = maxWidth > 0 ? maxWidth : server.getSourceWidth();
+            int next = 0;
+            for (int i = WIDTHS.length - 1; i >= 0; i--) {
+                if (WIDTHS[i] > width) {
+                    next = WIDTHS[i];
+                    break;
+                }
+            }
+            width = next == 0 || ceiling <= 0 || next >= ceiling ? maxWidth : next;
+            return true;
+        }
+        if (quality < maxQuality) {
+            quality = Math.min(maxQuality, quality + QUALITY_STEP);
+            return true;
+        }
+        return false;
+    }
+
+    private int effectiveWidth() {
+        return width > 0 ? width : server.getSourceWidth();
+    }
+
+    /**
+     * Move to the rendition for the current settings. The new viewer is opened first
+     * so a rendition both use is not retired in between.
+     */
+    private void apply(long nowMs, String reason) {
+        lastChangeMs = nowMs;
+        FrameHub.Viewer old = viewer;
+        viewer = server.openViewer(name, fps, width, quality);
+        skipped += old.getSkipped();
+        old.close();
+        Log.i(TAG, name + " " + reason + " (busy " + Math.round(busy * 100) + "%, latency "
+                + Math.round(latencyMs) + " ms): now " + fps + " fps, width " + width + ", quality " + quality);
+    }
+
+    public void close() {
+        viewer.close();
+        server.onAdaptiveViewerClosed(this);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    public long getSkipped() {
+        return skipped + viewer.getSkipped();
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("name", name);
+        json.addProperty("adaptive", adaptive);
+        json.addProperty("fps", fps);
+        json.addProperty("width", width);
+        json.addProperty("quality", quality);
+        json.addProperty("busy", Math.round(busy * 1000) / 1000.0);
+        json.addProperty("sendMs", Math.round(sendMs * 10) / 10.0);
+        json.addProperty("latencyMs", Math.round(latencyMs * 10) / 10.0);
+        json.addProperty("throughputKbps", Math.round(throughputKbps));
+        json.addProperty("stepsDown", stepsDown);
+        json.addProperty("stepsUp", stepsUp);
+        json.addProperty("delivered", delivered);
+        json.addProperty("skipped", getSkipped());
+        json.addProperty("bytes", bytes);
+        json.addProperty("since", openedMs);
+        JsonObject bounds = new JsonObject();
+        bounds.addProperty("minFps", minFps);
+        bounds.addProperty("maxFps", maxFps);
+        bounds.addProperty("minWidth", minWidth);
+        bounds.addProperty("maxWidth", maxWidth);
+        bounds.addProperty("minQuality", minQuality);
+        bounds.addProperty("maxQuality", maxQuality);
+        json.add("bounds", bounds);
+        return json;
+    }
+}
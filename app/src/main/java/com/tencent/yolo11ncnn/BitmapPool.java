@@ -0,0 +1,156 @@
+/**
+ * BitmapPool.java
+ *
+ * Fixed-size pool of ARGB_8888 bitmaps keyed by size, for the video capture
+ * and rotation buffers. Bitmaps are borrowed for a capture, passed through
+ * the copy and encode stages and returned, so in steady state no frame
+ * allocates one. Sizes nobody asked for in IDLE_MS (view resized, camera
+ * switched) are recycled rather than kept.
+ *
+ * If a bitmap cannot be allocated the caller gets null and skips the frame;
+ * memory is never reclaimed by forcing a GC on the capture path.
+ */
+package com.tencent.yolo11ncnn;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+public class BitmapPool {
+    private static final String TAG = "BitmapPool";
+    private static final long IDLE_MS = 2000;
+
+    /**
+     * Free bitmaps of one size.
+     */
+    private static final class Bucket {
+        final ArrayDeque<Bitmap> bitmaps = new ArrayDeque<>();
+        long lastAcquiredMs;
+    }
+
+    private final int maxPerSize;
+    // Free bitmaps per size key; guarded by this
+    private final Map<Long, Bucket> free = new HashMap<>();
+    private int freeCount = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long recycled = 0;
+    private long allocationFailures = 0;
+    private int outstanding = 0;
+
+    /**
+     * @param maxPerSize free bitmaps kept per size; more are recycled when returned
+     */
+    public BitmapPool(int maxPerSize) {
+        this.maxPerSize = maxPerSize;
+    }
+
+    /**
+     * Borrow a width x height bitmap, or null if one cannot be allocated.
+     * Its contents are whatever the previous user left.
+     */
+    public Bitmap acquire(int width, int height) {
+        long key = key(width, height);
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Bucket bucket = bucket(key);
+            bucket.lastAcquiredMs = now;
+            Bitmap b = bucket.bitmaps.poll();
+            if (b != null) {
+                freeCount--;
+                hits++;
+                outstanding++;
+                return b;
+            }
+            misses++;
+            trim(now - IDLE_MS);
+        }
+        try {
+            Bitmap b = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            synchronized (this) {
+                outstanding++;
+            }
+            return b;
+        } catch (OutOfMemoryError e) {
+            synchronized (this) {
+                allocationFailures++;
+                trim(Long.MAX_VALUE);
+            }
+            Log.e(TAG, "Out of memory allocating " + width + "x" + height + " bitmap");
+            return null;
+        }
+    }
+
+    /**
+     * Give a borrowed bitmap back.
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null) return;
+        long key = key(bitmap.getWidth(), bitmap.getHeight());
+        synchronized (this) {
+            outstanding--;
+            ArrayDeque<Bitmap> q = bucket(key).bitmaps;
+            if (q.size() < maxPerSize && !bitmap.isRecycled()) {
+                q.add(bitmap);
+                freeCount++;
+                return;
+            }
+            recycled++;
+        }
+        bitmap.recycle();
+    }
+
+    /**
+     * Recycle every free bitmap.
+     */
+    public synchronized void clear() {
+        trim(Long.MAX_VALUE);
+    }
+
+    private Bucket bucket(long key) {
+        Bucket bucket = free.get(key);
+        if (bucket == null) {
+            bucket = new Bucket();
+            free.put(key, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * Recycle the free bitmaps of sizes last acquired before the given time.
+     */
+    private void trim(long acquiredBeforeMs) {
+        Iterator<Bucket> it = free.values().iterator();
+        while (it.hasNext()) {
+            Bucket bucket = it.next();
+            if (bucket.lastAcquiredMs >= acquiredBeforeMs) continue;
+            for (Bitmap b : bucket.bitmaps) {
+                b.recycle();
+                recycled++;
+                freeCount--;
+            }
+            it.remove();
+        }
+    }
+
+    private static long key(int width, int height) {
+        return ((long) width << 32) | (height & 0xFFFFFFFFL);
+    }
+
+    public synchronized JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("hits", hits);
+        json.addProperty("misses", misses);
+        json.addProperty("recycled", recycled);
+        json.addProperty("allocationFailures", allocationFailures);
+        json.addProperty("free", freeCount);
+        json.addProperty("outstanding", outstanding);
+        return json;
+    }
+}
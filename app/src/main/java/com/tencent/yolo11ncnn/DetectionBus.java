@@ -0,0 +1,208 @@
+/**
+ * DetectionBus.java
+ *
+ * Fans detection frames out from the camera/inference thread to consumers
+ * (scripts, WebSocket, recorders, controllers) that each run on their own thread.
+ * The producer copies a frame into a small ring and wakes subscribers; every
+ * subscriber only ever picks up the newest frame, so a slow consumer skips
+ * frames instead of stalling inference.
+ */
+package com.tencent.yolo11ncnn;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+public class DetectionBus {
+    private static final String TAG = "DetectionBus";
+    private static final int DEFAULT_RING_SIZE = 4;
+
+    /**
+     * Consumer callback, always invoked on the subscriber's own thread.
+     * The frame is owned by the subscriber and reused for the next delivery.
+     */
+    public interface Listener {
+        void onDetections(DetectionFrame frame);
+    }
+
+    /**
+     * Ring entry. The producer holds the monitor only while copying into it.
+     */
+    private static class Slot {
+        final DetectionFrame frame = new DetectionFrame(DetectionFrame.DEFAULT_CAPACITY);
+        long seq = 0;
+    }
+
+    private final Slot[] ring;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    // Sequence of the newest published frame, written only by the producer thread
+    private volatile long published = 0;
+
+    public DetectionBus() {
+        this(DEFAULT_RING_SIZE);
+    }
+
+    public DetectionBus(int ringSize) {
+        ring = new Slot[Math.max(2, ringSize)];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Slot();
+        }
+    }
+
+    /**
+     * Publish a frame. Called from a single producer (the native camera thread);
+     * copies the frame and wakes subscribers without ever waiting on them.
+     */
+    public void publish(DetectionFrame frame) {
+        long seq = published + 1;
+        Slot slot = ring[(int) (seq % ring.length)];
+        synchronized (slot) {
+            slot.frame.copyFrom(frame);
+            slot.seq = seq;
+        }
+        published = seq;
+
+        for (Subscriber s : subscribers) {
+            LockSupport.unpark(s.thread);
+        }
+    }
+
+    /**
+     * Subscribe a listener on a dedicated thread.
+     */
+    public Subscriber subscribe(String name, Listener listener) {
+        Subscriber s = new Subscriber(name, listener);
+        subscribers.add(s);
+        s.thread.start();
+        Log.i(TAG, "Subscriber added: " + name);
+        return s;
+    }
+
+    /**
+     * Stop a subscriber and remove it from the bus.
+     */
+    public void unsubscribe(Subscriber s) {
+        if (s == null) return;
+        subscribers.remove(s);
+        s.active = false;
+        s.thread.interrupt();
+        Log.i(TAG, "Subscriber removed: " + s.name);
+    }
+
+    /**
+     * Stop all subscribers.
+     */
+    public void shutdown() {
+        for (Subscriber s : subscribers) {
+            unsubscribe(s);
+        }
+    }
+
+    /**
+     * Sequence number of the newest published frame.
+     */
+    public long getPublishedCount() {
+        return published;
+    }
+
+    /**
+     * Current subscribers, for stats reporting.
+     */
+    public List<Subscriber> getSubscribers() {
+        return subscribers;
+    }
+
+    /**
+     * A consumer with its own thread, cursor and counters.
+     */
+    public class Subscriber implements Runnable {
+        private final String name;
+        private final Listener listener;
+        private final Thread thread;
+        private final DetectionFrame frame = new DetectionFrame(DetectionFrame.DEFAULT_CAPACITY);
+        private volatile boolean active = true;
+
+        private volatile long lastSeq;
+        private volatile long delivered = 0;
+        private volatile long dropped = 0;
+        private volatile long errors = 0;
+        private volatile long lastLatencyNs = 0;
+
+        Subscriber(String name, Listener listener) {
+            this.name = name;
+            this.listener = listener;
+            this.lastSeq = published;
+            this.thread = new Thread(this, "DetectionBus-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (active) {
+                long latest = published;
+                if (latest == lastSeq) {
+                    LockSupport.park(this);
+                    continue;
+                }
+
+                Slot slot = ring[(int) (latest % ring.length)];
+                synchronized (slot) {
+                    if (slot.seq != latest) {
+                        // producer lapped us while we were waking up, re-read the newest
+                        continue;
+                    }
+                    frame.copyFrom(slot.frame);
+                }
+
+                dropped += latest - lastSeq - 1;
+                lastSeq = latest;
+                delivered++;
+                if (frame.timestampNs > 0) {
+                    lastLatencyNs = System.nanoTime() - frame.timestampNs;
+                }
+
+                try {
+                    listener.onDetections(frame);
+                } catch (Exception e) {
+                    errors++;
+                    Log.w(TAG, "Subscriber " + name + " failed: " + e.getMessage());
+                }
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * Frames skipped because newer ones arrived before this consumer was ready.
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * How many frames this consumer is currently behind the producer.
+         */
+        public long getLag() {
+            return published - lastSeq;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Time from capture to hand-off for the last delivered frame.
+         */
+        public double getLastLatencyMs() {
+            return lastLatencyNs / 1e6;
+        }
+    }
+}
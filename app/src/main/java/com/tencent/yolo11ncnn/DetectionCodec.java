@@ -0,0 +1,326 @@
+/**
+ * DetectionCodec.java
+ *
+ * Compact binary encoding of detection frames, for clients that subscribe with
+ * "format": "binary" and for GET /api/detections?format=binary. Decoded on the
+ * dashboard by react/src/lib/detectionCodec.ts.
+ *
+ * All fields little-endian, like RobotProtocol:
+ * Header (20 bytes): 'D' 'T' version type | u32 frameId | u32 baseFrameId |
+ *                    u16 width | u16 height | u16 records | u16 removed
+ * Record (12 bytes): u16 id | u8 label | u8 score*255 | u16 x | u16 y | u16 w | u16 h  (pixels)
+ * Then removed u16 ids.
+ *
+ * A key frame (type 1) lists every object. A delta (type 2) against
+ * baseFrameId lists only objects that are new or changed and the ids that
+ * disappeared. Ids are assigned by matching each object to one of the same
+ * label in the previous frame, so an object keeps its id while it is tracked.
+ * Each client gets the delta only if it was last sent the base frame,
+ * otherwise the key frame.
+ */
+package com.tencent.yolo11ncnn;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class DetectionCodec {
+    public static final byte MAGIC_0 = 'D';
+    public static final byte MAGIC_1 = 'T';
+    public static final byte VERSION = 1;
+    public static final byte TYPE_KEY = 1;
+    public static final byte TYPE_DELTA = 2;
+    public static final int HEADER_BYTES = 20;
+    public static final int RECORD_BYTES = 12;
+
+    // Minimum overlap for an object to keep the id of one in the previous frame
+    private static final float MATCH_IOU = 0.3f;
+    // A filter group no client used for this long starts over with a key frame
+    private static final long GROUP_IDLE_NS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * One frame encoded for one filter group: the key frame and, when the group
+     * had a previous frame, the delta against it.
+     */
+    public static final class Payload {
+        final long frameId;
+        final long baseFrameId;
+        final PreparedMessage key;
+        final PreparedMessage delta;
+
+        Payload(long frameId, long baseFrameId, PreparedMessage key, PreparedMessage delta) {
+            this.frameId = frameId;
+            this.baseFrameId = baseFrameId;
+            this.key = key;
+            this.delta = delta;
+        }
+
+        public int size() {
+            return key.size();
+        }
+    }
+
+    /**
+     * Last frame encoded for clients sharing a filter.
+     */
+    private static final class Group {
+        long frameId;
+        int count;
+        int[] ids = new int[DetectionFrame.DEFAULT_CAPACITY];
+        int[] meta = new int[DetectionFrame.DEFAULT_CAPACITY];
+        long[] boxes = new long[DetectionFrame.DEFAULT_CAPACITY];
+        long lastUsedNs;
+    }
+
+    private final SimpleWebSocketServer server;
+
+    // Tracker state: the previous frame's boxes and their ids
+    private int prevCount = 0;
+    private int[] prevIds = new int[DetectionFrame.DEFAULT_CAPACITY];
+    private int[] prevLabels = new int[DetectionFrame.DEFAULT_CAPACITY];
+    private float[] prevBoxes = new float[DetectionFrame.DEFAULT_CAPACITY * 4];
+    private int nextId = 0;
+    private int[] ids = new int[DetectionFrame.DEFAULT_CAPACITY];
+    private boolean[] matched = new boolean[DetectionFrame.DEFAULT_CAPACITY];
+
+    // null key = unfiltered
+    private final Map<DetectionFilter, Group> groups = new HashMap<>();
+
+    private long keyFrames = 0;
+    private long deltaFrames = 0;
+    private long keyBytes = 0;
+    private long deltaBytes = 0;
+
+    DetectionCodec(SimpleWebSocketServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Assign stable ids to frame's objects. Call once per published frame, before encode.
+     */
+    public synchronized void track(DetectionFrame frame) {
+        int n = frame.count;
+        if (ids.length < n) {
+            ids = new int[n];
+        }
+        if (matched.length < prevCount) {
+            matched = new boolean[prevCount];
+        }
+        for (int j = 0; j < prevCount; j++) {
+            matched[j] = false;
+        }
+        for (int i = 0; i < n; i++) {
+            int best = -1;
+            float bestIou = MATCH_IOU;
+            for (int j = 0; j < prevCount; j++) {
+                if (matched[j] || prevLabels[j] != frame.labels[i]) continue;
+                float iou = iou(frame.x[i], frame.y[i], frame.w[i], frame.h[i], prevBoxes, j * 4);
+                if (iou > bestIou) {
+                    bestIou = iou;
+                    best = j;
+                }
+            }
+            if (best >= 0) {
+                matched[best] = true;
+                ids[i] = prevIds[best];
+            } else {
+                ids[i] = nextId;
+                nextId = (nextId + 1) & 0xFFFF;
+            }
+        }
+
+        if (prevIds.length < n) {
+            prevIds = new int[n];
+            prevLabels = new int[n];
+            prevBoxes = new float[n * 4];
+        }
+        for (int i = 0; i < n; i++) {
+            prevIds[i] = ids[i];
+            prevLabels[i] = frame.labels[i];
+            prevBoxes[i * 4] = frame.x[i];
+            prevBoxes[i * 4 + 1] = frame.y[i];
+            prevBoxes[i * 4 + 2] = frame.w[i];
+            prevBoxes[i * 4 + 3] = frame.h[i];
+        }
+        prevCount = n;
+    }
+
+    /**
+     * Encode the tracked frame for clients with filter (null = all objects).
+     */
+    public synchronized Payload encode(DetectionFrame frame, DetectionFilter filter) {
+        Group group = groups.get(filter);
+        boolean hasBase = group != null;
+        if (group == null) {
+            group = new Group();
+            groups.put(filter, group);
+        }
+        group.lastUsedNs = System.nanoTime();
+
+        // Current records, quantized; also the key frame
+        int n = frame.count;
+        int[] curIds = new int[n];
+        int[] curMeta = new int[n];
+        long[] curBoxes = new long[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (filter != null && !filter.accepts(frame, i)) continue;
+            curIds[count] = ids[i];
+            curMeta[count] = meta(frame, i);
+            curBoxes[count] = box(frame, i);
+            count++;
+        }
+
+        ByteBuffer key = header(TYPE_KEY, frame, 0, count, 0);
+        for (int i = 0; i < count; i++) {
+            putRecord(key, curIds[i], curMeta[i], curBoxes[i]);
+        }
+        PreparedMessage keyMsg = PreparedMessage.binary(key.array(), server);
+        keyFrames++;
+        keyBytes += key.capacity();
+
+        PreparedMessage deltaMsg = null;
+        long baseFrameId = group.frameId;
+        if (hasBase) {
+            int changed = 0;
+            int[] changedIdx = new int[count];
+            for (int i = 0; i < count; i++) {
+                int j = indexOf(group.ids, group.count, curIds[i]);
+                if (j < 0 || group.meta[j] != curMeta[i] || group.boxes[j] != curBoxes[i]) {
+                    changedIdx[changed++] = i;
+                }
+            }
+            int removed = 0;
+            int[] removedIds = new int[group.count];
+            for (int j = 0; j < group.count; j++) {
+                if (indexOf(curIds, count, group.ids[j]) < 0) {
+                    removedIds[removed++] = group.ids[j];
+                }
+            }
+            ByteBuffer delta = header(TYPE_DELTA, frame, baseFrameId, changed, removed);
+            for (int k = 0; k < changed; k++) {
+                int i = changedIdx[k];
+                putRecord(delta, curIds[i], curMeta[i], curBoxes[i]);
+            }
+            for (int k = 0; k < removed; k++) {
+                delta.putShort((short) removedIds[k]);
+            }
+            deltaMsg = PreparedMessage.binary(delta.array(), server);
+            deltaFrames++;
+            deltaBytes += delta.capacity();
+        }
+
+        if (group.ids.length < count) {
+            group.ids = new int[count];
+            group.meta = new int[count];
+            group.boxes = new long[count];
+        }
+        System.arraycopy(curIds, 0, group.ids, 0, count);
+        System.arraycopy(curMeta, 0, group.meta, 0, count);
+        System.arraycopy(curBoxes, 0, group.boxes, 0, count);
+        group.count = count;
+        group.frameId = frame.frameId;
+        return new Payload(frame.frameId, baseFrameId, keyMsg, deltaMsg);
+    }
+
+    /**
+     * Forget filter groups that have not been used for GROUP_IDLE_NS.
+     */
+    public synchronized void expireGroups(long nowNs) {
+        Iterator<Group> it = groups.values().iterator();
+        while (it.hasNext()) {
+            if (nowNs - it.next().lastUsedNs > GROUP_IDLE_NS) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Standalone key frame with ids in frame order, for HTTP consumers.
+     */
+    public static byte[] encodeKeyFrame(DetectionFrame frame) {
+        ByteBuffer key = header(TYPE_KEY, frame, 0, frame.count, 0);
+        for (int i = 0; i < frame.count; i++) {
+            putRecord(key, i, meta(frame, i), box(frame, i));
+        }
+        return key.array();
+    }
+
+    public synchronized long getKeyFrames() {
+        return keyFrames;
+    }
+
+    public synchronized long getDeltaFrames() {
+        return deltaFrames;
+    }
+
+    public synchronized long getKeyBytes() {
+        return keyBytes;
+    }
+
+    public synchronized long getDeltaBytes() {
+        return deltaBytes;
+    }
+
+    private static ByteBuffer header(byte type, DetectionFrame frame, long baseFrameId, int records, int removed) {
+        ByteBuffer b = ByteBuffer.allocate(HEADER_BYTES + records * RECORD_BYTES + removed * 2)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        b.put(MAGIC_0).put(MAGIC_1).put(VERSION).put(type);
+        b.putInt((int) frame.frameId);
+        b.putInt((int) baseFrameId);
+        b.putShort((short) u16(frame.width));
+        b.putShort((short) u16(frame.height));
+        b.putShort((short) records);
+        b.putShort((short) removed);
+        return b;
+    }
+
+    /**
+     * Quantized label (u8) and score (u8) of object i, as label << 8 | score.
+     */
+    private static int meta(DetectionFrame frame, int i) {
+        int label = Math.max(0, Math.min(0xFF, frame.labels[i]));
+        int score = Math.max(0, Math.min(0xFF, Math.round(frame.scores[i] * 255)));
+        return label << 8 | score;
+    }
+
+    /**
+     * Quantized box of object i as four u16 pixel values x, y, w, h, high to low.
+     */
+    private static long box(DetectionFrame frame, int i) {
+        return ((long) u16(frame.x[i]) << 48) | ((long) u16(frame.y[i]) << 32)
+                | ((long) u16(frame.w[i]) << 16) | u16(frame.h[i]);
+    }
+
+    private static void putRecord(ByteBuffer b, int id, int meta, long box) {
+        b.putShort((short) id);
+        b.put((byte) (meta >>> 8));
+        b.put((byte) meta);
+        b.putShort((short) (box >>> 48));
+        b.putShort((short) (box >>> 32));
+        b.putShort((short) (box >>> 16));
+        b.putShort((short) box);
+    }
+
+    private static int indexOf(int[] a, int n, int v) {
+        for (int i = 0; i < n; i++) {
+            if (a[i] == v) return i;
+        }
+        return -1;
+    }
+
+    private static int u16(float v) {
+        return Math.max(0, Math.min(0xFFFF, Math.round(v)));
+    }
+
+    private static float iou(float x, float y, float w, float h, float[] boxes, int o) {
+        float ix = Math.max(0, Math.min(x + w, boxes[o] + boxes[o + 2]) - Math.max(x, boxes[o]));
+        float iy = Math.max(0, Math.min(y + h, boxes[o + 1] + boxes[o + 3]) - Math.max(y, boxes[o + 1]));
+        float inter = ix * iy;
+        float union = w * h + boxes[o + 2] * boxes[o + 3] - inter;
+        return union > 0 ? inter / union : 0;
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * DetectionFilter.java
+ *
+ * What one WebSocket subscriber wants from the detections topic, set with
+ *   {"type": "subscribe", "topics": ["detections"],
+ *    "filter": {"labels": [32, "person"], "minScore": 0.5, "roi": [x, y, w, h], "maxHz": 5}}
+ * labels are class ids or names from the COCO list the detection model uses
+ * (a name matches every class containing it as a word, so "ball" is "sports ball");
+ * roi is a fraction of the frame and keeps objects whose centre lies inside;
+ * maxHz limits how often the client is sent a frame. Every field is optional.
+ */
+package com.tencent.yolo11ncnn;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+
+public class DetectionFilter {
+    // Class names of the COCO detection models, indexed by label id
+    static final String[] COCO_LABELS = {
+        "person", "bicycle", "car", "motorcycle", "airplane", "bus", "train", "truck", "boat", "traffic light",
+        "fire hydrant", "stop sign", "parking meter", "bench", "bird", "cat", "dog", "horse", "sheep", "cow",
+        "elephant", "bear", "zebra", "giraffe", "backpack", "umbrella", "handbag", "tie", "suitcase", "frisbee",
+        "skis", "snowboard", "sports ball", "kite", "baseball bat", "baseball glove", "skateboard", "surfboard",
+        "tennis racket", "bottle", "wine glass", "cup", "fork", "knife", "spoon", "bowl", "banana", "apple",
+        "sandwich", "orange", "broccoli", "carrot", "hot dog", "pizza", "donut", "cake", "chair", "couch",
+        "potted plant", "bed", "dining table", "toilet", "tv", "laptop", "mouse", "remote", "keyboard", "cell phone",
+        "microwave", "oven", "toaster", "sink", "refrigerator", "book", "clock", "vase", "scissors", "teddy bear",
+        "hair drier", "toothbrush"
+    };
+
+    // null = every label
+    private final BitSet labels;
+    private final float minScore;
+    // null = whole frame, else {x, y, w, h} as fractions of the frame
+    private final float[] roi;
+    private final double maxHz;
+    private final long minIntervalNs;
+
+    // Guarded by this
+    private long lastSentNs = 0;
+
+    private DetectionFilter(BitSet labels, float minScore, float[] roi, double maxHz) {
+        this.labels = labels;
+        this.minScore = minScore;
+        this.roi = roi;
+        this.maxHz = maxHz;
+        this.minIntervalNs = maxHz > 0 ? (long) (1e9 / maxHz) : 0;
+    }
+
+    /**
+     * Parse a filter object. Throws IllegalArgumentException for unknown labels or a bad roi.
+     */
+    public static DetectionFilter fromJson(JsonObject json) {
+        BitSet labels = null;
+        if (json.has("labels")) {
+            labels = new BitSet();
+            for (JsonElement e : json.getAsJsonArray("labels")) {
+                if (e.getAsJsonPrimitive().isNumber()) {
+                    labels.set(e.getAsInt());
+                } else {
+                    String name = " " + e.getAsString().toLowerCase(Locale.US).trim() + " ";
+                    boolean found = false;
+                    for (int i = 0; i < COCO_LABELS.length; i++) {
+                        if ((" " + COCO_LABELS[i] + " ").contains(name)) {
+                            labels.set(i);
+                            found = true;
+                        }
+                    }
+                    if (!found) {
+                        throw new IllegalArgumentException("Unknown label: " + e.getAsString());
+                    }
+                }
+            }
+        }
+        float minScore = json.has("minScore") ? json.get("minScore").getAsFloat() : 0;
+        float[] roi = null;
+        if (json.has("roi")) {
+            JsonArray r = json.getAsJsonArray("roi");
+            if (r.size() != 4) {
+                throw new IllegalArgumentException("roi must be [x, y, w, h]");
+            }
+            roi = new float[] { r.get(0).getAsFloat(), r.get(1).getAsFloat(), r.get(2).getAsFloat(), r.get(3).getAsFloat() };
+        }
+        double maxHz = json.has("maxHz") ? json.get("maxHz").getAsDouble() : 0;
+        return new DetectionFilter(labels, minScore, roi, maxHz);
+    }
+
+    /**
+     * True if a frame may be sent now under maxHz; if so it counts as sent.
+     */
+    public synchronized boolean tryAcquire(long nowNs) {
+        if (minIntervalNs > 0 && lastSentNs != 0 && nowNs - lastSentNs < minIntervalNs) {
+            return false;
+        }
+        lastSentNs = nowNs;
+        return true;
+    }
+
+    public boolean accepts(DetectionFrame frame, int i) {
+        if (labels != null && (frame.labels[i] < 0 || !labels.get(frame.labels[i]))) return false;
+        if (frame.scores[i] < minScore) return false;
+        if (roi != null && frame.width > 0 && frame.height > 0) {
+            float cx = (frame.x[i] + frame.w[i] / 2) / frame.width;
+            float cy = (frame.y[i] + frame.h[i] / 2) / frame.height;
+            if (cx < roi[0] || cx > roi[0] + roi[2] || cy < roi[1] || cy > roi[1] + roi[3]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Filters that select the same detections, whatever their rate, produce the same message.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DetectionFilter)) return false;
+        DetectionFilter other = (DetectionFilter) o;
+        return minScore == other.minScore
+                && (labels == null ? other.labels == null : labels.equals(other.labels))
+                && Arrays.equals(roi, other.roi);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Float.floatToIntBits(minScore) + (labels != null ? labels.hashCode() : 0))
+                + Arrays.hashCode(roi);
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        if (labels != null) {
+            JsonArray l = new JsonArray();
+            for (int i = labels.nextSetBit(0); i >= 0; i = labels.nextSetBit(i + 1)) {
+                l.add(i);
+            }
+            json.add("labels", l);
+        }
+        json.addProperty("minScore", minScore);
+        if (roi != null) {
+            JsonArray r = new JsonArray();
+            for (float v : roi) {
+                r.add(v);
+            }
+            json.add("roi", r);
+        }
+        json.addProperty("maxHz", maxHz);
+        return json;
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * DetectionFrame.java
+ *
+ * One frame of YOLO detections handed over from native code through a pooled
+ * direct ByteBuffer. Objects are kept as struct-of-arrays so decoding a frame
+ * never allocates; JSON is only built lazily for consumers that ask for it.
+ */
+package com.tencent.yolo11ncnn;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class DetectionFrame {
+    /*
+     * Buffer layout (native byte order), must match write_detection_frame() in yolo11ncnn.cpp:
+     *   header  int count, int capacity, int width, int height, long frameId, long timestampNs
+     *   body    int label[capacity], float score[capacity], x[capacity], y[capacity], w[capacity], h[capacity]
+     */
+    public static final int HEADER_BYTES = 32;
+    public static final int BYTES_PER_OBJECT = 24;
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private static final int OFFSET_COUNT = 0;
+    private static final int OFFSET_CAPACITY = 4;
+    private static final int OFFSET_WIDTH = 8;
+    private static final int OFFSET_HEIGHT = 12;
+    private static final int OFFSET_FRAME_ID = 16;
+    private static final int OFFSET_TIMESTAMP = 24;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+
+    public final int[] labels;
+    public final float[] scores;
+    public final float[] x;
+    public final float[] y;
+    public final float[] w;
+    public final float[] h;
+
+    public int count;
+    public int width;
+    public int height;
+    public long frameId;
+    public long timestampNs;
+
+    // Lazily built JSON view, reset whenever the frame contents change
+    private String json;
+
+    /**
+     * Create a frame backed by its own direct buffer that native code can write into.
+     */
+    public static DetectionFrame allocateDirect(int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_BYTES + capacity * BYTES_PER_OBJECT)
+                .order(ByteOrder.nativeOrder());
+        buffer.putInt(OFFSET_CAPACITY, capacity);
+        return new DetectionFrame(buffer, capacity);
+    }
+
+    /**
+     * Create a heap-only frame, used for copies that outlive the pooled slot.
+     */
+    public DetectionFrame(int capacity) {
+        this(null, capacity);
+    }
+
+    private DetectionFrame(ByteBuffer buffer, int capacity) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.labels = new int[capacity];
+        this.scores = new float[capacity];
+        this.x = new float[capacity];
+        this.y = new float[capacity];
+        this.w = new float[capacity];
+        this.h = new float[capacity];
+    }
+
+    /**
+     * Get the direct buffer native code writes into, or null for heap-only frames.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Decode the latest contents of the backing buffer into the arrays.
+     * Must be called on the thread that received the native callback.
+     */
+    public void decode() {
+        if (buffer == null) return;
+
+        int n = Math.min(buffer.getInt(OFFSET_COUNT), capacity);
+        width = buffer.getInt(OFFSET_WIDTH);
+        height = buffer.getInt(OFFSET_HEIGHT);
+        frameId = buffer.getLong(OFFSET_FRAME_ID);
+        timestampNs = buffer.getLong(OFFSET_TIMESTAMP);
+
+        int labelBase = HEADER_BYTES;
+        int scoreBase = labelBase + capacity * 4;
+        int xBase = scoreBase + capacity * 4;
+        int yBase = xBase + capacity * 4;
+        int wBase = yBase + capacity * 4;
+        int hBase = wBase + capacity * 4;
+        for (int i = 0; i < n; i++) {
+            int off = i * 4;
+            labels[i] = buffer.getInt(labelBase + off);
+            scores[i] = buffer.getFloat(scoreBase + off);
+            x[i] = buffer.getFloat(xBase + off);
+            y[i] = buffer.getFloat(yBase + off);
+            w[i] = buffer.getFloat(wBase + off);
+            h[i] = buffer.getFloat(hBase + off);
+        }
+        count = n;
+        json = null;
+    }
+
+    /**
+     * Copy another frame into this one without allocating.
+     */
+    public void copyFrom(DetectionFrame other) {
+        int n = Math.min(other.count, capacity);
+        System.arraycopy(other.labels, 0, labels, 0, n);
+        System.arraycopy(other.scores, 0, scores, 0, n);
+        System.arraycopy(other.x, 0, x, 0, n);
+        System.arraycopy(other.y, 0, y, 0, n);
+        System.arraycopy(other.w, 0, w, 0, n);
+        System.arraycopy(other.h, 0, h, 0, n);
+        count = n;
+        width = other.width;
+        height = other.height;
+        frameId = other.frameId;
+        timestampNs = other.timestampNs;
+        json = other.json;
+    }
+
+    /**
+     * Reset to an empty frame.
+     */
+    public void clear() {
+        count = 0;
+        frameId = 0;
+        timestampNs = 0;
+        json = null;
+    }
+
+    /**
+     * JSON array view of the detections, built on first use and cached.
+     * Format: [{"label":0,"x":1.0,"y":2.0,"w":3.0,"h":4.0,"score":0.9}, ...]
+     */
+    public String toJson() {
+        String cached = json;
+        if (cached != null) return cached;
+
+        StringBuilder sb = new StringBuilder(2 + count * 72);
+        appendArray(sb, null);
+        cached = sb.toString();
+        json = cached;
+        return cached;
+    }
+
+    /**
+     * WebSocket detections message with the array as structured JSON, holding only
+     * the detections filter accepts (all of them if filter is null):
+     * {"type":"detections","frameId":..,"timestamp":..,"width":..,"height":..,"detections":[...]}
+     */
+    public String toMessageJson(DetectionFilter filter, long timestampMs) {
+        StringBuilder sb = new StringBuilder(112 + count * 72);
+        sb.append("{\"type\":\"detections\",\"frameId\":").append(frameId)
+          .append(",\"timestamp\":").append(timestampMs)
+          .append(",\"width\":").append(width)
+          .append(",\"height\":").append(height)
+          .append(",\"detections\":");
+        if (filter == null && json != null) {
+            sb.append(json);
+        } else {
+            appendArray(sb, filter);
+        }
+        return sb.append('}').toString();
+    }
+
+    private void appendArray(StringBuilder sb, DetectionFilter filter) {
+        sb.append('[');
+        boolean first = true;
+        for (int i = 0; i < count; i++) {
+            if (filter != null && !filter.accepts(this, i)) continue;
+            if (!first) sb.append(',');
+            first = false;
+            sb.append("{\"label\":").append(labels[i])
+              .append(",\"x\":").append(x[i])
+              .append(",\"y\":").append(y[i])
+              .append(",\"w\":").append(w[i])
+              .append(",\"h\":").append(h[i])
+              .append(",\"score\":").append(scores[i])
+              .append('}');
+        }
+        sb.append(']');
+    }
+}
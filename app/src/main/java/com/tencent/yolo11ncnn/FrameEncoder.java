@@ -0,0 +1,327 @@
+/**
+ * FrameEncoder.java
+ *
+ * JPEG encode stage of the video stream, on its own thread so capture
+ * callbacks return at once. Captured bitmaps are handed over latest-wins: if
+ * the encoder is still busy, a frame waiting for it is replaced by the newer
+ * one. Each frame is encoded once for every rendition that is due, into that
+ * rendition's hub. Rotation to landscape and scaling to the rendition width are
+ * drawn in one pass into a target bitmap borrowed from the same BitmapPool as
+ * the capture bitmaps, and capture bitmaps go back to the pool once encoded.
+ *
+ * JPEGs are written into a small pool of reusable buffers and published in
+ * place; the hub hands each buffer back once no viewer is reading it, so in
+ * steady state no frame allocates its output array.
+ *
+ * Each stage (capture, wait, rotate, compress, publish) is timed so encode
+ * cost shows up in the video metrics.
+ */
+package com.tencent.yolo11ncnn;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.util.Log;
+import com.google.gson.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+
+public class FrameEncoder implements Runnable {
+    private static final String TAG = "FrameEncoder";
+
+    /**
+     * Time spent in one pipeline stage: last, average and worst.
+     */
+    static final class Stage {
+        final String name;
+        private long count = 0;
+        private long totalNs = 0;
+        private long lastNs = 0;
+        private long maxNs = 0;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        synchronized void record(long ns) {
+            count++;
+            totalNs += ns;
+            lastNs = ns;
+            maxNs = Math.max(maxNs, ns);
+        }
+
+        synchronized JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("lastMs", lastNs / 1e6);
+            json.addProperty("avgMs", count > 0 ? totalNs / 1e6 / count : 0);
+            json.addProperty("maxMs", maxNs / 1e6);
+            return json;
+        }
+    }
+
+    // Free buffers kept for reuse; more than this in use at once (many slow viewers) are let go when released
+    private static final int MAX_FREE_BUFFERS = 8;
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Reusable JPEG output buffer, published to a hub in place and returned to the
+     * free list by its release callback.
+     */
+    private final class JpegBuffer extends ByteArrayOutputStream implements Runnable {
+        JpegBuffer() {
+            super(INITIAL_BUFFER_BYTES);
+        }
+
+        /**
+         * The bytes written so far, without copying.
+         */
+        ByteBuffer wrap() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        // Hub release callback; runs on whichever thread drops the last reference
+        @Override
+        public void run() {
+            releaseBuffer(this);
+        }
+    }
+
+    private final List<Rendition> renditions;
+    private final BitmapPool pool;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // Frame waiting for the encoder; guarded by this
+    private Bitmap pending;
+    private int pendingRotation;
+    private long pendingSubmitNs;
+
+    // Guarded by itself
+    private final ArrayDeque<JpegBuffer> freeBuffers = new ArrayDeque<>();
+    private volatile long buffersAllocated = 0;
+    private volatile int buffersInUse = 0;
+
+    // Encoder thread only
+    private final Matrix rotation = new Matrix();
+    private final Canvas canvas = new Canvas();
+    private final Paint filter = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final Stage captureStage = new Stage("capture");
+    private final Stage waitStage = new Stage("wait");
+    private final Stage rotateStage = new Stage("rotate");
+    private final Stage compressStage = new Stage("compress");
+    private final Stage publishStage = new Stage("publish");
+    private volatile long encoded = 0;
+    private volatile long replaced = 0;
+    private volatile long errors = 0;
+    private volatile int lastBytes = 0;
+
+    /**
+     * @param renditions renditions to encode, read on every frame; safe to iterate while it changes
+     */
+    public FrameEncoder(List<Rendition> renditions, BitmapPool pool) {
+        this.renditions = renditions;
+        this.pool = pool;
+        this.thread = new Thread(this, "FrameEncoder");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Hand a captured frame, borrowed from the pool, to the encoder, which returns it.
+     *
+     * @param rotationDegrees clockwise rotation to apply while encoding (0, 90, 180 or 270)
+     * @param captureStartNs  System.nanoTime() when the capture was requested
+     */
+    public void submit(Bitmap bitmap, int rotationDegrees, long captureStartNs) {
+        long now = System.nanoTime();
+        captureStage.record(now - captureStartNs);
+        Bitmap old;
+        synchronized (this) {
+            old = pending;
+            pending = bitmap;
+            pendingRotation = rotationDegrees;
+            pendingSubmitNs = now;
+            notifyAll();
+        }
+        if (old != null) {
+            replaced++;
+            pool.release(old);
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        thread.interrupt();
+        Bitmap old;
+        synchronized (this) {
+            old = pending;
+            pending = null;
+        }
+        pool.release(old);
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Encoder started");
+        try {
+            while (running) {
+                Bitmap bitmap;
+                int rotationDegrees;
+                long submitNs;
+                synchronized (this) {
+                    while (pending == null && running) {
+                        wait();
+                    }
+                    if (!running) break;
+                    bitmap = pending;
+                    rotationDegrees = pendingRotation;
+                    submitNs = pendingSubmitNs;
+                    pending = null;
+                }
+                long start = System.nanoTime();
+                waitStage.record(start - submitNs);
+                try {
+                    encode(bitmap, rotationDegrees, start);
+                } catch (Exception e) {
+                    errors++;
+                    Log.e(TAG, "Error encoding frame: " + e.getMessage());
+                } finally {
+                    pool.release(bitmap);
+                }
+            }
+        } catch (InterruptedException e) {
+            // shutdown
+        }
+        Log.i(TAG, "Encoder stopped after " + encoded + " frames");
+    }
+
+    private void encode(Bitmap bitmap, int rotationDegrees, long startNs) {
+        int rotatedWidth = rotationDegrees % 180 != 0 ? bitmap.getHeight() : bitmap.getWidth();
+        for (Rendition r : renditions) {
+            if (r.takeIfDue(startNs)) {
+                encode(r, bitmap, rotationDegrees, rotatedWidth);
+            }
+        }
+    }
+
+    private void encode(Rendition r, Bitmap bitmap, int rotationDegrees, int rotatedWidth) {
+        long startNs = System.nanoTime();
+        int width = r.targetWidth(rotatedWidth);
+        Bitmap transformed = null;
+        if (rotationDegrees % 360 != 0 || width != rotatedWidth) {
+            transformed = transform(bitmap, rotationDegrees, width);
+            if (transformed == null) return;
+        }
+        Bitmap out = transformed != null ? transformed : bitmap;
+        long rotatedNs = System.nanoTime();
+        rotateStage.record(rotatedNs - startNs);
+
+        JpegBuffer jpeg = acquireBuffer();
+        try {
+            out.compress(Bitmap.CompressFormat.JPEG, r.quality, jpeg);
+            r.recordFrame(jpeg.size(), out.getWidth(), out.getHeight());
+        } catch (RuntimeException e) {
+            releaseBuffer(jpeg);
+            throw e;
+        } finally {
+            pool.release(transformed);
+        }
+        long compressedNs = System.nanoTime();
+        compressStage.record(compressedNs - rotatedNs);
+
+        // Shared with every viewer in place; the hub runs jpeg's release once they are all done
+        int size = jpeg.size();
+        r.hub.publish(jpeg.wrap(), 0, 0, compressedNs, jpeg);
+        publishStage.record(System.nanoTime() - compressedNs);
+        lastBytes = size;
+        encoded++;
+    }
+
+    private JpegBuffer acquireBuffer() {
+        JpegBuffer b;
+        synchronized (freeBuffers) {
+            b = freeBuffers.poll();
+            buffersInUse++;
+        }
+        if (b == null) {
+            b = new JpegBuffer();
+            buffersAllocated++;
+        }
+        b.reset();
+        return b;
+    }
+
+    private void releaseBuffer(JpegBuffer b) {
+        synchronized (freeBuffers) {
+            buffersInUse--;
+            if (freeBuffers.size() < MAX_FREE_BUFFERS) {
+                freeBuffers.add(b);
+            }
+        }
+    }
+
+    /**
+     * Draw src rotated clockwise and scaled to width (height in proportion) into a
+     * target bitmap from the pool, or null if none could be allocated. The caller
+     * returns it to the pool.
+     */
+    private Bitmap transform(Bitmap src, int degrees, int width) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        boolean swap = degrees % 180 != 0;
+        int rotatedWidth = swap ? h : w;
+        int rotatedHeight = swap ? w : h;
+        float scale = (float) width / rotatedWidth;
+        int height = Math.max(1, Math.round(rotatedHeight * scale));
+        Bitmap target = pool.acquire(width, height);
+        if (target == null) return null;
+        canvas.setBitmap(target);
+        // Rotate about the origin, then move the result back into the target
+        rotation.setRotate(degrees);
+        switch (((degrees % 360) + 360) % 360) {
+            case 90:
+                rotation.postTranslate(h, 0);
+                break;
+            case 180:
+                rotation.postTranslate(w, h);
+                break;
+            case 270:
+                rotation.postTranslate(0, w);
+                break;
+        }
+        rotation.postScale(scale, scale);
+        canvas.drawBitmap(src, rotation, scale != 1f ? filter : null);
+        canvas.setBitmap(null);
+        return target;
+    }
+
+    public long getEncoded() {
+        return encoded;
+    }
+
+    public JsonObject getStats() {
+        JsonObject json = new JsonObject();
+        json.addProperty("encoded", encoded);
+        json.addProperty("replaced", replaced);
+        json.addProperty("errors", errors);
+        json.addProperty("lastBytes", lastBytes);
+        JsonObject stages = new JsonObject();
+        for (Stage s : new Stage[] { captureStage, waitStage, rotateStage, compressStage, publishStage }) {
+            stages.add(s.name, s.toJson());
+        }
+        json.add("stages", stages);
+        JsonObject buffers = new JsonObject();
+        buffers.addProperty("allocated", buffersAllocated);
+        buffers.addProperty("inUse", buffersInUse);
+        synchronized (freeBuffers) {
+            buffers.addProperty("free", freeBuffers.size());
+        }
+        json.add("buffers", buffers);
+        return json;
+    }
+}
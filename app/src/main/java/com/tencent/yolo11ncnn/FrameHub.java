@@ -0,0 +1,288 @@
+/**
+ * FrameHub.java
+ *
+ * Hands the latest encoded video frame to any number of viewers. The producer
+ * publishes each frame once; every viewer has its own cursor and, when it is
+ * ready for another frame, gets the newest one, skipping any it was too slow
+ * for. Viewers never take frames from each other, so N viewers each see the
+ * full frame rate their connection allows while the frame is encoded once.
+ * A viewer opened with a frame interval is also held to that rate.
+ *
+ * Frames are reference counted: the hub holds the latest one and each viewer
+ * the one it is sending, and a frame's release callback runs once nobody
+ * does, so a frame can live in a pooled native buffer that is read in place.
+ */
+package com.tencent.yolo11ncnn;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FrameHub {
+    private static final String TAG = "FrameHub";
+
+    /**
+     * A published frame. The data is shared by every viewer and must not be modified.
+     */
+    public static final class Frame {
+        public final long seq;
+        // Camera frame id, the same as its detections' when the frame comes from native code
+        public final long frameId;
+        // Sensor timestamp, 0 if unknown
+        public final long cameraTimestampNs;
+        // System.nanoTime() clock: when the frame was rendered or captured
+        public final long timestampNs;
+        private final ByteBuffer data;
+        private final Runnable onRelease;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Frame(long seq, ByteBuffer data, long frameId, long cameraTimestampNs, long timestampNs, Runnable onRelease) {
+            this.seq = seq;
+            this.data = data;
+            this.frameId = frameId;
+            this.cameraTimestampNs = cameraTimestampNs;
+            this.timestampNs = timestampNs;
+            this.onRelease = onRelease;
+        }
+
+        /**
+         * The JPEG bytes, with a position and limit of the caller's own.
+         */
+        public ByteBuffer data() {
+            return data.duplicate();
+        }
+
+        public int size() {
+            return data.remaining();
+        }
+
+        void retain() {
+            refs.incrementAndGet();
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0 && onRelease != null) {
+                onRelease.run();
+            }
+        }
+    }
+
+    private final List<Viewer> viewers = new CopyOnWriteArrayList<>();
+    // Run after a viewer is added or removed, outside the hub lock; may be null
+    private final Runnable onViewersChanged;
+    // Guarded by this
+    private Frame latest;
+    private long published = 0;
+    private boolean closed = false;
+
+    public FrameHub() {
+        this(null);
+    }
+
+    public FrameHub(Runnable onViewersChanged) {
+        this.onViewersChanged = onViewersChanged;
+    }
+
+    /**
+     * Publish a frame and wake every viewer waiting for one. Never waits on viewers.
+     */
+    public void publish(byte[] data) {
+        long now = System.nanoTime();
+        publish(ByteBuffer.wrap(data), 0, 0, now, null);
+    }
+
+    /**
+     * Publish a frame held in a buffer that must stay unchanged until onRelease runs.
+     *
+     * @param frameId 0 to number frames by publish order
+     */
+    public synchronized void publish(ByteBuffer data, long frameId, long cameraTimestampNs, long timestampNs,
+                                     Runnable onRelease) {
+        if (closed) {
+            // Nobody will ever read it
+            if (onRelease != null) onRelease.run();
+            return;
+        }
+        published++;
+        Frame old = latest;
+        latest = new Frame(published, data, frameId != 0 ? frameId : published, cameraTimestampNs,
+                timestampNs, onRelease);
+        if (old != null) {
+            old.release();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Drop the current frame, so new viewers wait for the next one.
+     */
+    public synchronized void clear() {
+        if (latest != null) {
+            latest.release();
+            latest = null;
+        }
+    }
+
+    /**
+     * Drop the current frame and release anything published from now on at once,
+     * for a hub that has been retired.
+     */
+    public synchronized void close() {
+        closed = true;
+        clear();
+    }
+
+    /**
+     * Add a viewer. It starts with the current frame, if there is one.
+     */
+    public Viewer open(String name) {
+        return open(name, 0);
+    }
+
+    /**
+     * Add a viewer that is given at most one frame per minIntervalMs.
+     */
+    public Viewer open(String name, long minIntervalMs) {
+        Viewer v = new Viewer(name, minIntervalMs);
+        viewers.add(v);
+        Log.i(TAG, "Viewer added: " + name + " (" + viewers.size() + " total)");
+        if (onViewersChanged != null) onViewersChanged.run();
+        return v;
+    }
+
+    public synchronized long getPublishedCount() {
+        return published;
+    }
+
+    public int getViewerCount() {
+        return viewers.size();
+    }
+
+    /**
+     * Shortest frame interval any viewer asked for, or 0 if there are no viewers.
+     */
+    public long getMinIntervalMs() {
+        long min = Long.MAX_VALUE;
+        for (Viewer v : viewers) {
+            min = Math.min(min, v.intervalMs);
+        }
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * Current viewers, for stats reporting.
+     */
+    public List<Viewer> getViewers() {
+        return viewers;
+    }
+
+    /**
+     * One consumer's cursor and counters.
+     */
+    public class Viewer {
+        private final String name;
+        private final long intervalMs;
+        private final long openedMs = System.currentTimeMillis();
+        // Guarded by the hub
+        private long lastSeq = 0;
+        private long lastDeliveredMs = 0;
+        private boolean closed = false;
+        // Frame last returned by next(), held until the viewer moves on
+        private Frame current;
+
+        private volatile long delivered = 0;
+        private volatile long skipped = 0;
+        private volatile long bytes = 0;
+
+        Viewer(String name, long intervalMs) {
+            this.name = name;
+            this.intervalMs = intervalMs;
+        }
+
+        /**
+         * Newest frame this viewer has not had yet, waiting up to timeoutMs for one,
+         * and no sooner than its frame interval after the last one.
+         * Returns null on timeout or once the viewer is closed. The previous frame
+         * is released, so the caller must be done with it.
+         */
+        public Frame next(long timeoutMs) throws InterruptedException {
+            Frame frame;
+            synchronized (FrameHub.this) {
+                if (current != null) {
+                    current.release();
+                    current = null;
+                }
+                long now = System.currentTimeMillis();
+                long deadline = now + timeoutMs;
+                long dueMs = lastDeliveredMs + intervalMs;
+                while (!closed && (latest == null || latest.seq == lastSeq || now < dueMs)) {
+                    long wait = (now < dueMs ? Math.min(deadline, dueMs) : deadline) - now;
+                    if (now >= deadline) return null;
+                    FrameHub.this.wait(Math.max(1, wait));
+                    now = System.currentTimeMillis();
+                }
+                if (closed) return null;
+                frame = latest;
+                frame.retain();
+                current = frame;
+                if (lastSeq != 0) {
+                    skipped += frame.seq - lastSeq - 1;
+                }
+                lastSeq = frame.seq;
+                lastDeliveredMs = now;
+            }
+            delivered++;
+            bytes += frame.size();
+            return frame;
+        }
+
+        /**
+         * Remove this viewer from the hub; a pending next() returns null.
+         */
+        public void close() {
+            synchronized (FrameHub.this) {
+                if (closed) return;
+                closed = true;
+                if (current != null) {
+                    current.release();
+                    current = null;
+                }
+                FrameHub.this.notifyAll();
+            }
+            viewers.remove(this);
+            Log.i(TAG, "Viewer removed: " + name + " after " + delivered + " frames, " + skipped + " skipped");
+            if (onViewersChanged != null) onViewersChanged.run();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * Frames published while this viewer was still sending an earlier one or
+         * waiting out its frame interval.
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getOpenedMs() {
+            return openedMs;
+        }
+
+        public long getIntervalMs() {
+            return intervalMs;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * LoopbackRobot.java
+ *
+ * Stand-in for the ESP32 so the robot link can be tested without hardware.
+ * Listens on a local UDP port, accepts ASCII and binary commands, integrates
+ * the setpoint into four simulated mecanum wheel encoders and answers binary
+ * commands that request it with an ack carrying telemetry.
+ */
+package com.tencent.yolo11ncnn;
+
+import android.util.Log;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.Random;
+
+public class LoopbackRobot implements Runnable {
+    private static final String TAG = "LoopbackRobot";
+    private static final int START_BATTERY_MV = 12600;
+
+    private final DatagramSocket socket;
+    private final Thread thread;
+    private final Random random = new Random();
+    private volatile boolean running = false;
+    private volatile double ackDropRate = 0;
+
+    private final RobotProtocol.Command command = new RobotProtocol.Command();
+    private final RobotProtocol.Ack ack = new RobotProtocol.Ack();
+    private long lastCommandNs = 0;
+    private int x, y, r;
+    private double batteryMv = START_BATTERY_MV;
+
+    private volatile long commandsReceived = 0;
+    private volatile long asciiCommands = 0;
+    private volatile long acksSent = 0;
+    private volatile long acksDropped = 0;
+
+    /**
+     * Bind to 127.0.0.1 on port, or on a free port if port is 0.
+     */
+    public LoopbackRobot(int port) throws SocketException {
+        socket = new DatagramSocket(port, InetAddress.getLoopbackAddress());
+        thread = new Thread(this, "LoopbackRobot");
+        thread.setDaemon(true);
+        ack.batteryMv = START_BATTERY_MV;
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Drop this share of acks (0 to 1) to exercise loss accounting.
+     */
+    public void setAckDropRate(double rate) {
+        ackDropRate = Math.max(0, Math.min(1, rate));
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        socket.close();
+        try {
+            thread.join(500);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getCommandsReceived() {
+        return commandsReceived;
+    }
+
+    public long getAsciiCommands() {
+        return asciiCommands;
+    }
+
+    public long getAcksSent() {
+        return acksSent;
+    }
+
+    public long getAcksDropped() {
+        return acksDropped;
+    }
+
+    @Override
+    public void run() {
+        byte[] rxBuffer = new byte[64];
+        byte[] txBuffer = new byte[RobotProtocol.ACK_BYTES];
+        DatagramPacket rx = new DatagramPacket(rxBuffer, rxBuffer.length);
+        DatagramPacket tx = new DatagramPacket(txBuffer, txBuffer.length);
+
+        while (running) {
+            try {
+                rx.setData(rxBuffer);
+                socket.receive(rx);
+            } catch (Exception e) {
+                break; // socket closed
+            }
+            long t0 = System.nanoTime();
+            commandsReceived++;
+
+            if (RobotProtocol.decodeCommand(rxBuffer, rx.getLength(), command)) {
+                integrate(t0);
+                x = command.x;
+                y = command.y;
+                r = command.r;
+                if ((command.flags & RobotProtocol.FLAG_ACK_REQUEST) == 0) continue;
+                if (random.nextDouble() < ackDropRate) {
+                    acksDropped++;
+                    continue;
+                }
+                ack.seq = command.seq;
+                ack.timestampUs = command.timestampUs;
+                ack.flags = command.flags & RobotProtocol.FLAG_STOP;
+                ack.loopTimeUs = (int) ((System.nanoTime() - t0) / 1000);
+                int len = RobotProtocol.encodeAck(txBuffer, ack);
+                tx.setData(txBuffer, 0, len);
+                tx.setSocketAddress(rx.getSocketAddress());
+                try {
+                    socket.send(tx);
+                    acksSent++;
+                } catch (Exception e) {
+                    Log.w(TAG, "Failed to send ack: " + e.getMessage());
+                }
+            } else {
+                // ASCII "X,Y,R,E": nothing to acknowledge
+                asciiCommands++;
+            }
+        }
+    }
+
+    /**
+     * Advance the simulated encoders and battery by the time since the last command.
+     */
+    private void integrate(long nowNs) {
+        if (lastCommandNs != 0) {
+            double dt = (nowNs - lastCommandNs) / 1e9;
+            // mecanum wheel mix: front-left, front-right, rear-left, rear-right
+            ack.encoders[0] += (int) ((y + x + r) * dt);
+            ack.encoders[1] += (int) ((y - x - r) * dt);
+            ack.encoders[2] += (int) ((y - x + r) * dt);
+            ack.encoders[3] += (int) ((y + x - r) * dt);
+            int load = Math.abs(x) + Math.abs(y) + Math.abs(r);
+            batteryMv = Math.max(9000, batteryMv - load * dt / 10);
+            ack.batteryMv = (int) batteryMv;
+        }
+        lastCommandNs = nowNs;
+    }
+}
@@ -39,9 +39,6 @@ import android.widget.Toast;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
 
 // Removed complex robot imports - using simple server now
 
@@ -70,21 +67,13 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Si
     }
 
     /**
-     * Fix bitmap orientation if camera facing front or device rotated
+     * Clockwise rotation that turns a w x h capture into a landscape frame; the
+     * encoder applies it. Back camera rotate 90, front rotate 270.
      */
-    private Bitmap fixBitmapOrientation(Bitmap src) {
-        if (src == null) return null;
-        int w = src.getWidth();
-        int h = src.getHeight();
+    private int streamRotation(int w, int h) {
         // If already landscape, no rotation needed
-        if (w >= h) return src;
-
-        // Rotate portrait frames to landscape. Back camera rotate 90, front rotate 270.
-        int rotationDegrees = (facing == 1) ? 270 : 90;
-        android.graphics.Matrix matrix = new android.graphics.Matrix();
-        matrix.postRotate(rotationDegrees);
-        Bitmap rotated = Bitmap.createBitmap(src, 0, 0, w, h, matrix, true);
-        return rotated;
+        if (w >= h) return 0;
+        return (facing == 1) ? 270 : 90;
     }
     public static final int REQUEST_CAMERA = 100;
     public static final int REQUEST_NOTIFICATION = 101;
@@ -97,15 +86,8 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Si
     private volatile boolean isMoving = false;
     private volatile String lastCommand = "none";
     
-    // UDP robot communication
-    private DatagramSocket udpSocket;
-    private static final int ROBOT_UDP_PORT = 4210;
-    
-    // Robot movement state (X,Y,R,E format for ESP32)
-    private volatile int robotX = 0;    // Strafe: -255 to 255
-    private volatile int robotY = 0;    // Forward/Back: -255 to 255  
-    private volatile int robotR = 0;    // Rotation: -255 to 255
-    private volatile int robotE = 0;    // Elevator: -255 to 255
+    // UDP robot communication; the fleet owns the channel and each robot's X,Y,R,E setpoint
+    private RobotFleet robotFleet;
 
     private Spinner spinnerTask;
     private Spinner spinnerModel;
@@ -120,10 +102,57 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Si
     private SimpleHttpServer simpleServer;
     // Static reference used by native code to forward detections into Java
     private static SimpleHttpServer sSimpleServerStatic = null;
+    // Pooled detection frames shared with native code, indexed by slot
+    private static final int DETECTION_POOL_SIZE = 4;
+    private static DetectionFrame[] sDetectionFrames = null;
     private TextView serverStatusText;
     
     // Video streaming
     private Thread videoStreamThread;
+    // PixelCopy results are delivered here rather than on the main looper
+    private android.os.HandlerThread pixelCopyThread;
+    // Backpressure: at most this many PixelCopy requests in flight
+    private static final int CAPTURE_SLOTS = 3;
+    // Boolean intent extra that skips the native frame tap, e.g.
+    // adb shell am start -n com.tencent.yolo11ncnn/.MainActivity --ez pixelcopy true
+    private static final String EXTRA_PIXELCOPY = "pixelcopy";
+    // PixelCopy capture rate ceiling (~10 FPS)
+    private static final long MIN_CAPTURE_INTERVAL_MS = 100;
+    
+    /**
+     * One in-flight capture: the pooled bitmap PixelCopy fills and where it goes next.
+     * Reused for every request, so issuing a capture allocates nothing.
+     */
+    private static final class CaptureSlot implements PixelCopy.OnPixelCopyFinishedListener {
+        final VideoStreamServer videoServer;
+        volatile boolean busy = false;
+        Bitmap bitmap;
+        int rotation;
+        long startNs;
+        
+        CaptureSlot(VideoStreamServer videoServer) {
+            this.videoServer = videoServer;
+        }
+        
+        @Override
+        public void onPixelCopyFinished(int copyResult) {
+            Bitmap b = bitmap;
+            bitmap = null;
+            try {
+                if (copyResult == PixelCopy.SUCCESS) {
+                    // Only hands the bitmap over; the encoder thread rotates and compresses it
+                    videoServer.submitFrame(b, rotation, startNs);
+                } else {
+                    Log.w("MainActivity", "PixelCopy failed with code: " + copyResult);
+                    videoServer.releaseBitmap(b);
+                }
+            } catch (Exception e) {
+                Log.e("MainActivity", "Error submitting frame: " + e.getMessage());
+            } finally {
+                busy = false;
+            }
+        }
+    }
 
     /** Called when the activity is first created. */
     @Override
@@ -248,6 +277,7 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Si
             // register this Activity with native YOLO code so native can callback safely
             try {
                 yolo11ncnn.registerActivity(this);
+                registerDetectionBuffers();
             } catch (Exception e) {
                 Log.w("MainActivity", "Failed to register activity with native layer: " + e.getMessage());
             }
@@ -273,90 +303,137 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Si
     }
 
     /**
-     * Called from native code via JNI to push detection JSON into scripts.
+     * Allocate the pooled detection buffers and hand them to native code.
      */
-    public static void pushDetectionsToScripts(String json) {
-        if (sSimpleServerStatic != null) {
-            try {
-                sSimpleServerStatic.pushDetections(json);
-            } catch (Exception e) {
-                Log.w("MainActivity", "pushDetectionsToScripts failed: " + e.getMessage());
-            }
+    private void registerDetectionBuffers() {
+        DetectionFrame[] frames = new DetectionFrame[DETECTION_POOL_SIZE];
+        java.nio.ByteBuffer[] buffers = new java.nio.ByteBuffer[DETECTION_POOL_SIZE];
+        for (int i = 0; i < DETECTION_POOL_SIZE; i++) {
+            frames[i] = DetectionFrame.allocateDirect(DetectionFrame.DEFAULT_CAPACITY);
+            buffers[i] = frames[i].getBuffer();
+        }
+        sDetectionFrames = frames;
+        yolo11ncnn.setDetectionBuffers(buffers);
+    }
+
+    /**
+     * Called from native code via JNI after it has written a detection frame into a pooled slot.
+     */
+    public static void onDetectionFrame(int slot) {
+        DetectionFrame[] frames = sDetectionFrames;
+        if (sSimpleServerStatic == null || frames == null || slot < 0 || slot >= frames.length) {
+            return;
+        }
+        try {
+            DetectionFrame frame = frames[slot];
+            frame.decode();
+            sSimpleServerStatic.pushDetections(frame);
+        } catch (Exception e) {
+            Log.w("MainActivity", "onDetectionFrame failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Called from native code via JNI after it has JPEG-encoded a rendered frame into a stream slot.
+     */
+    public static void onStreamFrame(int slot) {
+        SimpleHttpServer server = sSimpleServerStatic;
+        if (server == null) {
+            return;
+        }
+        try {
+            server.getVideoStreamServer().onNativeFrame(slot);
+        } catch (Exception e) {
+            Log.w("MainActivity", "onStreamFrame failed: " + e.getMessage());
         }
     }
     
     /**
-     * Start the video streaming thread that generates frames.
+     * Start streaming video frames: from the native camera pipeline if it supports
+     * it, otherwise, or when launched with EXTRA_PIXELCOPY, from a thread that
+     * captures the view with PixelCopy.
      */
     private void startVideoStreaming() {
         if (videoStreamThread != null && videoStreamThread.isAlive()) {
             return;
         }
+        VideoStreamServer streamServer = simpleServer.getVideoStreamServer();
+        if (streamServer.isNativeTap()) {
+            return;
+        }
+        if (getIntent().getBooleanExtra(EXTRA_PIXELCOPY, false)) {
+            streamServer.usePixelCopy("forced by intent extra");
+        } else if (streamServer.useNativeTap(yolo11ncnn)) {
+            return;
+        }
+        
+        pixelCopyThread = new android.os.HandlerThread("PixelCopy");
+        pixelCopyThread.start();
+        final android.os.Handler copyHandler = new android.os.Handler(pixelCopyThread.getLooper());
         
         videoStreamThread = new Thread(() -> {
             Log.i("MainActivity", "Video streaming thread started");
             long frameCounter = 0;
             long lastLogTime = System.currentTimeMillis();
-            java.util.concurrent.atomic.AtomicInteger pendingCopies = new java.util.concurrent.atomic.AtomicInteger(0);
+            VideoStreamServer videoServer = simpleServer.getVideoStreamServer();
+            CaptureSlot[] slots = new CaptureSlot[CAPTURE_SLOTS];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = new CaptureSlot(videoServer);
+            }
             
             while (Thread.currentThread().isAlive() && simpleServer != null) {
                 try {
+                    // Nothing is captured while nobody is watching; a connecting viewer wakes this at once
+                    long interval = videoServer.awaitDemand();
+                    
                     // Capture real frame from SurfaceView using PixelCopy with backpressure
                     if (cameraView != null && cameraView.getHolder().getSurface().isValid()) {
                         int width = cameraView.getWidth();
                         int height = cameraView.getHeight();
                         
                         if (width > 0 && height > 0) {
-                            // Backpressure: limit pending PixelCopy operations to prevent memory exhaustion
-                            if (pendingCopies.get() < 3) {
-                                try {
-                                    Bitmap frameBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-                                    pendingCopies.incrementAndGet();
-                                    
-                                    // Try PixelCopy with main thread handler
-                                    android.os.Handler mainHandler = new android.os.Handler(android.os.Looper.getMainLooper());
-                                    
-                                    PixelCopy.request(cameraView, frameBitmap, copyResult -> {
-                                        try {
-                                            if (copyResult == PixelCopy.SUCCESS) {
-                                                // Fix orientation if needed
-                                                Bitmap rotatedBitmap = fixBitmapOrientation(frameBitmap);
-                                                if (simpleServer != null) {
-                                                    simpleServer.getVideoStreamServer().submitFrame(rotatedBitmap);
-                                                }
-                                                if (rotatedBitmap != frameBitmap) {
-                                                    frameBitmap.recycle();
-                                                }
-                                            } else {
-                                                Log.w("MainActivity", "PixelCopy failed with code: " + copyResult);
-                                            }
-                                        } catch (Exception e) {
-                                            Log.e("MainActivity", "Error submitting frame: " + e.getMessage());
-                                        } finally {
-                                            pendingCopies.decrementAndGet();
-                                        }
-                                    }, mainHandler);
-                                    
-                                    frameCounter++;
-                                } catch (IllegalArgumentException e) {
-                                    Log.w("MainActivity", "Cannot create bitmap with dimensions: " + width + "x" + height);
-                                } catch (OutOfMemoryError e) {
-                                    Log.e("MainActivity", "Out of memory creating bitmap, skipping frame");
-                                    // Force garbage collection
-                                    System.gc();
+                            // Backpressure: a free slot means fewer than CAPTURE_SLOTS copies are pending
+                            CaptureSlot slot = null;
+                            int pending = 0;
+                            for (CaptureSlot s : slots) {
+                                if (s.busy) {
+                                    pending++;
+                                } else if (slot == null) {
+                                    slot = s;
+                                }
+                            }
+                            if (slot != null) {
+                                Bitmap frameBitmap = videoServer.acquireBitmap(width, height);
+                                if (frameBitmap != null) {
+                                    slot.bitmap = frameBitmap;
+                                    slot.rotation = streamRotation(width, height);
+                                    slot.startNs = System.nanoTime();
+                                    slot.busy = true;
+                                    try {
+                                        PixelCopy.request(cameraView, frameBitmap, slot, copyHandler);
+                                        frameCounter++;
+                                    } catch (IllegalArgumentException e) {
+                                        // Surface went away between the check and the request
+                                        slot.bitmap = null;
+                                        slot.busy = false;
+                                        videoServer.releaseBitmap(frameBitmap);
+                                        Log.w("MainActivity", "PixelCopy request rejected: " + e.getMessage());
+                                    }
+                                } else if (frameCounter % 30 == 0) {
+                                    // The pool already logged the failure; just try again next frame
+                                    Log.w("MainActivity", "No capture bitmap available, skipping frame");
                                 }
-                                
                             } else {
                                 // Skip frame due to backpressure
                                 if (frameCounter % 30 == 0) {
-                                    Log.w("MainActivity", "Skipping frame due to backpressure (pending: " + pendingCopies.get() + ")");
+                                    Log.w("MainActivity", "Skipping frame due to backpressure (pending: " + pending + ")");
                                 }
                             }
                             
                             long now = System.currentTimeMillis();
                             if (now - lastLogTime >= 3000) {
-                                int queueSize = simpleServer != null ? simpleServer.getVideoStreamServer().getQueueSize() : 0;
-                                Log.i("MainActivity", "Video: submitted " + frameCounter + " requests, queue: " + queueSize + ", pending: " + pendingCopies.get());
+                                int viewers = simpleServer != null ? simpleServer.getVideoStreamServer().getViewerCount() : 0;
+                                Log.i("MainActivity", "Video: submitted " + frameCounter + " requests, viewers: " + viewers + ", pending: " + pending);
                                 lastLogTime = now;
                             }
                         } else {
@@ -366,8 +443,8 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Si
                         }
                     }
                     
-                    // Reduced frame rate: ~10 FPS to prevent memory pressure
-                    Thread.sleep(100);
+                    // At most ~10 FPS to prevent memory pressure, less if the viewers want less
+                    Thread.sleep(Math.max(MIN_CAPTURE_INTERVAL_MS, interval));
                     
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
@@ -503,70 +580,37 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Si
     }
     
     /**
-     * Initialize UDP socket for robot communication
+     * Start the robot fleet loop for robot communication
      */
     private void initializeUdpSocket() {
         try {
-            if (udpSocket != null && !udpSocket.isClosed()) {
-                udpSocket.close();
+            robotFleet = new RobotFleet();
+            robotFleet.start();
+            if (simpleServer != null) {
+                simpleServer.setRobotFleet(robotFleet);
             }
-            udpSocket = new DatagramSocket();
-            Log.i("MainActivity", "UDP socket initialized for robot communication");
+            Log.i("MainActivity", "Robot fleet initialized for robot communication");
         } catch (Exception e) {
-            Log.e("MainActivity", "Failed to initialize UDP socket: " + e.getMessage());
+            robotFleet = null;
+            Log.e("MainActivity", "Failed to initialize robot fleet: " + e.getMessage());
         }
     }
     
     /**
-     * Send UDP command to ESP32 robot
-     * @param x X movement value (-100 to 100)
-     * @param y Y movement value (-100 to 100) 
-     * @param r Rotation value (-100 to 100)
-     * @param e Extra value (0 or 1)
+     * Send UDP command to the default ESP32 robot. Only updates the setpoint; the
+     * fleet sends it right away and keeps repeating it at the robot's fixed rate.
+     * @param x X movement value (-255 to 255)
+     * @param y Y movement value (-255 to 255) 
+     * @param r Rotation value (-255 to 255)
+     * @param e Extra value (-255 to 255)
      */
     public void sendUdpCommand(int x, int y, int r, int e) {
-        if (udpSocket == null || udpSocket.isClosed()) {
-            Log.w("MainActivity", "UDP socket not initialized, cannot send command");
-            return;
-        }
-        
-        // Get current robot IP from SimpleHttpServer
-        String robotIp = simpleServer != null ? simpleServer.getRobotIp() : null;
-        if (robotIp == null || robotIp.isEmpty()) {
-            Log.w("MainActivity", "Robot IP not configured, cannot send UDP command");
+        RobotEndpoint robot = robotFleet != null ? robotFleet.get(RobotFleet.DEFAULT_ROBOT) : null;
+        if (robot == null) {
+            Log.w("MainActivity", "Robot fleet not initialized, cannot send command");
             return;
         }
-        
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    // Format: X,Y,R,E
-                    String command = x + "," + y + "," + r + "," + e;
-                    byte[] commandBytes = command.getBytes();
-                    
-                    InetAddress robotAddress = InetAddress.getByName(robotIp);
-                    DatagramPacket packet = new DatagramPacket(
-                        commandBytes, 
-                        commandBytes.length, 
-                        robotAddress, 
-                        ROBOT_UDP_PORT
-                    );
-                    
-                    udpSocket.send(packet);
-                    Log.d("MainActivity", "Sent UDP command to " + robotIp + ":" + ROBOT_UDP_PORT + " -> " + command);
-                    
-                    // Update robot state
-                    robotX = x;
-                    robotY = y;
-                    robotR = r;
-                    robotE = e;
-                    
-                } catch (Exception e) {
-                    Log.e("MainActivity", "Failed to send UDP command: " + e.getMessage());
-                }
-            }
-        }).start();
+        robot.setSetpoint(x, y, r, e);
     }
 
     @Override
@@ -642,16 +686,25 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Si
                 Thread.currentThread().interrupt();
             }
         }
+        if (pixelCopyThread != null) {
+            pixelCopyThread.quit();
+        }
+        
+        // Stop native code from writing into the pooled detection and stream buffers
+        yolo11ncnn.setDetectionBuffers(null);
+        if (simpleServer != null) {
+            simpleServer.getVideoStreamServer().releaseNativeTap();
+        }
         
         // Stop the simple server when activity is destroyed
         if (simpleServer != null) {
             simpleServer.stopServer();
         }
         
-        // Close UDP socket
-        if (udpSocket != null && !udpSocket.isClosed()) {
-            udpSocket.close();
-            Log.i("MainActivity", "UDP socket closed");
+        // Send a final stop and close the UDP socket
+        if (robotFleet != null) {
+            robotFleet.shutdown();
+            Log.i("MainActivity", "Robot fleet stopped");
         }
     }
 }
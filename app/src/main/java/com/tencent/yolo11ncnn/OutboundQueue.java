@@ -0,0 +1,158 @@
+/**
+ * OutboundQueue.java
+ *
+ * Bounded queue of messages waiting to be written to one WebSocket client.
+ * Each message is queued with a policy:
+ *   LATEST      only the newest message per key is kept (detections, state topics)
+ *   DROP_OLDEST kept in order; the oldest go once MAX_BUFFERED or MAX_BUFFERED_BYTES is exceeded (logs, events)
+ *   NEVER_DROP  kept in order and written before anything else (acks and replies)
+ * so a client on a slow link costs at most a bounded amount of memory, apart
+ * from NEVER_DROP messages, which are few and bounded by the slow-client disconnect.
+ */
+package com.tencent.yolo11ncnn;
+
+import com.google.gson.JsonObject;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+public class OutboundQueue {
+    public static final int MAX_BUFFERED = 256;
+    public static final int MAX_BUFFERED_BYTES = 256 * 1024;
+
+    public enum Policy { LATEST, DROP_OLDEST, NEVER_DROP }
+
+    /**
+     * A queued payload: a String or ByteBuffer, a PreparedMessage or binary detection
+     * frame shared with other clients, or a JsonObject state rendered when written.
+     */
+    static final class Message {
+        final String key;
+        final Object payload;
+        final int bytes;
+
+        Message(String key, Object payload) {
+            this.key = key;
+            this.payload = payload;
+            if (payload instanceof String) {
+                bytes = ((String) payload).length();
+            } else if (payload instanceof ByteBuffer) {
+                bytes = ((ByteBuffer) payload).remaining();
+            } else if (payload instanceof PreparedMessage) {
+                bytes = ((PreparedMessage) payload).size();
+            } else if (payload instanceof DetectionCodec.Payload) {
+                bytes = ((DetectionCodec.Payload) payload).size();
+            } else {
+                bytes = 0;
+            }
+        }
+    }
+
+    private final ArrayDeque<Message> control = new ArrayDeque<>();
+    private final LinkedHashMap<String, Message> latest = new LinkedHashMap<>();
+    private final ArrayDeque<Message> buffered = new ArrayDeque<>();
+    private long bufferedBytes = 0;
+    private long queuedBytes = 0;
+
+    private long dropped = 0;
+    private long replaced = 0;
+    private long written = 0;
+    private int maxDepth = 0;
+
+    public synchronized void offer(Policy policy, String key, Object payload) {
+        Message m = new Message(key, payload);
+        switch (policy) {
+            case NEVER_DROP:
+                control.add(m);
+                break;
+            case LATEST:
+                Message old = latest.remove(key);
+                if (old != null) {
+                    queuedBytes -= old.bytes;
+                    replaced++;
+                }
+                // Re-inserted so the map stays in order of the latest update
+                latest.put(key, m);
+                break;
+            case DROP_OLDEST:
+                buffered.add(m);
+                bufferedBytes += m.bytes;
+                while (buffered.size() > MAX_BUFFERED
+                        || (bufferedBytes > MAX_BUFFERED_BYTES && buffered.size() > 1)) {
+                    Message gone = buffered.poll();
+                    bufferedBytes -= gone.bytes;
+                    queuedBytes -= gone.bytes;
+                    dropped++;
+                }
+                break;
+        }
+        queuedBytes += m.bytes;
+        maxDepth = Math.max(maxDepth, depth());
+    }
+
+    /**
+     * Next message to write, control messages first, or null if empty.
+     */
+    synchronized Message poll() {
+        Message m = control.poll();
+        if (m == null) {
+            Iterator<Message> it = latest.values().iterator();
+            if (it.hasNext()) {
+                m = it.next();
+                it.remove();
+            }
+        }
+        if (m == null) {
+            m = buffered.poll();
+            if (m != null) {
+                bufferedBytes -= m.bytes;
+            }
+        }
+        if (m != null) {
+            queuedBytes -= m.bytes;
+            written++;
+        }
+        return m;
+    }
+
+    public synchronized boolean isEmpty() {
+        return control.isEmpty() && latest.isEmpty() && buffered.isEmpty();
+    }
+
+    public synchronized int depth() {
+        return control.size() + latest.size() + buffered.size();
+    }
+
+    /**
+     * Bytes of queued frames; state updates count once rendered.
+     */
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized long getReplaced() {
+        return replaced;
+    }
+
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    public synchronized JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("depth", depth());
+        json.addProperty("maxDepth", maxDepth);
+        json.addProperty("bytes", queuedBytes);
+        json.addProperty("control", control.size());
+        json.addProperty("written", written);
+        json.addProperty("dropped", dropped);
+        json.addProperty("replaced", replaced);
+        return json;
+    }
+}
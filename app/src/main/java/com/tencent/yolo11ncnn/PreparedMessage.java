@@ -0,0 +1,130 @@
+/**
+ * PreparedMessage.java
+ *
+ * A text or binary message encoded and framed once for every WebSocket client it
+ * goes to. The payload is built in the constructor; the frame bytes are built on
+ * first use and the same buffer is then handed to each connection, so the cost
+ * of a broadcast does not grow with the number of clients.
+ *
+ * Payloads of at least DEFLATE_MIN_BYTES also get a permessage-deflate frame
+ * (RFC 7692), compressed once and without context takeover, which any client
+ * that negotiated the extension can read. If compression does not make the
+ * message smaller, those clients get the plain frame too.
+ */
+package com.tencent.yolo11ncnn;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+public class PreparedMessage {
+    public static final int DEFLATE_MIN_BYTES = 1024;
+
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int FIN = 0x80;
+    private static final int RSV1 = 0x40;
+
+    // Shared by all messages; each message is compressed on its own, so one stream is enough
+    private static final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+
+    private final byte[] payload;
+    private final int opcode;
+    private final SimpleWebSocketServer server;
+    private ByteBuffer plainFrame;
+    private ByteBuffer deflatedFrame;
+
+    PreparedMessage(String text, SimpleWebSocketServer server) {
+        this(text.getBytes(StandardCharsets.UTF_8), OPCODE_TEXT, server);
+    }
+
+    private PreparedMessage(byte[] payload, int opcode, SimpleWebSocketServer server) {
+        this.payload = payload;
+        this.opcode = opcode;
+        this.server = server;
+    }
+
+    /**
+     * A binary message; payload must not be modified afterwards.
+     */
+    static PreparedMessage binary(byte[] payload, SimpleWebSocketServer server) {
+        return new PreparedMessage(payload, OPCODE_BINARY, server);
+    }
+
+    public int size() {
+        return payload.length;
+    }
+
+    /**
+     * Frame for one connection; position and limit are its own, the bytes are shared.
+     */
+    synchronized ByteBuffer frame(boolean deflate) {
+        if (deflate && payload.length >= DEFLATE_MIN_BYTES) {
+            if (deflatedFrame == null) {
+                deflatedFrame = deflateFrame();
+            }
+            return deflatedFrame.duplicate();
+        }
+        return plainFrame().duplicate();
+    }
+
+    /**
+     * Bytes saved by sending frame(deflate) instead of the plain frame.
+     */
+    synchronized int savedBytes(boolean deflate) {
+        if (!deflate || deflatedFrame == null) {
+            return 0;
+        }
+        return plainFrame().remaining() - deflatedFrame.remaining();
+    }
+
+    private ByteBuffer plainFrame() {
+        if (plainFrame == null) {
+            plainFrame = buildFrame(opcode, payload, payload.length, false);
+        }
+        return plainFrame;
+    }
+
+    private ByteBuffer deflateFrame() {
+        byte[] out = new byte[payload.length + 64];
+        int n = 0;
+        synchronized (deflater) {
+            deflater.reset();
+            deflater.setInput(payload);
+            while (true) {
+                n += deflater.deflate(out, n, out.length - n, Deflater.SYNC_FLUSH);
+                if (n < out.length) break;
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+        }
+        // A sync flush ends in 00 00 ff ff, which the receiver adds back
+        if (n >= 4 && out[n - 4] == 0 && out[n - 3] == 0 && out[n - 2] == (byte) 0xff && out[n - 1] == (byte) 0xff) {
+            n -= 4;
+        }
+        if (n >= payload.length) {
+            server.onDeflated(payload.length, payload.length);
+            return plainFrame();
+        }
+        server.onDeflated(payload.length, n);
+        return buildFrame(opcode, out, n, true);
+    }
+
+    private static ByteBuffer buildFrame(int opcode, byte[] data, int length, boolean compressed) {
+        int header = length <= 125 ? 2 : length <= 0xFFFF ? 4 : 10;
+        ByteBuffer frame = ByteBuffer.allocate(header + length);
+        frame.put((byte) (FIN | (compressed ? RSV1 : 0) | opcode));
+        if (length <= 125) {
+            frame.put((byte) length);
+        } else if (length <= 0xFFFF) {
+            frame.put((byte) 126);
+            frame.putShort((short) length);
+        } else {
+            frame.put((byte) 127);
+            frame.putLong(length);
+        }
+        frame.put(data, 0, length);
+        frame.flip();
+        return frame;
+    }
+}
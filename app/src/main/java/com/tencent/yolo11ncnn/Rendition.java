@@ -0,0 +1,99 @@
+/**
+ * Rendition.java
+ *
+ * One variant of the video stream that viewers asked for: output width and
+ * JPEG quality. Viewers asking for the same width and quality share the
+ * rendition's FrameHub, so it is encoded once however many watch it, at the
+ * fastest frame rate any of them asked for; the hub holds each viewer to its
+ * own rate. A rendition exists only while it has viewers.
+ */
+package com.tencent.yolo11ncnn;
+
+import com.google.gson.JsonObject;
+
+public class Rendition {
+    public static final int MAX_FPS = 30;
+    public static final int MIN_WIDTH = 160;
+    public static final int MIN_QUALITY = 10;
+    public static final int MAX_QUALITY = 95;
+
+    final int id;
+    // Output width in pixels, 0 for the source width; never scaled up
+    final int width;
+    final int quality;
+    final FrameHub hub;
+
+    // Producer thread only
+    private long lastEncodeNs = 0;
+    private volatile int lastBytes = 0;
+    private volatile int lastWidth = 0;
+    private volatile int lastHeight = 0;
+
+    Rendition(int id, int width, int quality, Runnable onViewersChanged) {
+        this.id = id;
+        this.width = width;
+        this.quality = quality;
+        this.hub = new FrameHub(onViewersChanged);
+    }
+
+    static String key(int width, int quality) {
+        return "w" + width + "q" + quality;
+    }
+
+    String key() {
+        return key(width, quality);
+    }
+
+    /**
+     * Interval of the fastest viewer, or 0 if there are none.
+     */
+    long getIntervalMs() {
+        return hub.getMinIntervalMs();
+    }
+
+    /**
+     * Whether a frame captured at nowNs should be encoded for this rendition, and if
+     * so, counts it as encoded. A quarter interval of slack keeps capture jitter from
+     * halving the rate.
+     */
+    boolean takeIfDue(long nowNs) {
+        if (hub.getViewerCount() == 0) return false;
+        long intervalNs = getIntervalMs() * 1000000L;
+        if (lastEncodeNs != 0 && nowNs - lastEncodeNs < intervalNs - intervalNs / 4) {
+            return false;
+        }
+        lastEncodeNs = nowNs;
+        return true;
+    }
+
+    /**
+     * Output width for a source of sourceWidth pixels.
+     */
+    int targetWidth(int sourceWidth) {
+        return width > 0 && width < sourceWidth ? width : sourceWidth;
+    }
+
+    int getLastWidth() {
+        return lastWidth;
+    }
+
+    void recordFrame(int bytes, int frameWidth, int frameHeight) {
+        lastBytes = bytes;
+        lastWidth = frameWidth;
+        lastHeight = frameHeight;
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("requestedWidth", width);
+        json.addProperty("quality", quality);
+        long interval = getIntervalMs();
+        json.addProperty("fps", interval > 0 ? 1000.0 / interval : MAX_FPS);
+        json.addProperty("width", lastWidth);
+        json.addProperty("height", lastHeight);
+        json.addProperty("lastBytes", lastBytes);
+        json.addProperty("published", hub.getPublishedCount());
+        return json;
+    }
+}
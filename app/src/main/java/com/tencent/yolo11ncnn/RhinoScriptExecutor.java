@@ -2,35 +2,106 @@
  * RhinoScriptExecutor.java
  * 
  * Executes JavaScript scripts using Mozilla Rhino engine with a robot control API.
- * Provides functions: move(), rotate(), stop(), wait(), log(), print()
+ * Several named scripts (ScriptTask) can run at once; the executor owns what they
+ * share: compiled scripts, the standard scope, detections, the publish/subscribe
+ * channel and the motor arbiter.
+ * Provides functions: move(), rotate(), stop(), wait(), log(), print(),
+ * onDetection(), setTimeout(), setInterval(), clearTimeout(), clearInterval(),
+ * publish(), subscribe(), unsubscribe(), releaseMotors(), heartbeat(), trajectory()
+ * and robot(name) to address one robot or a group of the RobotFleet.
  */
 package com.tencent.yolo11ncnn;
 
 import android.util.Log;
 import org.mozilla.javascript.*;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.concurrent.atomic.AtomicBoolean;
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
-import org.mozilla.javascript.Function;
-import org.mozilla.javascript.Scriptable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class RhinoScriptExecutor {
     private static final String TAG = "RhinoScriptExecutor";
+    public static final String DEFAULT_TASK = "main";
+    public static final int DEFAULT_PRIORITY = 5;
+    // Scripts allowed to run at once; also the number of task records kept
+    public static final int MAX_TASKS = 4;
     
-    private final RobotApi robotApi;
-    private final AtomicBoolean running = new AtomicBoolean(false);
-    private final StringBuilder output = new StringBuilder();
-    private String lastError = null;
-    private Thread executionThread = null;
-    private Context rhinoContext = null;
-    // For YOLO detection API
-    private volatile String lastDetectionsJson = "[]";
-    private volatile ScriptableObject globalScope = null;
-    private final Gson gson = new Gson();
+    // Convenience functions so users can call move() instead of robot.move()
+    private static final String HELPER_SOURCE =
+        // Movement functions
+        "function move(direction, speed) { robot.move(direction, speed); }\n" +
+        "function rotate(direction, speed) { robot.rotate(direction, speed); }\n" +
+        "function stop() { robot.stop(); }\n" +
+        
+        // Timing function (use sleep to avoid calling Object.wait)
+        "function wait(ms) { robot.sleep(ms); }\n" +
+        "function sleep(ms) { robot.sleep(ms); }\n" +
+        "function delay(ms) { robot.sleep(ms); }\n" +
+        
+        // Output functions
+        "function log(msg) { robot.log(msg); }\n" +
+        "function print(msg) { robot.log(msg); }\n" +
+        "var console = { log: function(msg) { robot.log(msg); } };\n" +
+        
+        // Helper for repeating actions
+        "function repeat(n, fn) { for(var i = 0; i < n; i++) { fn(i); } }\n" +
+        
+        // Direction constants
+        "var FORWARD = 'forward';\n" +
+        "var BACKWARD = 'backward';\n" +
+        "var LEFT = 'left';\n" +
+        "var RIGHT = 'right';\n" +
+        // YOLO detection helpers
+        "function onDetection(fn) { this.__yolo_onDetection = fn; }\n" +
+        "function getLastDetections() { try { return JSON.parse(robot.getLastDetections()); } catch(e) { return []; } }\n" +
+        
+        // Timers, dispatched by the script event loop
+        "function setTimeout(fn, ms) { var args = Array.prototype.slice.call(arguments, 2); return robot.setTimeout(function() { fn.apply(null, args); }, ms || 0); }\n" +
+        "function setInterval(fn, ms) { var args = Array.prototype.slice.call(arguments, 2); return robot.setInterval(function() { fn.apply(null, args); }, ms || 0); }\n" +
+        "function clearTimeout(id) { if (id) robot.clearTimer(id); }\n" +
+        "function clearInterval(id) { if (id) robot.clearTimer(id); }\n" +
+        
+        // Inter-script messages, values are passed between tasks as JSON
+        "function publish(topic, value) { robot.publish(topic, JSON.stringify(value)); }\n" +
+        "function subscribe(topic, fn) { robot.subscribe(topic, function(json, from) { fn(json == null ? undefined : JSON.parse(json), from); }); }\n" +
+        "function unsubscribe(topic) { robot.unsubscribe(topic); }\n" +
+        "function releaseMotors() { robot.releaseMotors(); }\n" +
+        "function heartbeat() { robot.heartbeat(); }\n" +
+        "function trajectory(points, options) { return robot.trajectory(points, options); }\n" +
+        
+        // robot("left").move(...) addresses a fleet robot or group; robot.move(...) still drives the default
+        "var robot = (function(api) {\n" +
+        "  var f = function(name) { return api.target(String(name)); };\n" +
+        "  for (var k in api) (function(k) { f[k] = function() { return api[k].apply(api, arguments); }; })(k);\n" +
+        "  return f;\n" +
+        "})(robot);\n";
+    
+    private final RobotCommandCallback callback;
+    // For YOLO detection API (guarded by its own monitor)
+    private final DetectionFrame lastDetections = new DetectionFrame(DetectionFrame.DEFAULT_CAPACITY);
+    
+    // Compiled helpers and user scripts, plus the sealed standard objects every run inherits from
+    private final ScriptCache scriptCache = new ScriptCache();
+    private final ScriptableObject sharedScope;
+    
+    // Interpreted contexts with instruction counting, used for every enter
+    private final ScriptContextFactory contextFactory = new ScriptContextFactory();
+    
+    // Tasks by name in start order, guarded by this; the array is a copy for lock-free fan-out
+    private final Map<String, ScriptTask> tasks = new LinkedHashMap<>();
+    private volatile ScriptTask[] taskSnapshot = new ScriptTask[0];
+    
+    // Motor arbitration per robot name, guarded by this
+    private final Map<String, ScriptTask> motorOwners = new HashMap<>();
+    private long motorCommandsDenied = 0;
+    
+    private final AtomicLong messagesPublished = new AtomicLong();
+    private volatile LogListener logListener;
+    private volatile RobotFleet robotFleet;
     
     /**
      * Callback interface for robot control commands.
@@ -41,328 +112,322 @@ public class RhinoScriptExecutor {
         void onStop();
     }
     
-    public RhinoScriptExecutor(RobotCommandCallback callback) {
-        this.robotApi = new RobotApi(callback);
-    }
-    
     /**
-     * Check if a script is currently running.
+     * Receives every line written to any task's log, on the writing thread.
      */
-    public boolean isRunning() {
-        return running.get();
+    public interface LogListener {
+        void onLine(String task, long seq, String line);
     }
     
-    /**
-     * Get the script output.
-     */
-    public String getOutput() {
-        return output.toString();
+    public RhinoScriptExecutor(RobotCommandCallback callback) {
+        this.callback = callback;
+        
+        // Build the shared standard scope and compile the helpers once, up front
+        Context cx = contextFactory.enterContext();
+        try {
+            this.sharedScope = cx.initStandardObjects(null, true);
+            scriptCache.compile(cx, HELPER_SOURCE, "helpers");
+        } finally {
+            Context.exit();
+        }
+    }
+    
+    public void setLogListener(LogListener listener) {
+        this.logListener = listener;
     }
     
     /**
-     * Get the last error message.
+     * Fleet that robot(name) in scripts resolves against.
      */
-    public String getLastError() {
-        return lastError;
+    public void setRobotFleet(RobotFleet fleet) {
+        this.robotFleet = fleet;
     }
     
     /**
-     * Clear output and errors.
+     * Check if any script is currently running.
      */
-    public void clearOutput() {
-        output.setLength(0);
-        lastError = null;
+    public boolean isRunning() {
+        for (ScriptTask task : taskSnapshot) {
+            if (task.isRunning()) return true;
+        }
+        return false;
     }
     
     /**
-     * Execute a JavaScript script in a background thread.
+     * Execute a script as the default task with default priority and no CPU limit.
      */
-    public void execute(String script) {
-        if (running.get()) {
-            throw new IllegalStateException("Script is already running");
-        }
-        
-        clearOutput();
-        running.set(true);
-        
-        executionThread = new Thread(() -> {
-            try {
-                executeScript(script);
-            } catch (Exception e) {
-                lastError = e.getMessage();
-                appendOutput("ERROR: " + e.getMessage());
-                Log.e(TAG, "Script execution error", e);
-            } finally {
-                running.set(false);
-                // Ensure robot stops when script ends
-                robotApi.stop();
-            }
-        });
-        executionThread.start();
+    public ScriptTask execute(String script) {
+        return execute(DEFAULT_TASK, script, DEFAULT_PRIORITY, 0);
     }
     
     /**
-     * Stop the currently running script.
+     * Execute a script as a named task in a background thread.
+     * The script is compiled (or fetched from the cache) on the calling thread so syntax
+     * errors are reported immediately; returns once the script thread has started running it.
+     * @param priority 1 to 10; higher priority tasks win the motors and get more CPU
+     * @param maxInstructionsPerSecond interpreted instruction budget, 0 for no limit
+     * @throws IllegalArgumentException on a syntax error
+     * @throws IllegalStateException if the task is already running or too many are
      */
-    public void stop() {
-        if (!running.get()) return;
-        
-        running.set(false);
+    public ScriptTask execute(String name, String script, int priority, long maxInstructionsPerSecond) {
+        long requestedNs = System.nanoTime();
+        ScriptCache.Entry compiled = compile(script);
+        int p = Math.max(Thread.MIN_PRIORITY, Math.min(Thread.MAX_PRIORITY, priority));
         
-        // Interrupt the execution thread
-        if (executionThread != null) {
-            executionThread.interrupt();
-        }
-        
-        // Interrupt Rhino context if available
-        if (rhinoContext != null) {
-            try {
-                // This causes Rhino to throw an exception at the next instruction
-                rhinoContext.setGeneratingDebug(false);
-            } catch (Exception e) {
-                // Ignore
+        ScriptTask task;
+        synchronized (this) {
+            ScriptTask existing = tasks.get(name);
+            if (existing != null && existing.isRunning()) {
+                throw new IllegalStateException("Script '" + name + "' is already running");
+            }
+            int runningCount = 0;
+            for (ScriptTask t : tasks.values()) {
+                if (t.isRunning()) runningCount++;
             }
+            if (runningCount >= MAX_TASKS) {
+                throw new IllegalStateException("Too many scripts running (max " + MAX_TASKS + ")");
+            }
+            
+            // A rerun continues the log numbering so pollers of the old run pick up the new lines
+            long firstLogSeq = existing != null ? existing.getLog().getNextSeq() : 0;
+            tasks.remove(name);
+            // Make room by forgetting the oldest finished task
+            Iterator<ScriptTask> it = tasks.values().iterator();
+            while (tasks.size() >= MAX_TASKS && it.hasNext()) {
+                if (!it.next().isRunning()) it.remove();
+            }
+            task = new ScriptTask(this, name, p, compiled, requestedNs,
+                    maxInstructionsPerSecond, firstLogSeq);
+            tasks.put(name, task);
+            taskSnapshot = tasks.values().toArray(new ScriptTask[0]);
         }
         
-        // Stop the robot
-        robotApi.stop();
-        appendOutput("Script stopped by user");
+        task.start();
+        return task;
     }
-
+    
     /**
-     * Push detection JSON from Java side into the Rhino executor.
-     * This will update `lastDetectionsJson` and invoke any registered JS callback set via `onDetection(fn)`.
+     * Compile a user script through the cache.
+     * @throws IllegalArgumentException if the script has a syntax error
      */
-    public void pushDetections(String detectionsJson) {
-        if (detectionsJson == null) detectionsJson = "[]";
-        lastDetectionsJson = detectionsJson;
-
-        ScriptableObject scope;
-        synchronized (this) {
-            scope = this.globalScope;
-        }
-
-        if (scope == null) {
-            // no active script scope to call into
-            return;
-        }
-
-        Context cx = Context.enter();
+    private ScriptCache.Entry compile(String script) {
+        Context cx = contextFactory.enterContext();
         try {
-            cx.setOptimizationLevel(-1);
-
-            Object cb = ScriptableObject.getProperty(scope, "__yolo_onDetection");
-            if (cb instanceof Function) {
-                Function fn = (Function) cb;
-                Object arg = Context.javaToJS(gson.fromJson(detectionsJson, Object.class), scope);
-                try {
-                    fn.call(cx, scope, scope, new Object[]{arg});
-                } catch (Exception e) {
-                    appendOutput("Error calling detection callback: " + e.getMessage());
-                }
-            }
-        } catch (JsonSyntaxException e) {
-            appendOutput("Invalid detection JSON: " + e.getMessage());
+            return scriptCache.compile(cx, script, "script");
+        } catch (EvaluatorException e) {
+            throw new IllegalArgumentException("Syntax error at line " + e.lineNumber() + ": " + e.details());
         } finally {
             Context.exit();
         }
     }
     
     /**
-     * Execute the script using Rhino.
+     * Get a task by name, or null if no task with that name has run.
      */
-    private void executeScript(String script) {
-        appendOutput("Starting script execution...");
-        
-        // Create Rhino context (Android-compatible)
-        rhinoContext = Context.enter();
-        try {
-            // Disable JIT compilation for Android compatibility
-            rhinoContext.setOptimizationLevel(-1);
-            
-            // Create a fresh scope
-            ScriptableObject scope = rhinoContext.initStandardObjects();
-            
-            // Inject the robot API object
-            Object wrappedApi = Context.javaToJS(robotApi, scope);
-            ScriptableObject.putProperty(scope, "robot", wrappedApi);
-            
-            // Inject convenience functions directly into scope
-            injectConvenienceFunctions(rhinoContext, scope);
-            
-            // Execute the script
-            rhinoContext.evaluateString(scope, script, "script", 1, null);
-            
-            appendOutput("Script completed successfully");
-            
-        } catch (RhinoException e) {
-            lastError = e.getMessage();
-            appendOutput("Script error at line " + e.lineNumber() + ": " + e.details());
-            Log.e(TAG, "Rhino error", e);
-        } catch (Exception e) {
-            lastError = e.getMessage();
-            appendOutput("Error: " + e.getMessage());
-            Log.e(TAG, "Execution error", e);
-        } finally {
-            // clear stored scope
-            synchronized (this) {
-                this.globalScope = null;
-            }
-            Context.exit();
-            rhinoContext = null;
+    public synchronized ScriptTask getTask(String name) {
+        return tasks.get(name);
+    }
+    
+    /**
+     * All known tasks in start order, running or finished.
+     */
+    public synchronized List<ScriptTask> getTasks() {
+        return new ArrayList<>(tasks.values());
+    }
+    
+    /**
+     * Get the compiled script cache for stats reporting.
+     */
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+    
+    /**
+     * Stop every running script.
+     */
+    public void stop() {
+        for (ScriptTask task : taskSnapshot) {
+            stop(task.getName());
         }
     }
     
     /**
-     * Inject convenience functions so users can call move() instead of robot.move()
+     * Stop a named script. Returns false if it was not running.
      */
-    private void injectConvenienceFunctions(Context cx, ScriptableObject scope) {
-        String helperFunctions = 
-            // Movement functions
-            "function move(direction, speed) { robot.move(direction, speed); }\n" +
-            "function rotate(direction, speed) { robot.rotate(direction, speed); }\n" +
-            "function stop() { robot.stop(); }\n" +
-            
-            // Timing function (use sleep to avoid calling Object.wait)
-            "function wait(ms) { robot.sleep(ms); }\n" +
-            "function sleep(ms) { robot.sleep(ms); }\n" +
-            "function delay(ms) { robot.sleep(ms); }\n" +
-            
-            // Output functions
-            "function log(msg) { robot.log(msg); }\n" +
-            "function print(msg) { robot.log(msg); }\n" +
-            
-            // Helper for repeating actions
-            "function repeat(n, fn) { for(var i = 0; i < n; i++) { fn(i); } }\n" +
-            
-            // Direction constants
-            "var FORWARD = 'forward';\n" +
-            "var BACKWARD = 'backward';\n" +
-            "var LEFT = 'left';\n" +
-            "var RIGHT = 'right';\n" +
-            // YOLO detection helpers
-            "function onDetection(fn) { this.__yolo_onDetection = fn; }\n" +
-            "function getLastDetections() { try { return JSON.parse(robot.getLastDetections()); } catch(e) { return []; } }\n";
-        
-        cx.evaluateString(scope, helperFunctions, "helpers", 1, null);
+    public boolean stop(String name) {
+        ScriptTask task = getTask(name);
+        if (task == null || !task.isRunning()) return false;
+        task.stop();
+        // Stop the robot right away if this task was driving it
+        releaseMotorsAndStop(task);
+        return true;
+    }
 
-        // remember global scope so Java can call detection callbacks
-        synchronized (this) {
-            this.globalScope = scope;
+    /**
+     * Push a detection frame from Java side into the Rhino executor.
+     * This updates `lastDetections` and queues an event for the callback each task registered
+     * via `onDetection(fn)`; the callbacks themselves run on the task threads.
+     */
+    public void pushDetections(DetectionFrame frame) {
+        if (frame == null) return;
+        synchronized (lastDetections) {
+            lastDetections.copyFrom(frame);
         }
 
-        // Define a JS console object that delegates to robot.log()
-        cx.evaluateString(scope,
-                "var console = { log: function(msg) { robot.log(msg); } };",
-                "console_helper", 1, null);
+        for (ScriptTask task : taskSnapshot) {
+            task.postDetections(frame);
+        }
     }
     
     /**
-     * Append a message to the output with timestamp.
+     * Name of the task currently holding the default robot's motors, or null.
      */
-    private void appendOutput(String message) {
-        String timestamp = new SimpleDateFormat("HH:mm:ss", Locale.US).format(new Date());
-        output.append("[").append(timestamp).append("] ").append(message).append("\n");
-        Log.d(TAG, message);
+    public synchronized String getMotorOwner() {
+        ScriptTask owner = motorOwners.get(RobotFleet.DEFAULT_ROBOT);
+        return owner != null ? owner.getName() : null;
     }
     
     /**
-     * Robot API class exposed to JavaScript.
-     * All public methods are callable from JS.
+     * Task name holding each robot's motors, by robot name.
      */
-    public class RobotApi {
-        private final RobotCommandCallback callback;
-        
-        public RobotApi(RobotCommandCallback callback) {
-            this.callback = callback;
+    public synchronized Map<String, String> getMotorOwners() {
+        Map<String, String> owners = new LinkedHashMap<>();
+        for (Map.Entry<String, ScriptTask> e : motorOwners.entrySet()) {
+            owners.put(e.getKey(), e.getValue().getName());
         }
-        
-        /**
-         * Move the robot in a direction.
-         * @param direction "forward", "backward", "left", "right"
-         * @param speed 0.0 to 1.0
-         */
-        public void move(String direction, double speed) {
-            checkRunning();
-            float s = Math.max(0f, Math.min(1f, (float) speed));
-            appendOutput("move('" + direction + "', " + s + ")");
-            if (callback != null) {
-                callback.onMove(direction, s);
-            }
+        return owners;
+    }
+    
+    /**
+     * Motor commands dropped across all tasks because a higher-priority task held the motors.
+     */
+    public synchronized long getMotorCommandsDenied() {
+        return motorCommandsDenied;
+    }
+    
+    public long getMessagesPublished() {
+        return messagesPublished.get();
+    }
+    
+    // ========== Used by ScriptTask ==========
+    
+    RobotCommandCallback getCallback() {
+        return callback;
+    }
+    
+    RobotFleet getRobotFleet() {
+        return robotFleet;
+    }
+    
+    ScriptContextFactory getContextFactory() {
+        return contextFactory;
+    }
+    
+    /**
+     * Lightweight per-run scope on top of the sealed shared standard objects.
+     */
+    Scriptable newTaskScope(Context cx) {
+        Scriptable scope = cx.newObject(sharedScope);
+        scope.setPrototype(sharedScope);
+        scope.setParentScope(null);
+        return scope;
+    }
+    
+    /**
+     * Inject convenience functions so users can call move() instead of robot.move().
+     * The helpers are precompiled, so this only runs their declarations in the new scope.
+     */
+    void injectConvenienceFunctions(Context cx, Scriptable scope) {
+        scriptCache.compile(cx, HELPER_SOURCE, "helpers").script.exec(cx, scope);
+    }
+    
+    String getLastDetectionsJson() {
+        synchronized (lastDetections) {
+            return lastDetections.toJson();
         }
-        
-        /**
-         * Rotate the robot.
-         * @param direction "left" or "right"
-         * @param speed 0.0 to 1.0
-         */
-        public void rotate(String direction, double speed) {
-            checkRunning();
-            float s = Math.max(0f, Math.min(1f, (float) speed));
-            appendOutput("rotate('" + direction + "', " + s + ")");
-            if (callback != null) {
-                callback.onRotate(direction, s);
-            }
+    }
+    
+    /**
+     * Deliver a message to every task subscribed to topic, including the sender.
+     */
+    void publish(ScriptTask from, String topic, String json) {
+        messagesPublished.incrementAndGet();
+        for (ScriptTask task : taskSnapshot) {
+            task.postMessage(topic, json, from.getName());
         }
-        
-        /**
-         * Stop all motors.
-         */
-        public void stop() {
-            appendOutput("stop()");
-            if (callback != null) {
-                callback.onStop();
-            }
+    }
+    
+    /**
+     * Grant a robot's motors to task unless a running task with higher or equal priority holds them.
+     */
+    synchronized boolean acquireMotors(ScriptTask task, String robotName) {
+        ScriptTask owner = motorOwners.get(robotName);
+        if (owner == null || owner == task || !owner.isRunning()
+                || task.getPriority() > owner.getPriority()) {
+            motorOwners.put(robotName, task);
+            return true;
         }
-        
-        /**
-         * Wait for a specified number of milliseconds.
-         * @param ms milliseconds to wait
-         */
-        // Use 'sleep' to avoid colliding with Object.wait()
-        public void sleep(int ms) throws InterruptedException {
-            checkRunning();
-            appendOutput("wait(" + ms + "ms)");
-
-            // Break the wait into smaller chunks so we can check if stopped
-            int remaining = ms;
-            while (remaining > 0 && running.get()) {
-                int sleepTime = Math.min(remaining, 100);
-                Thread.sleep(sleepTime);
-                remaining -= sleepTime;
-            }
-
-            if (!running.get()) {
-                throw new InterruptedException("Script stopped");
+        motorCommandsDenied++;
+        return false;
+    }
+    
+    /**
+     * Names of the robots task holds the motors of.
+     */
+    synchronized List<String> getOwnedRobots(ScriptTask task) {
+        List<String> owned = new ArrayList<>();
+        for (Map.Entry<String, ScriptTask> e : motorOwners.entrySet()) {
+            if (e.getValue() == task) {
+                owned.add(e.getKey());
             }
         }
-
-        // Keep legacy 'wait' signature but delegate to sleep to avoid direct Object.wait use
-        public void wait(int ms) throws InterruptedException {
-            sleep(ms);
-        }
-        
-        /**
-         * Log a message to the output.
-         * @param message the message to log
-         */
-        public void log(Object message) {
-            appendOutput("LOG: " + (message != null ? message.toString() : "null"));
+        return owned;
+    }
+    
+    /**
+     * Release every robot task holds.
+     */
+    synchronized void releaseMotors(ScriptTask task) {
+        motorOwners.values().removeIf(owner -> owner == task);
+    }
+    
+    void onTaskFinished(ScriptTask task) {
+        releaseMotorsAndStop(task);
+    }
+    
+    void onLogLine(ScriptTask task, long seq, String line) {
+        LogListener l = logListener;
+        if (l != null) {
+            l.onLine(task.getName(), seq, line);
         }
-
-        /**
-         * Return the last detections JSON string (as stored by Java side).
-         */
-        public String getLastDetections() {
-            return lastDetectionsJson != null ? lastDetectionsJson : "[]";
+    }
+    
+    /**
+     * Release every robot task holds and stop it, so nothing keeps driving after the script ends.
+     */
+    private void releaseMotorsAndStop(ScriptTask task) {
+        List<String> owned = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, ScriptTask>> it = motorOwners.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, ScriptTask> e = it.next();
+                if (e.getValue() == task) {
+                    owned.add(e.getKey());
+                    it.remove();
+                }
+            }
         }
-        
-        /**
-         * Check if the script is still running, throw if not.
-         */
-        private void checkRunning() {
-            if (!running.get()) {
-                throw new RuntimeException("Script stopped");
+        RobotFleet fleet = robotFleet;
+        for (String robotName : owned) {
+            if (RobotFleet.DEFAULT_ROBOT.equals(robotName)) {
+                if (callback != null) {
+                    callback.onStop();
+                }
+            } else if (fleet != null) {
+                RobotEndpoint robot = fleet.get(robotName);
+                if (robot != null) {
+                    robot.stop();
+                }
             }
         }
     }
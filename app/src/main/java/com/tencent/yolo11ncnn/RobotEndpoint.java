@@ -0,0 +1,655 @@
+/**
+ * RobotEndpoint.java
+ *
+ * One named robot in the RobotFleet: its address, X,Y,R,E setpoint, send
+ * rate, wire format, groups and link statistics. Any thread may update the
+ * setpoint; only the fleet thread encodes and sends it, from a preallocated
+ * buffer, so bursts are coalesced and never reordered.
+ *
+ * An emergency stop jumps ahead of the periodic tick and is repeated a few
+ * times so one lost datagram cannot leave the robot driving. The dead-man
+ * watchdog zeroes the motors if nobody feeds a setpoint or heartbeat in time.
+ * A non-zero setpoint nobody has fed for MAX_RESEND_AGE_MS is no longer resent
+ * on the tick, so the robot's own command timeout can stop it even with the
+ * watchdog disabled.
+ */
+package com.tencent.yolo11ncnn;
+
+import android.util.Log;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+public class RobotEndpoint {
+    private static final String TAG = "RobotEndpoint";
+    public static final int DEFAULT_PORT = 4210;
+    public static final int DEFAULT_RATE_HZ = 50;
+    private static final int MAX_RATE_HZ = 500;
+    // Four ints with sign plus separators
+    private static final int MAX_PACKET_BYTES = 48;
+    // Copies of an emergency stop and the gap between them
+    static final int STOP_REPEATS = 3;
+    private static final long STOP_REPEAT_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(5);
+    // Dead-man timeout, 0 = disabled. Above the dashboard's 200 ms heartbeat and the
+    // teleop client's 100 ms keepalive, so two lost feeds in a row are tolerated
+    public static final int DEFAULT_DEADMAN_MS = 500;
+    // Age of the last feed past which a non-zero setpoint stops being resent on the tick
+    private static final long MAX_RESEND_AGE_NS = TimeUnit.MILLISECONDS.toNanos(1000);
+
+    private final String name;
+    private final RobotFleet fleet;
+    private final Set<String> groups = new CopyOnWriteArraySet<>();
+
+    // Setpoint, written by any thread under this monitor
+    private int x, y, r, e;
+    private long setpointVersion = 0;
+    private long sentVersion = 0;
+    // When the newest unsent setpoint was stored
+    private long setpointChangedNs = 0;
+    // Emergency stop copies still to send; request time until the first one is out
+    private int stopRepeats = 0;
+    private long stopRequestedNs = 0;
+    // Trajectory currently driving this robot, if any, and the most recent one for status
+    private TrajectoryPlayer.Playback playback = null;
+    private TrajectoryPlayer.Playback lastPlayback = null;
+
+    private volatile String host;
+    private volatile int port;
+    private volatile int rateHz;
+    private volatile RobotProtocol.Format format = RobotProtocol.Format.ASCII;
+    private final RobotLinkStats linkStats = new RobotLinkStats();
+    private final RobotStopStats stopStats = new RobotStopStats();
+    private volatile int deadmanMs = DEFAULT_DEADMAN_MS;
+    private volatile long lastFeedNs = System.nanoTime();
+
+    // Fleet-thread state
+    private final byte[] buffer = new byte[MAX_PACKET_BYTES];
+    private final ByteBuffer txBuffer = ByteBuffer.wrap(buffer);
+    private InetSocketAddress address = null;
+    private String resolvedHost = null;
+    private int resolvedPort = -1;
+    private long nextResolveNs = 0;
+    private long nextTickNs = 0;
+    private long nextStopRepeatNs = 0;
+    private int seq = 0;
+    // Binary seq of the last first-stop packet awaiting its ack, and when that stop was requested
+    private int stopAckSeq = 0;
+    private long stopAckRequestedNs = 0;
+
+    // Stats
+    private volatile long packetsSent = 0;
+    private volatile long immediateSends = 0;
+    private volatile long coalescedUpdates = 0;
+    private volatile long staleTicksSkipped = 0;
+    private volatile long sendErrors = 0;
+    private volatile long lastSendNs = 0;
+    // Setpoint stored to datagram sent, for immediate sends
+    private volatile long lastSetpointToWireNs = 0;
+    private volatile long maxSetpointToWireNs = 0;
+
+    RobotEndpoint(RobotFleet fleet, String name, String host, int port, int rateHz) {
+        this.fleet = fleet;
+        this.name = name;
+        this.host = host;
+        this.port = port;
+        this.rateHz = clampRate(rateHz);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Point this robot at host:port. Resolution happens on the fleet thread.
+     */
+    public void setTarget(String host, int port) {
+        this.host = host;
+        this.port = port;
+        fleet.wakeup();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Set the periodic send rate; a changed setpoint is still sent immediately.
+     */
+    public void setRateHz(int hz) {
+        rateHz = clampRate(hz);
+        fleet.wakeup();
+    }
+
+    public int getRateHz() {
+        return rateHz;
+    }
+
+    /**
+     * Switch between the ASCII "X,Y,R,E" text and binary sequenced frames.
+     */
+    public void setFormat(RobotProtocol.Format format) {
+        this.format = format;
+        fleet.wakeup();
+    }
+
+    public RobotProtocol.Format getFormat() {
+        return format;
+    }
+
+    public Set<String> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Replace the groups this robot belongs to.
+     */
+    public void setGroups(Iterable<String> names) {
+        groups.clear();
+        for (String g : names) {
+            groups.add(g);
+        }
+    }
+
+    /**
+     * RTT, loss, jitter and telemetry of the binary link.
+     */
+    public RobotLinkStats getLinkStats() {
+        return linkStats;
+    }
+
+    /**
+     * Emergency, stop and watchdog latency statistics.
+     */
+    public RobotStopStats getStopStats() {
+        return stopStats;
+    }
+
+    /**
+     * Zero the motors if no setpoint or heartbeat arrives for ms milliseconds; 0 disables.
+     */
+    public void setDeadmanMs(int ms) {
+        deadmanMs = Math.max(0, ms);
+        heartbeat();
+        fleet.wakeup();
+    }
+
+    public int getDeadmanMs() {
+        return deadmanMs;
+    }
+
+    /**
+     * Tell the watchdog the controlling client or script is still alive.
+     */
+    public void heartbeat() {
+        lastFeedNs = System.nanoTime();
+    }
+
+    /**
+     * Count the watchdog as fed for the next ms milliseconds, e.g. while a script waits
+     * out a timed move. A new setpoint or heartbeat ends the hold early.
+     */
+    public void holdFeed(long ms) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, ms));
+        if (until - lastFeedNs > 0) {
+            lastFeedNs = until;
+        }
+    }
+
+    /**
+     * Milliseconds since the last setpoint or heartbeat, 0 during a hold.
+     */
+    public double getMsSinceFeed() {
+        return Math.max(0, System.nanoTime() - lastFeedNs) / 1e6;
+    }
+
+    /**
+     * Zero the motors now, ahead of the periodic tick, and repeat the stop
+     * STOP_REPEATS times. Safe to call from any thread; never blocks on the network.
+     */
+    public void emergencyStop() {
+        emergencyStop(false);
+    }
+
+    private void emergencyStop(boolean watchdog) {
+        synchronized (this) {
+            cancelPlayback();
+            x = 0;
+            y = 0;
+            r = 0;
+            e = 0;
+            setpointVersion++;
+            if (stopRequestedNs == 0) {
+                stopRequestedNs = System.nanoTime();
+            }
+            stopRepeats = STOP_REPEATS;
+        }
+        stopStats.onEmergencyStop(watchdog);
+        fleet.wakeup();
+    }
+
+    /**
+     * Update the setpoint. Never blocks on the network; the fleet sends it right away.
+     * Every call feeds the dead-man watchdog, even if the setpoint did not change.
+     */
+    public void setSetpoint(int x, int y, int r, int e) {
+        lastFeedNs = System.nanoTime();
+        boolean changed;
+        synchronized (this) {
+            // a direct command takes over from any trajectory
+            cancelPlayback();
+            changed = updateSetpoint(x, y, r, e);
+        }
+        if (changed) {
+            fleet.wakeup();
+        }
+    }
+
+    /**
+     * Most recent trajectory played into this robot, finished or not, or null.
+     */
+    public synchronized TrajectoryPlayer.Playback getPlayback() {
+        return lastPlayback;
+    }
+
+    /**
+     * Stop a playing trajectory, leaving the setpoint where it is.
+     */
+    public synchronized void cancelPlayback() {
+        if (playback != null) {
+            playback.cancel();
+            playback = null;
+        }
+    }
+
+    synchronized void beginPlayback(TrajectoryPlayer.Playback p) {
+        cancelPlayback();
+        playback = p;
+        lastPlayback = p;
+    }
+
+    synchronized void endPlayback(TrajectoryPlayer.Playback p) {
+        if (playback == p) {
+            playback = null;
+        }
+    }
+
+    /**
+     * Setpoint from the trajectory player; ignored unless p is still this robot's playback.
+     * Feeds the watchdog, since the trajectory is a plan the phone itself is executing.
+     */
+    boolean applyPlaybackSetpoint(TrajectoryPlayer.Playback p, int x, int y, int r, int e) {
+        boolean changed;
+        synchronized (this) {
+            if (playback != p) {
+                return false;
+            }
+            lastFeedNs = System.nanoTime();
+            changed = updateSetpoint(x, y, r, e);
+        }
+        if (changed) {
+            fleet.wakeup();
+        }
+        return true;
+    }
+
+    /**
+     * Store a new setpoint under this monitor. Returns false if it did not change.
+     */
+    private boolean updateSetpoint(int x, int y, int r, int e) {
+        if (x == this.x && y == this.y && r == this.r && e == this.e) {
+            return false;
+        }
+        if (x != 0 || y != 0 || r != 0 || e != 0) {
+            // driving again cancels the rest of an emergency stop burst
+            stopRepeats = 0;
+            stopRequestedNs = 0;
+        }
+        if (setpointVersion != sentVersion) {
+            // previous setpoint was replaced before the fleet got to send it
+            coalescedUpdates++;
+        }
+        this.x = x;
+        this.y = y;
+        this.r = r;
+        this.e = e;
+        setpointVersion++;
+        setpointChangedNs = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Translate a direction and speed (0.0-1.0) into a setpoint: Y forward/backward, X strafe.
+     */
+    public void move(String direction, float speed) {
+        int motorSpeed = (int) (Math.max(0f, Math.min(1f, speed)) * 255);
+        switch (direction.toLowerCase()) {
+            case "forward":
+                setSetpoint(0, motorSpeed, 0, 0);
+                break;
+            case "backward":
+                setSetpoint(0, -motorSpeed, 0, 0);
+                break;
+            case "left":
+                setSetpoint(-motorSpeed, 0, 0, 0);
+                break;
+            case "right":
+                setSetpoint(motorSpeed, 0, 0, 0);
+                break;
+            default:
+                Log.w(TAG, name + ": unknown direction " + direction);
+        }
+    }
+
+    /**
+     * Rotate in place, "left" or "right", at speed 0.0-1.0.
+     */
+    public void rotate(String direction, float speed) {
+        int motorSpeed = (int) (Math.max(0f, Math.min(1f, speed)) * 255);
+        switch (direction.toLowerCase()) {
+            case "left":
+                setSetpoint(0, 0, -motorSpeed, 0);
+                break;
+            case "right":
+                setSetpoint(0, 0, motorSpeed, 0);
+                break;
+            default:
+                Log.w(TAG, name + ": unknown rotation " + direction);
+        }
+    }
+
+    public void stop() {
+        setSetpoint(0, 0, 0, 0);
+    }
+
+    public synchronized int getX() {
+        return x;
+    }
+
+    public synchronized int getY() {
+        return y;
+    }
+
+    public synchronized int getR() {
+        return r;
+    }
+
+    public synchronized int getE() {
+        return e;
+    }
+
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    /**
+     * Packets sent because the setpoint changed rather than on the periodic tick.
+     */
+    public long getImmediateSends() {
+        return immediateSends;
+    }
+
+    /**
+     * Setpoint updates overwritten by a newer one before they were sent.
+     */
+    public long getCoalescedUpdates() {
+        return coalescedUpdates;
+    }
+
+    /**
+     * Periodic resends of a non-zero setpoint skipped because nobody fed it recently.
+     */
+    public long getStaleTicksSkipped() {
+        return staleTicksSkipped;
+    }
+
+    public long getSendErrors() {
+        return sendErrors;
+    }
+
+    /**
+     * Microseconds from the newest setpoint being stored to its datagram being sent.
+     */
+    public long getLastSetpointToWireUs() {
+        return lastSetpointToWireNs / 1000;
+    }
+
+    public long getMaxSetpointToWireUs() {
+        return maxSetpointToWireNs / 1000;
+    }
+
+    /**
+     * Milliseconds since the last packet went out, or -1 if none has.
+     */
+    public double getMsSinceLastSend() {
+        long last = lastSendNs;
+        return last == 0 ? -1 : (System.nanoTime() - last) / 1e6;
+    }
+
+    // ========== Fleet thread ==========
+
+    /**
+     * Send a pending emergency stop, a changed setpoint or the periodic tick,
+     * and trip the watchdog if it expired. Returns when this robot next needs service.
+     */
+    long service(RobotFleet.Sender sender, long now) {
+        long watchdogNs = checkWatchdog(now);
+
+        boolean changed;
+        boolean stopDue;
+        long requestedNs;
+        synchronized (this) {
+            changed = setpointVersion != sentVersion;
+            stopDue = stopRepeats > 0 && (changed || now - nextStopRepeatNs >= 0);
+            requestedNs = stopRequestedNs;
+            if (stopDue) {
+                stopRepeats--;
+                stopRequestedNs = 0;
+            }
+        }
+        if (stopDue) {
+            send(sender, true);
+            long sentNs = System.nanoTime();
+            if (requestedNs != 0) {
+                // first copy of this stop
+                stopStats.onSent((sentNs - requestedNs) / 1e6);
+                if (format == RobotProtocol.Format.BINARY) {
+                    stopAckSeq = seq;
+                    stopAckRequestedNs = requestedNs;
+                }
+            }
+            nextStopRepeatNs = sentNs + STOP_REPEAT_INTERVAL_NS;
+            nextTickNs = sentNs + TimeUnit.SECONDS.toNanos(1) / rateHz;
+        } else if (changed || now - nextTickNs >= 0) {
+            if (changed || !isStaleMotion(now)) {
+                send(sender, changed);
+            } else {
+                staleTicksSkipped++;
+            }
+            // Phase the periodic tick from this send so a change does not double up
+            nextTickNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(1) / rateHz;
+        }
+
+        long next = Math.min(nextTickNs, watchdogNs);
+        synchronized (this) {
+            if (stopRepeats > 0) {
+                next = Math.min(next, nextStopRepeatNs);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Whether the setpoint is non-zero and nobody has fed it for MAX_RESEND_AGE_NS.
+     * Resending it would keep the robot's own timeout from ever firing.
+     */
+    private boolean isStaleMotion(long now) {
+        synchronized (this) {
+            if (x == 0 && y == 0 && r == 0 && e == 0) {
+                return false;
+            }
+        }
+        return now - lastFeedNs > MAX_RESEND_AGE_NS;
+    }
+
+    /**
+     * Stop the robot if it is moving and the watchdog was not fed in time.
+     * Returns when the watchdog next expires, or Long.MAX_VALUE if it cannot.
+     */
+    private long checkWatchdog(long now) {
+        int timeoutMs = deadmanMs;
+        if (timeoutMs <= 0) {
+            return Long.MAX_VALUE;
+        }
+        synchronized (this) {
+            if (x == 0 && y == 0 && r == 0 && e == 0) {
+                return Long.MAX_VALUE;
+            }
+        }
+        long deadline = lastFeedNs + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        if (now - deadline < 0) {
+            return deadline;
+        }
+        Log.w(TAG, name + ": dead-man watchdog expired after " + timeoutMs + "ms, stopping");
+        emergencyStop(true);
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Handle an ack from this robot, timing the pending emergency stop if it covers it.
+     */
+    void onAck(RobotProtocol.Ack ack, long nowNs) {
+        linkStats.onAck(ack, nowNs);
+        if (stopAckRequestedNs != 0 && ack.seq - stopAckSeq >= 0) {
+            stopStats.onAcked((nowNs - stopAckRequestedNs) / 1e6);
+            stopAckRequestedNs = 0;
+        }
+    }
+
+    /**
+     * Send the current setpoint now, e.g. the final stop on shutdown.
+     */
+    void send(RobotFleet.Sender sender, boolean immediate) {
+        boolean binary = format == RobotProtocol.Format.BINARY;
+        int len;
+        long changedNs = 0;
+        synchronized (this) {
+            if (sentVersion != setpointVersion) {
+                changedNs = setpointChangedNs;
+            }
+            if (binary) {
+                int flags = RobotProtocol.FLAG_ACK_REQUEST;
+                if (x == 0 && y == 0 && r == 0 && e == 0) flags |= RobotProtocol.FLAG_STOP;
+                len = RobotProtocol.encodeCommand(buffer, seq + 1, RobotProtocol.nowUs(), x, y, r, e, flags);
+            } else {
+                len = formatAscii(buffer, x, y, r, e);
+            }
+            sentVersion = setpointVersion;
+        }
+        if (!resolveTarget()) return;
+
+        txBuffer.clear();
+        txBuffer.limit(len);
+        try {
+            if (binary) {
+                seq++;
+                linkStats.onSent(seq, System.nanoTime());
+            }
+            if (sender.send(txBuffer, address)) {
+                long now = System.nanoTime();
+                packetsSent++;
+                if (immediate) immediateSends++;
+                lastSendNs = now;
+                if (changedNs != 0) {
+                    lastSetpointToWireNs = now - changedNs;
+                    maxSetpointToWireNs = Math.max(maxSetpointToWireNs, lastSetpointToWireNs);
+                }
+            } else {
+                sendErrors++;
+            }
+        } catch (Exception ex) {
+            sendErrors++;
+            Log.w(TAG, name + ": failed to send UDP command: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Resolved address, or null before the first successful resolution.
+     */
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Resolve the target once per host change. Returns false if there is no usable target.
+     */
+    private boolean resolveTarget() {
+        String h = host;
+        int p = port;
+        if (h == null || h.isEmpty()) {
+            return false;
+        }
+        if (!h.equals(resolvedHost) || p != resolvedPort) {
+            long now = System.nanoTime();
+            if (now - nextResolveNs < 0) {
+                return false;
+            }
+            try {
+                InetSocketAddress previous = address;
+                address = new InetSocketAddress(InetAddress.getByName(h), p);
+                resolvedHost = h;
+                resolvedPort = p;
+                fleet.onAddressChanged(this, previous, address);
+                Log.i(TAG, name + " target " + h + ":" + p);
+            } catch (Exception ex) {
+                sendErrors++;
+                // Do not hammer the resolver at the loop rate
+                nextResolveNs = now + TimeUnit.SECONDS.toNanos(1);
+                Log.w(TAG, name + ": failed to resolve robot address " + h + ": " + ex.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write "X,Y,R,E" as ASCII into buf without allocating. Returns the length.
+     */
+    static int formatAscii(byte[] buf, int x, int y, int r, int e) {
+        int pos = writeInt(buf, 0, x);
+        buf[pos++] = ',';
+        pos = writeInt(buf, pos, y);
+        buf[pos++] = ',';
+        pos = writeInt(buf, pos, r);
+        buf[pos++] = ',';
+        return writeInt(buf, pos, e);
+    }
+
+    private static int writeInt(byte[] buf, int pos, int value) {
+        long v = value;
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) {
+            digits++;
+        }
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        return pos + digits;
+    }
+
+    private static int clampRate(int hz) {
+        return Math.max(1, Math.min(MAX_RATE_HZ, hz));
+    }
+}
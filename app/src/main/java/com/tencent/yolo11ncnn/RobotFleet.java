@@ -0,0 +1,304 @@
+/**
+ * RobotFleet.java
+ *
+ * Registry of named robots driven from a single thread over one non-blocking
+ * DatagramChannel and Selector. Each RobotEndpoint keeps its own setpoint,
+ * rate and link stats; the fleet thread sends whatever is due, sleeps in
+ * select() until the next tick or a setpoint change, and routes binary acks
+ * back to the robot they came from. No thread or socket per robot.
+ */
+package com.tencent.yolo11ncnn;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RobotFleet implements Runnable {
+    private static final String TAG = "RobotFleet";
+    // The robot the single-robot API (/api/robot/*, robot.move) talks to
+    public static final String DEFAULT_ROBOT = "main";
+    // Addresses every robot
+    public static final String ALL = "all";
+
+    /**
+     * Sends one datagram; returns false if the channel had no room for it.
+     */
+    interface Sender {
+        boolean send(ByteBuffer data, InetSocketAddress to) throws IOException;
+    }
+
+    private final Thread thread;
+    private final TrajectoryPlayer trajectoryPlayer = new TrajectoryPlayer();
+    private volatile boolean running = false;
+    private Selector selector;
+    private DatagramChannel channel;
+
+    // Registry in insertion order, guarded by this; the array is a copy for the fleet thread
+    private final Map<String, RobotEndpoint> robots = new LinkedHashMap<>();
+    private volatile RobotEndpoint[] snapshot = new RobotEndpoint[0];
+    // Fleet-thread lookup of ack senders
+    private final Map<SocketAddress, RobotEndpoint> byAddress = new HashMap<>();
+    // Work that must run on the fleet thread, e.g. a last send to a removed robot
+    private final List<Runnable> pendingTasks = new ArrayList<>();
+
+    private final ByteBuffer rxBuffer = ByteBuffer.allocate(64);
+    private final RobotProtocol.Ack ack = new RobotProtocol.Ack();
+    private volatile long unknownPackets = 0;
+    private volatile long wakeups = 0;
+
+    private final Sender sender = new Sender() {
+        @Override
+        public boolean send(ByteBuffer data, InetSocketAddress to) throws IOException {
+            return channel.send(data, to) > 0;
+        }
+    };
+
+    public RobotFleet() {
+        thread = new Thread(this, "RobotFleet");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Open the channel and start the fleet thread.
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(null);
+        channel.register(selector, SelectionKey.OP_READ);
+        running = true;
+        thread.start();
+        trajectoryPlayer.start();
+    }
+
+    /**
+     * Send a final stop to every robot, then close the channel.
+     */
+    public void shutdown() {
+        trajectoryPlayer.shutdown();
+        emergencyStopAll();
+        running = false;
+        wakeup();
+        try {
+            thread.join(500);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Add a robot, or re-target an existing one with the same name.
+     */
+    public RobotEndpoint add(String name, String host, int port) {
+        RobotEndpoint robot;
+        synchronized (this) {
+            robot = robots.get(name);
+            if (robot == null) {
+                robot = new RobotEndpoint(this, name, host, port, RobotEndpoint.DEFAULT_RATE_HZ);
+                robots.put(name, robot);
+                snapshot = robots.values().toArray(new RobotEndpoint[0]);
+                Log.i(TAG, "Robot added: " + name + " at " + host + ":" + port);
+            }
+        }
+        robot.setTarget(host, port);
+        return robot;
+    }
+
+    /**
+     * Remove a robot after sending it a stop. Returns false if there was none.
+     */
+    public boolean remove(String name) {
+        RobotEndpoint robot;
+        synchronized (this) {
+            robot = robots.remove(name);
+            if (robot == null) return false;
+            snapshot = robots.values().toArray(new RobotEndpoint[0]);
+        }
+        robot.stop();
+        // Sent directly since the fleet thread no longer services it
+        final RobotEndpoint removed = robot;
+        runOnFleet(() -> {
+            removed.send(sender, true);
+            InetSocketAddress address = removed.getAddress();
+            if (address != null && byAddress.get(address) == removed) {
+                byAddress.remove(address);
+            }
+        });
+        Log.i(TAG, "Robot removed: " + name);
+        return true;
+    }
+
+    /**
+     * Emergency-stop every robot. Returns how many were stopped.
+     */
+    public int emergencyStopAll() {
+        RobotEndpoint[] robots = snapshot;
+        for (RobotEndpoint robot : robots) {
+            robot.emergencyStop();
+        }
+        return robots.length;
+    }
+
+    /**
+     * Play trajectory into robot on the device, replacing whatever it was playing.
+     */
+    public TrajectoryPlayer.Playback play(RobotEndpoint robot, Trajectory trajectory) {
+        return trajectoryPlayer.play(robot, trajectory);
+    }
+
+    public synchronized RobotEndpoint get(String name) {
+        return robots.get(name);
+    }
+
+    public synchronized List<RobotEndpoint> getAll() {
+        return new ArrayList<>(robots.values());
+    }
+
+    /**
+     * Robots addressed by target: a robot name, a group name, or "all".
+     */
+    public synchronized List<RobotEndpoint> resolve(String target) {
+        List<RobotEndpoint> result = new ArrayList<>();
+        RobotEndpoint byName = robots.get(target);
+        if (byName != null) {
+            result.add(byName);
+            return result;
+        }
+        for (RobotEndpoint robot : robots.values()) {
+            if (ALL.equals(target) || robot.getGroups().contains(target)) {
+                result.add(robot);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Packets received from addresses that are not a registered robot.
+     */
+    public long getUnknownPackets() {
+        return unknownPackets;
+    }
+
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    /**
+     * Wake the fleet thread so a new setpoint goes out immediately.
+     */
+    void wakeup() {
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    private void runOnFleet(Runnable task) {
+        synchronized (pendingTasks) {
+            pendingTasks.add(task);
+        }
+        wakeup();
+    }
+
+    /**
+     * Called on the fleet thread when a robot's resolved address changes.
+     */
+    void onAddressChanged(RobotEndpoint robot, InetSocketAddress previous, InetSocketAddress address) {
+        if (previous != null && byAddress.get(previous) == robot) {
+            byAddress.remove(previous);
+        }
+        byAddress.put(address, robot);
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Fleet loop started");
+        while (running) {
+            runPendingTasks();
+
+            long now = System.nanoTime();
+            long nextNs = Long.MAX_VALUE;
+            for (RobotEndpoint robot : snapshot) {
+                nextNs = Math.min(nextNs, robot.service(sender, now));
+            }
+
+            try {
+                long waitNs = nextNs - System.nanoTime();
+                if (nextNs == Long.MAX_VALUE) {
+                    // no robots registered, sleep until one is added
+                    selector.select();
+                } else if (waitNs <= 0) {
+                    selector.selectNow();
+                } else {
+                    // select() takes ms; round up so we never wake early and spin
+                    selector.select(Math.max(1, (waitNs + 999_999) / 1_000_000));
+                }
+                wakeups++;
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    it.next();
+                    it.remove();
+                    receiveAll();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Fleet loop error: " + e.getMessage());
+            }
+        }
+
+        // Make sure every robot sees the final stop before the channel goes away
+        runPendingTasks();
+        for (RobotEndpoint robot : snapshot) {
+            robot.send(sender, true);
+        }
+        try {
+            channel.close();
+            selector.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close channel: " + e.getMessage());
+        }
+        Log.i(TAG, "Fleet loop stopped");
+    }
+
+    private void runPendingTasks() {
+        Runnable[] tasks;
+        synchronized (pendingTasks) {
+            if (pendingTasks.isEmpty()) return;
+            tasks = pendingTasks.toArray(new Runnable[0]);
+            pendingTasks.clear();
+        }
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    /**
+     * Drain every queued datagram and hand binary acks to the robot that sent them.
+     */
+    private void receiveAll() throws IOException {
+        while (true) {
+            rxBuffer.clear();
+            SocketAddress from = channel.receive(rxBuffer);
+            if (from == null) return;
+            RobotEndpoint robot = byAddress.get(from);
+            if (robot != null && RobotProtocol.decodeAck(rxBuffer.array(), rxBuffer.position(), ack)) {
+                robot.onAck(ack, System.nanoTime());
+            } else {
+                unknownPackets++;
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * RobotLinkStats.java
+ *
+ * Round-trip time, jitter and loss of the binary robot link, plus the latest
+ * telemetry carried by the robot's acknowledgements. Sent sequence numbers are
+ * remembered in a small ring; a command whose slot is reused before its ack
+ * arrived counts as lost.
+ */
+package com.tencent.yolo11ncnn;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+public class RobotLinkStats {
+    private static final int WINDOW = 128;
+    // Weights of the newest sample in the smoothed RTT, jitter and loss (RFC 6298 / 3550 style)
+    private static final double RTT_GAIN = 1.0 / 8;
+    private static final double JITTER_GAIN = 1.0 / 16;
+    private static final double LOSS_GAIN = 1.0 / 32;
+
+    private final int[] seqs = new int[WINDOW];
+    private final long[] sentNs = new long[WINDOW];
+    private final boolean[] pending = new boolean[WINDOW];
+
+    private long sent = 0;
+    private long acked = 0;
+    private long lost = 0;
+    private long lateAcks = 0;
+
+    private double lastRttMs = -1;
+    private double smoothedRttMs = -1;
+    private double minRttMs = Double.MAX_VALUE;
+    private double maxRttMs = 0;
+    private double jitterMs = 0;
+    private double recentLossRate = 0;
+
+    // Telemetry from the newest ack
+    private int batteryMv = 0;
+    private final int[] encoders = new int[RobotProtocol.ENCODER_COUNT];
+    private int loopTimeUs = 0;
+    private int robotFlags = 0;
+    private long lastAckNs = 0;
+
+    /**
+     * Record a command sent with an ack request.
+     */
+    public synchronized void onSent(int seq, long nowNs) {
+        int idx = slot(seq);
+        if (pending[idx]) {
+            // never acked before its slot came round again
+            lost++;
+            recentLossRate += (1 - recentLossRate) * LOSS_GAIN;
+        }
+        seqs[idx] = seq;
+        sentNs[idx] = nowNs;
+        pending[idx] = true;
+        sent++;
+    }
+
+    /**
+     * Record an ack and take over its telemetry.
+     */
+    public synchronized void onAck(RobotProtocol.Ack ack, long nowNs) {
+        int idx = slot(ack.seq);
+        if (!pending[idx] || seqs[idx] != ack.seq) {
+            // duplicate, or arrived after we already counted the command as lost
+            lateAcks++;
+            return;
+        }
+        pending[idx] = false;
+        acked++;
+        recentLossRate -= recentLossRate * LOSS_GAIN;
+
+        double rttMs = (nowNs - sentNs[idx]) / 1e6;
+        if (lastRttMs >= 0) {
+            jitterMs += (Math.abs(rttMs - lastRttMs) - jitterMs) * JITTER_GAIN;
+        }
+        smoothedRttMs = smoothedRttMs < 0 ? rttMs : smoothedRttMs + (rttMs - smoothedRttMs) * RTT_GAIN;
+        lastRttMs = rttMs;
+        minRttMs = Math.min(minRttMs, rttMs);
+        maxRttMs = Math.max(maxRttMs, rttMs);
+
+        batteryMv = ack.batteryMv;
+        System.arraycopy(ack.encoders, 0, encoders, 0, encoders.length);
+        loopTimeUs = ack.loopTimeUs;
+        robotFlags = ack.flags;
+        lastAckNs = nowNs;
+    }
+
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    public synchronized long getAcked() {
+        return acked;
+    }
+
+    public synchronized long getLost() {
+        return lost;
+    }
+
+    public synchronized double getSmoothedRttMs() {
+        return smoothedRttMs;
+    }
+
+    public synchronized double getJitterMs() {
+        return jitterMs;
+    }
+
+    /**
+     * Exponentially weighted share of recent commands that were never acked.
+     */
+    public synchronized double getRecentLossRate() {
+        return recentLossRate;
+    }
+
+    public synchronized JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("sent", sent);
+        json.addProperty("acked", acked);
+        json.addProperty("lost", lost);
+        json.addProperty("lateAcks", lateAcks);
+        long resolved = acked + lost;
+        json.addProperty("lossRate", resolved > 0 ? (double) lost / resolved : 0);
+        json.addProperty("recentLossRate", recentLossRate);
+        json.addProperty("rttMs", smoothedRttMs);
+        json.addProperty("lastRttMs", lastRttMs);
+        json.addProperty("minRttMs", acked > 0 ? minRttMs : -1);
+        json.addProperty("maxRttMs", maxRttMs);
+        json.addProperty("jitterMs", jitterMs);
+
+        JsonObject telemetry = new JsonObject();
+        telemetry.addProperty("batteryMv", batteryMv);
+        JsonArray enc = new JsonArray();
+        for (int v : encoders) {
+            enc.add(v);
+        }
+        telemetry.add("encoders", enc);
+        telemetry.addProperty("loopTimeUs", loopTimeUs);
+        telemetry.addProperty("flags", robotFlags);
+        telemetry.addProperty("ageMs", lastAckNs == 0 ? -1 : (System.nanoTime() - lastAckNs) / 1e6);
+        json.add("telemetry", telemetry);
+        return json;
+    }
+
+    private static int slot(int seq) {
+        return (seq & 0x7FFFFFFF) % WINDOW;
+    }
+}
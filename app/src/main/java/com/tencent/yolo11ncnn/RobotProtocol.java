@@ -0,0 +1,178 @@
+/**
+ * RobotProtocol.java
+ *
+ * Compact binary frames for the ESP32 link, used instead of the ASCII "X,Y,R,E"
+ * text when selected. All fields are little-endian, matching the ESP32.
+ *
+ * Command (22 bytes): 'B' 'R' version type=1 | u32 seq | u32 timestampUs |
+ *                     i16 x | i16 y | i16 r | i16 e | u8 flags | u8 checksum
+ * Ack (34 bytes):     'B' 'R' version type=2 | u32 seq | u32 echoed timestampUs |
+ *                     u16 batteryMv | i32 encoders[4] | u16 loopTimeUs |
+ *                     u8 flags | u8 checksum
+ *
+ * The checksum is the XOR of every preceding byte. Encoders and decoders work
+ * on caller-owned arrays and objects so the control loop never allocates.
+ */
+package com.tencent.yolo11ncnn;
+
+public final class RobotProtocol {
+    public enum Format { ASCII, BINARY }
+
+    public static final byte MAGIC_0 = 'B';
+    public static final byte MAGIC_1 = 'R';
+    public static final byte VERSION = 1;
+    public static final byte TYPE_COMMAND = 1;
+    public static final byte TYPE_ACK = 2;
+
+    public static final int COMMAND_BYTES = 22;
+    public static final int ACK_BYTES = 34;
+    public static final int ENCODER_COUNT = 4;
+
+    // Command flags
+    public static final int FLAG_STOP = 0x01;
+    public static final int FLAG_ACK_REQUEST = 0x02;
+
+    private RobotProtocol() {
+    }
+
+    /**
+     * Decoded command frame, reused between packets.
+     */
+    public static class Command {
+        public int seq;
+        public int timestampUs;
+        public int x, y, r, e;
+        public int flags;
+    }
+
+    /**
+     * Decoded acknowledgement with the robot's telemetry, reused between packets.
+     */
+    public static class Ack {
+        public int seq;
+        public int timestampUs;
+        public int batteryMv;
+        public final int[] encoders = new int[ENCODER_COUNT];
+        public int loopTimeUs;
+        public int flags;
+    }
+
+    /**
+     * Write a command frame into buf and return its length.
+     */
+    public static int encodeCommand(byte[] buf, int seq, int timestampUs, int x, int y, int r, int e, int flags) {
+        writeHeader(buf, TYPE_COMMAND);
+        putInt(buf, 4, seq);
+        putInt(buf, 8, timestampUs);
+        putShort(buf, 12, clampShort(x));
+        putShort(buf, 14, clampShort(y));
+        putShort(buf, 16, clampShort(r));
+        putShort(buf, 18, clampShort(e));
+        buf[20] = (byte) flags;
+        buf[21] = checksum(buf, 21);
+        return COMMAND_BYTES;
+    }
+
+    /**
+     * Parse a command frame. Returns false if buf does not hold a valid one.
+     */
+    public static boolean decodeCommand(byte[] buf, int len, Command out) {
+        if (!isFrame(buf, len, TYPE_COMMAND, COMMAND_BYTES)) return false;
+        out.seq = getInt(buf, 4);
+        out.timestampUs = getInt(buf, 8);
+        out.x = getShort(buf, 12);
+        out.y = getShort(buf, 14);
+        out.r = getShort(buf, 16);
+        out.e = getShort(buf, 18);
+        out.flags = buf[20] & 0xFF;
+        return true;
+    }
+
+    /**
+     * Write an ack frame into buf and return its length.
+     */
+    public static int encodeAck(byte[] buf, Ack ack) {
+        writeHeader(buf, TYPE_ACK);
+        putInt(buf, 4, ack.seq);
+        putInt(buf, 8, ack.timestampUs);
+        putShort(buf, 12, Math.max(0, Math.min(0xFFFF, ack.batteryMv)));
+        for (int i = 0; i < ENCODER_COUNT; i++) {
+            putInt(buf, 14 + i * 4, ack.encoders[i]);
+        }
+        putShort(buf, 30, Math.max(0, Math.min(0xFFFF, ack.loopTimeUs)));
+        buf[32] = (byte) ack.flags;
+        buf[33] = checksum(buf, 33);
+        return ACK_BYTES;
+    }
+
+    /**
+     * Parse an ack frame. Returns false if buf does not hold a valid one.
+     */
+    public static boolean decodeAck(byte[] buf, int len, Ack out) {
+        if (!isFrame(buf, len, TYPE_ACK, ACK_BYTES)) return false;
+        out.seq = getInt(buf, 4);
+        out.timestampUs = getInt(buf, 8);
+        out.batteryMv = getShort(buf, 12) & 0xFFFF;
+        for (int i = 0; i < ENCODER_COUNT; i++) {
+            out.encoders[i] = getInt(buf, 14 + i * 4);
+        }
+        out.loopTimeUs = getShort(buf, 30) & 0xFFFF;
+        out.flags = buf[32] & 0xFF;
+        return true;
+    }
+
+    /**
+     * Current time in microseconds, truncated to 32 bits. Differences stay
+     * correct across wrap-around as long as they are under ~35 minutes.
+     */
+    public static int nowUs() {
+        return (int) (System.nanoTime() / 1000);
+    }
+
+    private static boolean isFrame(byte[] buf, int len, byte type, int size) {
+        return len >= size
+                && buf[0] == MAGIC_0 && buf[1] == MAGIC_1
+                && buf[2] == VERSION && buf[3] == type
+                && buf[size - 1] == checksum(buf, size - 1);
+    }
+
+    private static void writeHeader(byte[] buf, byte type) {
+        buf[0] = MAGIC_0;
+        buf[1] = MAGIC_1;
+        buf[2] = VERSION;
+        buf[3] = type;
+    }
+
+    private static byte checksum(byte[] buf, int len) {
+        int c = 0;
+        for (int i = 0; i < len; i++) {
+            c ^= buf[i];
+        }
+        return (byte) c;
+    }
+
+    private static int clampShort(int v) {
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v));
+    }
+
+    private static void putShort(byte[] buf, int off, int v) {
+        buf[off] = (byte) v;
+        buf[off + 1] = (byte) (v >> 8);
+    }
+
+    private static void putInt(byte[] buf, int off, int v) {
+        buf[off] = (byte) v;
+        buf[off + 1] = (byte) (v >> 8);
+        buf[off + 2] = (byte) (v >> 16);
+        buf[off + 3] = (byte) (v >> 24);
+    }
+
+    private static int getShort(byte[] buf, int off) {
+        return (short) ((buf[off] & 0xFF) | (buf[off + 1] << 8));
+    }
+
+    private static int getInt(byte[] buf, int off) {
+        return (buf[off] & 0xFF) | ((buf[off + 1] & 0xFF) << 8)
+                | ((buf[off + 2] & 0xFF) << 16) | (buf[off + 3] << 24);
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * RobotStopStats.java
+ *
+ * Emergency-stop and dead-man watchdog counters for one robot, with the
+ * latency from a stop request to the first stop packet on the wire and, on
+ * the binary link, to the robot's acknowledgement of it. Latencies over
+ * BOUND_MS are counted so a run can show the stop path stayed within bound.
+ */
+package com.tencent.yolo11ncnn;
+
+import com.google.gson.JsonObject;
+
+public class RobotStopStats {
+    // Request-to-wire latency an emergency stop is expected to stay under
+    public static final double BOUND_MS = 10.0;
+
+    private long emergencyStops = 0;
+    private long watchdogTrips = 0;
+
+    private long sendSamples = 0;
+    private double lastSendMs = -1;
+    private double maxSendMs = 0;
+    private double totalSendMs = 0;
+    private long overBound = 0;
+
+    private long ackSamples = 0;
+    private double lastAckMs = -1;
+    private double maxAckMs = 0;
+
+    public synchronized void onEmergencyStop(boolean watchdog) {
+        emergencyStops++;
+        if (watchdog) {
+            watchdogTrips++;
+        }
+    }
+
+    /**
+     * Record the time from the stop request to its first packet being sent.
+     */
+    public synchronized void onSent(double ms) {
+        sendSamples++;
+        lastSendMs = ms;
+        maxSendMs = Math.max(maxSendMs, ms);
+        totalSendMs += ms;
+        if (ms > BOUND_MS) {
+            overBound++;
+        }
+    }
+
+    /**
+     * Record the time from the stop request to the robot acknowledging it.
+     */
+    public synchronized void onAcked(double ms) {
+        ackSamples++;
+        lastAckMs = ms;
+        maxAckMs = Math.max(maxAckMs, ms);
+    }
+
+    public synchronized long getEmergencyStops() {
+        return emergencyStops;
+    }
+
+    public synchronized long getWatchdogTrips() {
+        return watchdogTrips;
+    }
+
+    public synchronized double getMaxSendMs() {
+        return maxSendMs;
+    }
+
+    public synchronized JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("emergencyStops", emergencyStops);
+        json.addProperty("watchdogTrips", watchdogTrips);
+        json.addProperty("lastStopMs", lastSendMs);
+        json.addProperty("maxStopMs", maxSendMs);
+        json.addProperty("avgStopMs", sendSamples > 0 ? totalSendMs / sendSamples : -1);
+        json.addProperty("boundMs", BOUND_MS);
+        json.addProperty("overBound", overBound);
+        json.addProperty("lastStopAckMs", lastAckMs);
+        json.addProperty("maxStopAckMs", maxAckMs);
+        json.addProperty("stopAcks", ackSamples);
+        return json;
+    }
+}
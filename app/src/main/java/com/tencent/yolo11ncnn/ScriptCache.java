@@ -0,0 +1,109 @@
+/**
+ * ScriptCache.java
+ *
+ * LRU cache of compiled Rhino scripts keyed by a SHA-256 hash of their source,
+ * so re-running an unchanged script (or the built-in helpers) skips parsing
+ * and compilation entirely.
+ */
+package com.tencent.yolo11ncnn;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ScriptCache {
+    private static final int DEFAULT_MAX_ENTRIES = 16;
+
+    /**
+     * A compiled script plus how it was obtained.
+     */
+    public static class Entry {
+        public final Script script;
+        public final String hash;
+        public final boolean cacheHit;
+        public final double compileMs;
+
+        Entry(Script script, String hash, boolean cacheHit, double compileMs) {
+            this.script = script;
+            this.hash = hash;
+            this.cacheHit = cacheHit;
+            this.compileMs = compileMs;
+        }
+    }
+
+    private final int maxEntries;
+    private final Map<String, Script> scripts;
+    private long hits = 0;
+    private long misses = 0;
+
+    public ScriptCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public ScriptCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.scripts = new LinkedHashMap<String, Script>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Script> eldest) {
+                return size() > ScriptCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Return the compiled form of source, compiling it with cx on a miss.
+     * Compilation errors propagate as Rhino EvaluatorExceptions.
+     */
+    public Entry compile(Context cx, String source, String sourceName) {
+        String hash = sha256(sourceName + "\n" + source);
+        synchronized (this) {
+            Script cached = scripts.get(hash);
+            if (cached != null) {
+                hits++;
+                return new Entry(cached, hash, true, 0);
+            }
+        }
+
+        long t0 = System.nanoTime();
+        Script script = cx.compileString(source, sourceName, 1, null);
+        double compileMs = (System.nanoTime() - t0) / 1e6;
+
+        synchronized (this) {
+            misses++;
+            scripts.put(hash, script);
+        }
+        return new Entry(script, hash, false, compileMs);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return scripts.size();
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Android runtime ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * ScriptContextFactory.java
+ *
+ * Rhino ContextFactory that counts interpreted instructions for each script.
+ * Every INSTRUCTION_CHUNK instructions (fewer for small budgets) Rhino calls
+ * back here, which lets us stop a runaway loop within a bounded number of
+ * instructions and throttle a script that exceeds its instructions-per-second
+ * budget.
+ */
+package com.tencent.yolo11ncnn;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class ScriptContextFactory extends ContextFactory {
+    // Instructions between observer callbacks, i.e. the worst-case overrun after stop()
+    public static final int INSTRUCTION_CHUNK = 10000;
+    // Smallest chunk used for low budgets, so the callback itself stays cheap
+    private static final int MIN_INSTRUCTION_CHUNK = 100;
+    // Chunks per second at the budget rate; a small budget gets smaller chunks so a
+    // single chunk never stands for more than this share of a second
+    private static final int CHUNKS_PER_SECOND = 100;
+    // Rate measurement window; also the most unused budget a script can bank for a burst
+    private static final long WINDOW_NS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final Object BUDGET_KEY = new Object();
+
+    /**
+     * Thrown from the instruction observer to terminate a script. Extends Error so
+     * JS try/catch and finally blocks cannot swallow it.
+     */
+    public static class ScriptStoppedError extends Error {
+        private static final long serialVersionUID = 1L;
+
+        public ScriptStoppedError() {
+            super("Script stopped");
+        }
+    }
+
+    /**
+     * Per-script instruction accounting and stop flag.
+     */
+    public static class Budget {
+        private volatile boolean stopRequested = false;
+        private volatile long maxInstructionsPerSecond;
+        private volatile Thread owner;
+
+        private long windowStartNs = 0;
+        private long windowInstructions = 0;
+        private int chunk = INSTRUCTION_CHUNK;
+
+        private volatile long instructionCount = 0;
+        private volatile long throttleEvents = 0;
+        private volatile long throttledNs = 0;
+        private volatile long instructionsPerSecond = 0;
+
+        public Budget(long maxInstructionsPerSecond) {
+            this.maxInstructionsPerSecond = Math.max(0, maxInstructionsPerSecond);
+        }
+
+        /**
+         * Ask the script to stop at its next observer callback.
+         */
+        public void requestStop() {
+            stopRequested = true;
+            Thread t = owner;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+
+        public boolean isStopRequested() {
+            return stopRequested;
+        }
+
+        /**
+         * Change the budget while running; 0 disables throttling.
+         */
+        public void setMaxInstructionsPerSecond(long max) {
+            maxInstructionsPerSecond = Math.max(0, max);
+        }
+
+        public long getMaxInstructionsPerSecond() {
+            return maxInstructionsPerSecond;
+        }
+
+        public long getInstructionCount() {
+            return instructionCount;
+        }
+
+        public long getThrottleEvents() {
+            return throttleEvents;
+        }
+
+        public double getThrottledMs() {
+            return throttledNs / 1e6;
+        }
+
+        /**
+         * Instruction rate measured over the last completed window.
+         */
+        public long getInstructionsPerSecond() {
+            return instructionsPerSecond;
+        }
+
+        /**
+         * Observer threshold for a budget: INSTRUCTION_CHUNK, or less when the budget is
+         * too small to be metered in chunks that size.
+         */
+        static int chunkFor(long max) {
+            if (max <= 0) return INSTRUCTION_CHUNK;
+            return (int) Math.max(MIN_INSTRUCTION_CHUNK, Math.min(INSTRUCTION_CHUNK, max / CHUNKS_PER_SECOND));
+        }
+
+        void onInstructions(Context cx, int count) {
+            instructionCount += count;
+            if (stopRequested) {
+                throw new ScriptStoppedError();
+            }
+
+            long now = System.nanoTime();
+            if (windowStartNs == 0) {
+                windowStartNs = now;
+            }
+            windowInstructions += count;
+
+            long max = maxInstructionsPerSecond;
+            if (max > 0) {
+                // Token bucket: the instructions run since windowStartNs are paid for at
+                // this time. Parking until then carries any overrun forward instead of
+                // forgiving it when the window rolls over.
+                long dueNs = windowStartNs + (long) (windowInstructions * 1e9 / max);
+                if (dueNs - now > 0) {
+                    throttle(dueNs, now);
+                    now = System.nanoTime();
+                }
+            }
+
+            long elapsed = now - windowStartNs;
+            if (elapsed >= WINDOW_NS) {
+                // Debt is settled at this point, so only unused budget is dropped
+                instructionsPerSecond = windowInstructions * TimeUnit.SECONDS.toNanos(1) / elapsed;
+                windowStartNs = now;
+                windowInstructions = 0;
+            }
+
+            int wanted = chunkFor(max);
+            if (wanted != chunk) {
+                chunk = wanted;
+                cx.setInstructionObserverThreshold(wanted);
+            }
+        }
+
+        /**
+         * Park until wakeAt so the core is free for inference, or until stop is requested.
+         */
+        private void throttle(long wakeAt, long now) {
+            throttleEvents++;
+            long remaining;
+            while ((remaining = wakeAt - System.nanoTime()) > 0 && !stopRequested) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            throttledNs += System.nanoTime() - now;
+            if (stopRequested) {
+                throw new ScriptStoppedError();
+            }
+        }
+    }
+
+    /**
+     * Attach a budget to the current thread's context; call right after entering it.
+     */
+    public static void attachBudget(Context cx, Budget budget) {
+        budget.owner = Thread.currentThread();
+        budget.chunk = Budget.chunkFor(budget.getMaxInstructionsPerSecond());
+        cx.setInstructionObserverThreshold(budget.chunk);
+        cx.putThreadLocal(BUDGET_KEY, budget);
+    }
+
+    @Override
+    protected Context makeContext() {
+        Context cx = super.makeContext();
+        // Interpreted mode: required on Android and for instruction observation
+        cx.setOptimizationLevel(-1);
+        cx.setInstructionObserverThreshold(INSTRUCTION_CHUNK);
+        return cx;
+    }
+
+    @Override
+    protected void observeInstructionCount(Context cx, int instructionCount) {
+        Object budget = cx.getThreadLocal(BUDGET_KEY);
+        if (budget instanceof Budget) {
+            ((Budget) budget).onInstructions(cx, instructionCount);
+        }
+    }
+}
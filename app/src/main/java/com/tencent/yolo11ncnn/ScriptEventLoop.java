@@ -0,0 +1,414 @@
+/**
+ * ScriptEventLoop.java
+ *
+ * Single-threaded event loop for a running script. Detection events,
+ * setTimeout/setInterval timers and messages from other scripts are queued
+ * here from any thread and always
+ * dispatched on the script's own thread, so JS code never runs concurrently
+ * with itself. Detection events are merged: if the script falls behind only
+ * the newest frame is delivered.
+ */
+package com.tencent.yolo11ncnn;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ScriptEventLoop {
+    // Below this remaining time waits spin instead of parking, so wake-ups land on time
+    private static final long SPIN_THRESHOLD_NS = TimeUnit.MICROSECONDS.toNanos(500);
+    // Scope property the onDetection() helper stores the JS callback in
+    static final String DETECTION_CALLBACK = "__yolo_onDetection";
+    // Undelivered messages kept per script; the oldest is dropped beyond this
+    private static final int MAX_PENDING_MESSAGES = 64;
+
+    /**
+     * Receives errors raised by callbacks so they end up in the script log.
+     */
+    public interface Reporter {
+        void report(String message);
+    }
+
+    private static class Timer {
+        final int id;
+        final Function fn;
+        final long intervalNs; // 0 for one-shot timers
+        long deadlineNs;
+
+        Timer(int id, Function fn, long deadlineNs, long intervalNs) {
+            this.id = id;
+            this.fn = fn;
+            this.deadlineNs = deadlineNs;
+            this.intervalNs = intervalNs;
+        }
+    }
+
+    private static class Message {
+        final String topic;
+        final String json;
+        final String from;
+
+        Message(String topic, String json, String from) {
+            this.topic = topic;
+            this.json = json;
+            this.from = from;
+        }
+    }
+
+    private final Context cx;
+    private final Scriptable scope;
+    private final Reporter reporter;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wake = lock.newCondition();
+
+    // Script-thread state, guarded by lock where other threads can touch it
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(16, (a, b) ->
+            a.deadlineNs != b.deadlineNs ? Long.compare(a.deadlineNs, b.deadlineNs) : Integer.compare(a.id, b.id));
+    private final Map<Integer, Timer> timersById = new HashMap<>();
+    private int nextTimerId = 1;
+
+    private DetectionFrame pendingDetections = new DetectionFrame(DetectionFrame.DEFAULT_CAPACITY);
+    private DetectionFrame deliveringDetections = new DetectionFrame(DetectionFrame.DEFAULT_CAPACITY);
+    private boolean detectionsPending = false;
+
+    // Topic subscriptions are registered on the script thread and checked by publishers
+    private final Map<String, Function> subscriptions = new ConcurrentHashMap<>();
+    private final ArrayDeque<Message> messages = new ArrayDeque<>();
+
+    private volatile boolean stopped = false;
+    private boolean dispatching = false;
+
+    private volatile long detectionsDelivered = 0;
+    private volatile long detectionsMerged = 0;
+    private volatile long timersFired = 0;
+    private volatile long messagesDelivered = 0;
+    private volatile long messagesDropped = 0;
+
+    /**
+     * Create a loop bound to the current thread's Rhino context and the script scope.
+     */
+    public ScriptEventLoop(Context cx, Scriptable scope, Reporter reporter) {
+        this.cx = cx;
+        this.scope = scope;
+        this.reporter = reporter;
+    }
+
+    // ========== Called from any thread ==========
+
+    /**
+     * Queue a detection frame. Replaces any frame the script has not picked up yet.
+     */
+    public void postDetections(DetectionFrame frame) {
+        lock.lock();
+        try {
+            if (detectionsPending) {
+                detectionsMerged++;
+            }
+            pendingDetections.copyFrom(frame);
+            detectionsPending = true;
+            wake.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queue a message for the subscriber of topic. Ignored if this script has not subscribed.
+     */
+    public void postMessage(String topic, String json, String from) {
+        if (!subscriptions.containsKey(topic)) return;
+        lock.lock();
+        try {
+            if (messages.size() >= MAX_PENDING_MESSAGES) {
+                messages.poll();
+                messagesDropped++;
+            }
+            messages.add(new Message(topic, json, from));
+            wake.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop the loop and wake the script thread if it is waiting.
+     */
+    public void stop() {
+        stopped = true;
+        lock.lock();
+        try {
+            wake.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public long getDetectionsDelivered() {
+        return detectionsDelivered;
+    }
+
+    /**
+     * Detection frames replaced by a newer one before the script got to them.
+     */
+    public long getDetectionsMerged() {
+        return detectionsMerged;
+    }
+
+    public long getTimersFired() {
+        return timersFired;
+    }
+
+    public long getMessagesDelivered() {
+        return messagesDelivered;
+    }
+
+    /**
+     * Messages discarded because the script let more than MAX_PENDING_MESSAGES pile up.
+     */
+    public long getMessagesDropped() {
+        return messagesDropped;
+    }
+
+    // ========== Called from the script thread ==========
+
+    public int setTimeout(Function fn, double ms) {
+        return addTimer(fn, ms, false);
+    }
+
+    public int setInterval(Function fn, double ms) {
+        return addTimer(fn, ms, true);
+    }
+
+    public void subscribe(String topic, Function fn) {
+        subscriptions.put(topic, fn);
+    }
+
+    public void unsubscribe(String topic) {
+        subscriptions.remove(topic);
+    }
+
+    public void clearTimer(int id) {
+        lock.lock();
+        try {
+            Timer t = timersById.remove(id);
+            if (t != null) {
+                timers.remove(t);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int addTimer(Function fn, double ms, boolean repeat) {
+        long delayNs = TimeUnit.MICROSECONDS.toNanos((long) (Math.max(0, ms) * 1000));
+        // setInterval(fn, 0) would starve everything else, clamp to 1 ms like browsers do
+        long intervalNs = repeat ? Math.max(delayNs, TimeUnit.MILLISECONDS.toNanos(1)) : 0;
+        lock.lock();
+        try {
+            Timer t = new Timer(nextTimerId++, fn, System.nanoTime() + (repeat ? intervalNs : delayNs), intervalNs);
+            timers.add(t);
+            timersById.put(t.id, t);
+            return t.id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sleep until exactly ms from now. Due timers and detection events are
+     * dispatched while waiting, unless this sleep was itself called from a callback.
+     */
+    public void sleep(long ms) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, ms));
+        while (!stopped) {
+            if (!dispatching) {
+                dispatchDue();
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            waitForEvent(dispatching ? remaining : Math.min(remaining, nanosUntilNextTimer()));
+        }
+        throw new InterruptedException("Script stopped");
+    }
+
+    /**
+     * Run the loop after the top-level script returned. Keeps going while timers
+     * are pending or an onDetection callback or subscription is registered, until stopped.
+     */
+    public void run() throws InterruptedException {
+        while (!stopped && hasWork()) {
+            dispatchDue();
+            if (stopped || !hasWork()) break;
+            waitForEvent(nanosUntilNextTimer());
+        }
+    }
+
+    private boolean hasWork() {
+        if (!subscriptions.isEmpty()
+                || ScriptableObject.getProperty(scope, DETECTION_CALLBACK) instanceof Function) {
+            return true;
+        }
+        lock.lock();
+        try {
+            return !timers.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long nanosUntilNextTimer() {
+        lock.lock();
+        try {
+            Timer next = timers.peek();
+            return next == null ? Long.MAX_VALUE : next.deadlineNs - System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Block until an event is posted, stop is requested or the timeout passes.
+     * The last stretch before the timeout is spun so the wake-up is on time.
+     */
+    private void waitForEvent(long timeoutNs) throws InterruptedException {
+        if (timeoutNs <= 0) return;
+        if (timeoutNs > SPIN_THRESHOLD_NS) {
+            lock.lock();
+            try {
+                if (!stopped && ((!detectionsPending && messages.isEmpty()) || dispatching)) {
+                    wake.awaitNanos(timeoutNs - SPIN_THRESHOLD_NS);
+                }
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        long deadlineNs = System.nanoTime() + timeoutNs;
+        while (!stopped && System.nanoTime() < deadlineNs) {
+            if (Thread.interrupted()) throw new InterruptedException("Script stopped");
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Run the pending detection event, queued messages and every timer that is due.
+     */
+    private void dispatchDue() {
+        DetectionFrame frame = null;
+        lock.lock();
+        try {
+            if (detectionsPending) {
+                DetectionFrame tmp = deliveringDetections;
+                deliveringDetections = pendingDetections;
+                pendingDetections = tmp;
+                detectionsPending = false;
+                frame = deliveringDetections;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (frame != null) {
+            Object cb = ScriptableObject.getProperty(scope, DETECTION_CALLBACK);
+            if (cb instanceof Function) {
+                detectionsDelivered++;
+                invoke((Function) cb, new Object[]{toJsDetections(frame)}, "detection callback");
+            }
+        }
+
+        // Only messages already queued now, so a script publishing to itself cannot spin here
+        int pendingMessages;
+        lock.lock();
+        try {
+            pendingMessages = messages.size();
+        } finally {
+            lock.unlock();
+        }
+        while (pendingMessages-- > 0 && !stopped) {
+            Message m;
+            lock.lock();
+            try {
+                m = messages.poll();
+            } finally {
+                lock.unlock();
+            }
+            if (m == null) break;
+            Function fn = subscriptions.get(m.topic);
+            if (fn != null) {
+                messagesDelivered++;
+                invoke(fn, new Object[]{m.json, m.from}, "subscriber of '" + m.topic + "'");
+            }
+        }
+
+        long now = System.nanoTime();
+        while (!stopped) {
+            Timer due;
+            lock.lock();
+            try {
+                due = timers.peek();
+                if (due == null || due.deadlineNs > now) break;
+                timers.poll();
+                if (due.intervalNs > 0) {
+                    // fixed rate: keep the original phase and skip ticks we missed entirely
+                    do {
+                        due.deadlineNs += due.intervalNs;
+                    } while (due.deadlineNs <= now);
+                    timers.add(due);
+                } else {
+                    timersById.remove(due.id);
+                }
+            } finally {
+                lock.unlock();
+            }
+            timersFired++;
+            invoke(due.fn, new Object[0], "timer callback");
+        }
+    }
+
+    private void invoke(Function fn, Object[] args, String what) {
+        dispatching = true;
+        try {
+            fn.call(cx, scope, scope, args);
+        } catch (RuntimeException e) {
+            if (stopped) throw e;
+            reporter.report("Error in " + what + ": " + e.getMessage());
+        } finally {
+            dispatching = false;
+        }
+    }
+
+    /**
+     * Build a JS array of {label, score, x, y, w, h} objects straight from the frame arrays.
+     */
+    private Scriptable toJsDetections(DetectionFrame frame) {
+        Object[] items = new Object[frame.count];
+        for (int i = 0; i < frame.count; i++) {
+            Scriptable o = cx.newObject(scope);
+            ScriptableObject.putProperty(o, "label", frame.labels[i]);
+            ScriptableObject.putProperty(o, "score", (double) frame.scores[i]);
+            ScriptableObject.putProperty(o, "x", (double) frame.x[i]);
+            ScriptableObject.putProperty(o, "y", (double) frame.y[i]);
+            ScriptableObject.putProperty(o, "w", (double) frame.w[i]);
+            ScriptableObject.putProperty(o, "h", (double) frame.h[i]);
+            items[i] = o;
+        }
+        return cx.newArray(scope, items);
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * ScriptLog.java
+ *
+ * Fixed-capacity ring of timestamped script output lines. Every line gets a
+ * monotonically increasing sequence number so clients can fetch only what
+ * they have not seen yet; once the ring is full the oldest lines are dropped,
+ * keeping memory flat for long-running scripts.
+ */
+package com.tencent.yolo11ncnn;
+
+import java.util.Calendar;
+
+public class ScriptLog {
+    static final int DEFAULT_CAPACITY = 1000;
+
+    /**
+     * Notified after each appended line, on the thread that appended it.
+     */
+    public interface Listener {
+        void onLine(long seq, String line);
+    }
+
+    private final String[] lines;
+    // Sequence number the next appended line will get; lines [nextSeq - size, nextSeq) are held
+    private long nextSeq = 0;
+    private int size = 0;
+    private volatile Listener listener;
+
+    // Timestamp text is only rebuilt when the wall-clock second changes
+    private final Calendar calendar = Calendar.getInstance();
+    private long cachedSecond = -1;
+    private String cachedTimestamp = "";
+
+    public ScriptLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ScriptLog(int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * Create a log whose first line gets sequence number firstSeq, so a rerun can
+     * continue the numbering of the log it replaces.
+     */
+    public ScriptLog(int capacity, long firstSeq) {
+        lines = new String[Math.max(1, capacity)];
+        nextSeq = Math.max(0, firstSeq);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Append a message as "[HH:mm:ss] message" and return its sequence number.
+     */
+    public long append(String message) {
+        long seq;
+        String line;
+        synchronized (this) {
+            line = "[" + timestamp(System.currentTimeMillis()) + "] " + message;
+            seq = nextSeq++;
+            lines[(int) (seq % lines.length)] = line;
+            if (size < lines.length) size++;
+        }
+        Listener l = listener;
+        if (l != null) {
+            l.onLine(seq, line);
+        }
+        return seq;
+    }
+
+    /**
+     * Drop all lines. Sequence numbers keep counting so clients never see one reused.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Sequence number the next line will get; pass it back as "since" to poll for new lines.
+     */
+    public synchronized long getNextSeq() {
+        return nextSeq;
+    }
+
+    /**
+     * Sequence number of the oldest line still held.
+     */
+    public synchronized long getFirstSeq() {
+        return nextSeq - size;
+    }
+
+    /**
+     * Append every held line with sequence number >= since to out, newline-terminated.
+     * Returns the sequence number to pass as since next time.
+     */
+    public synchronized long appendSince(long since, StringBuilder out) {
+        long from = Math.max(since, nextSeq - size);
+        for (long seq = from; seq < nextSeq; seq++) {
+            out.append(lines[(int) (seq % lines.length)]).append('\n');
+        }
+        return nextSeq;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        appendSince(0, sb);
+        return sb.toString();
+    }
+
+    private String timestamp(long nowMs) {
+        long second = nowMs / 1000;
+        if (second != cachedSecond) {
+            calendar.setTimeInMillis(nowMs);
+            char[] c = new char[8];
+            twoDigits(c, 0, calendar.get(Calendar.HOUR_OF_DAY));
+            c[2] = ':';
+            twoDigits(c, 3, calendar.get(Calendar.MINUTE));
+            c[5] = ':';
+            twoDigits(c, 6, calendar.get(Calendar.SECOND));
+            cachedTimestamp = new String(c);
+            cachedSecond = second;
+        }
+        return cachedTimestamp;
+    }
+
+    private static void twoDigits(char[] c, int offset, int value) {
+        c[offset] = (char) ('0' + value / 10);
+        c[offset + 1] = (char) ('0' + value % 10);
+    }
+}
@@ -0,0 +1,643 @@
+/**
+ * ScriptTask.java
+ *
+ * One named script run by RhinoScriptExecutor. Each task has its own thread,
+ * scope, event loop, instruction budget and log, so a perception script, a
+ * driving state machine and a watchdog can run side by side. Motor commands
+ * go through the executor's arbiter so only the highest-priority task drives.
+ */
+package com.tencent.yolo11ncnn;
+
+import android.util.Log;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ScriptTask {
+    private static final String TAG = "ScriptTask";
+    // How long start() waits for the script thread to reach the user script
+    private static final long START_WAIT_MS = 1000;
+
+    private final RhinoScriptExecutor executor;
+    private final String name;
+    private final int priority;
+    private final Script script;
+    private final ScriptLog log;
+    private final ScriptContextFactory.Budget budget;
+    private final RobotApi robotApi = new RobotApi();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private volatile String lastError = null;
+    private Thread thread = null;
+    // Event loop of the running script; callbacks are only ever run on the script thread
+    private volatile ScriptEventLoop eventLoop = null;
+
+    // Start-up timing
+    private final long runRequestedNs;
+    private final double compileMs;
+    private final boolean cacheHit;
+    private volatile double startLatencyMs = -1;
+    private volatile double firstCommandLatencyMs = -1;
+    private volatile long motorCommandsDenied = 0;
+
+    ScriptTask(RhinoScriptExecutor executor, String name, int priority, ScriptCache.Entry compiled,
+               long runRequestedNs, long maxInstructionsPerSecond, long firstLogSeq) {
+        this.executor = executor;
+        this.name = name;
+        this.priority = priority;
+        this.script = compiled.script;
+        this.compileMs = compiled.compileMs;
+        this.cacheHit = compiled.cacheHit;
+        this.runRequestedNs = runRequestedNs;
+        this.budget = new ScriptContextFactory.Budget(maxInstructionsPerSecond);
+        this.log = new ScriptLog(ScriptLog.DEFAULT_CAPACITY, firstLogSeq);
+        this.log.setListener((seq, line) -> executor.onLogLine(this, seq, line));
+    }
+
+    /**
+     * Start the script thread and wait until it has started running the user script.
+     */
+    void start() {
+        running.set(true);
+        CountDownLatch started = new CountDownLatch(1);
+        thread = new Thread(() -> {
+            try {
+                run(started);
+            } catch (Exception e) {
+                lastError = e.getMessage();
+                appendOutput("ERROR: " + e.getMessage());
+                Log.e(TAG, "Script execution error", e);
+            } finally {
+                started.countDown();
+                running.set(false);
+                // Ensure robot stops when script ends, if this task was driving it
+                executor.onTaskFinished(this);
+            }
+        }, "Script-" + name);
+        // Priority is for motor arbitration; a script never runs above NORM_PRIORITY, so a busy
+        // loop cannot starve the camera and inference threads
+        thread.setPriority(Math.max(Thread.MIN_PRIORITY, Math.min(Thread.NORM_PRIORITY, priority)));
+        thread.start();
+
+        try {
+            started.await(START_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop the script. Busy JS code is terminated by the instruction observer.
+     */
+    void stop() {
+        if (!running.getAndSet(false)) return;
+
+        // Wake the event loop so it stops waiting for timers/detections
+        ScriptEventLoop loop = eventLoop;
+        if (loop != null) {
+            loop.stop();
+        }
+        budget.requestStop();
+
+        if (thread != null) {
+            thread.interrupt();
+        }
+        appendOutput("Script stopped by user");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Motor-arbitration priority, 1 (lowest) to 10 (highest). The thread itself runs
+     * at this OS priority only up to NORM_PRIORITY.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public ScriptLog getLog() {
+        return log;
+    }
+
+    public ScriptContextFactory.Budget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Compile time in ms (0 when it came from the cache).
+     */
+    public double getCompileMs() {
+        return compileMs;
+    }
+
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    /**
+     * Time from the run request until the user script started executing, or -1.
+     */
+    public double getStartLatencyMs() {
+        return startLatencyMs;
+    }
+
+    /**
+     * Time from the run request until the script's first motor command, or -1.
+     */
+    public double getFirstCommandLatencyMs() {
+        return firstCommandLatencyMs;
+    }
+
+    /**
+     * Motor commands dropped because a higher-priority task held the motors.
+     */
+    public long getMotorCommandsDenied() {
+        return motorCommandsDenied;
+    }
+
+    /**
+     * Queue a detection frame for this task's onDetection callback.
+     */
+    void postDetections(DetectionFrame frame) {
+        ScriptEventLoop loop = eventLoop;
+        if (loop != null) {
+            loop.postDetections(frame);
+        }
+    }
+
+    /**
+     * Queue a message published by another task, if this task subscribed to the topic.
+     */
+    void postMessage(String topic, String json, String from) {
+        ScriptEventLoop loop = eventLoop;
+        if (loop != null) {
+            loop.postMessage(topic, json, from);
+        }
+    }
+
+    /**
+     * Execute the compiled script using Rhino.
+     */
+    private void run(CountDownLatch started) {
+        appendOutput("Starting script execution...");
+
+        // Interpreted context (Android-compatible) that reports instruction counts
+        Context rhinoContext = executor.getContextFactory().enterContext();
+        try {
+            ScriptContextFactory.attachBudget(rhinoContext, budget);
+
+            // Lightweight per-run scope on top of the sealed shared standard objects
+            Scriptable scope = executor.newTaskScope(rhinoContext);
+
+            // Inject the robot API object
+            Object wrappedApi = Context.javaToJS(robotApi, scope);
+            ScriptableObject.putProperty(scope, "robot", wrappedApi);
+
+            // Inject convenience functions directly into scope
+            executor.injectConvenienceFunctions(rhinoContext, scope);
+
+            // Callbacks, timers and messages are dispatched by this loop on the current thread
+            ScriptEventLoop loop = new ScriptEventLoop(rhinoContext, scope, this::appendOutput);
+            eventLoop = loop;
+            if (!running.get()) {
+                loop.stop();
+            }
+
+            startLatencyMs = (System.nanoTime() - runRequestedNs) / 1e6;
+            started.countDown();
+
+            // Execute the script, then keep serving callbacks until nothing is left to wait for
+            script.exec(rhinoContext, scope);
+            loop.run();
+
+            appendOutput("Script completed successfully");
+
+        } catch (ScriptContextFactory.ScriptStoppedError e) {
+            // Raised by the instruction observer after stop(); already logged there
+            Log.d(TAG, name + " terminated after " + budget.getInstructionCount() + " instructions");
+        } catch (RhinoException e) {
+            lastError = e.getMessage();
+            appendOutput("Script error at line " + e.lineNumber() + ": " + e.details());
+            Log.e(TAG, "Rhino error", e);
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            appendOutput("Error: " + e.getMessage());
+            Log.e(TAG, "Execution error", e);
+        } finally {
+            eventLoop = null;
+            Context.exit();
+        }
+    }
+
+    /**
+     * Append a message to this task's log.
+     */
+    private void appendOutput(String message) {
+        log.append(message);
+        Log.d(TAG, name + ": " + message);
+    }
+
+    /**
+     * Robot API class exposed to JavaScript.
+     * All public methods are callable from JS.
+     */
+    public class RobotApi {
+        /**
+         * Move the robot in a direction.
+         * @param direction "forward", "backward", "left", "right"
+         * @param speed 0.0 to 1.0
+         */
+        public void move(String direction, double speed) {
+            checkRunning();
+            float s = Math.max(0f, Math.min(1f, (float) speed));
+            if (!acquireMotors()) return;
+            appendOutput("move('" + direction + "', " + s + ")");
+            RhinoScriptExecutor.RobotCommandCallback callback = executor.getCallback();
+            if (callback != null) {
+                callback.onMove(direction, s);
+            }
+        }
+
+        /**
+         * Rotate the robot.
+         * @param direction "left" or "right"
+         * @param speed 0.0 to 1.0
+         */
+        public void rotate(String direction, double speed) {
+            checkRunning();
+            float s = Math.max(0f, Math.min(1f, (float) speed));
+            if (!acquireMotors()) return;
+            appendOutput("rotate('" + direction + "', " + s + ")");
+            RhinoScriptExecutor.RobotCommandCallback callback = executor.getCallback();
+            if (callback != null) {
+                callback.onRotate(direction, s);
+            }
+        }
+
+        /**
+         * Stop all motors.
+         */
+        public void stop() {
+            if (!acquireMotors()) return;
+            appendOutput("stop()");
+            RhinoScriptExecutor.RobotCommandCallback callback = executor.getCallback();
+            if (callback != null) {
+                callback.onStop();
+            }
+        }
+
+        /**
+         * Play timed X,Y,R,E setpoints on the default robot, e.g.
+         * robot.trajectory([{t: 0, y: 150}, {t: 500, y: 150, r: 80}, {t: 1000}], {interpolate: true}).
+         * Returns the duration in ms, so sleep(robot.trajectory(...)) waits for it to finish;
+         * the robot still stops when the script ends.
+         */
+        public double trajectory(Object points, Object options) {
+            checkRunning();
+            Trajectory trajectory = toTrajectory(points, options);
+            RobotFleet fleet = executor.getRobotFleet();
+            RobotEndpoint robot = fleet != null ? fleet.get(RobotFleet.DEFAULT_ROBOT) : null;
+            if (robot == null) {
+                throw new RuntimeException("No robot to play the trajectory on");
+            }
+            if (!acquireMotors()) return 0;
+            fleet.play(robot, trajectory);
+            appendOutput("trajectory(" + trajectory.size() + " points, " + trajectory.getDurationMs() + "ms)");
+            return trajectory.getDurationMs();
+        }
+
+        public double trajectory(Object points) {
+            return trajectory(points, null);
+        }
+
+        /**
+         * Feed the default robot's dead-man watchdog without changing its setpoint.
+         */
+        public void heartbeat() {
+            RobotFleet fleet = executor.getRobotFleet();
+            RobotEndpoint robot = fleet != null ? fleet.get(RobotFleet.DEFAULT_ROBOT) : null;
+            if (robot != null) {
+                robot.heartbeat();
+            }
+        }
+
+        /**
+         * Give up the motors so a lower-priority task can drive again.
+         */
+        public void releaseMotors() {
+            executor.releaseMotors(ScriptTask.this);
+        }
+
+        /**
+         * Wait for a specified number of milliseconds.
+         * Ends on time and keeps dispatching timers and detection events meanwhile.
+         * Feeds the dead-man watchdog of the robots this task drives for the whole wait,
+         * since move(); wait(ms) is a timed move; they still stop if the script does.
+         * @param ms milliseconds to wait
+         */
+        // Use 'sleep' to avoid colliding with Object.wait()
+        public void sleep(int ms) throws InterruptedException {
+            checkRunning();
+            appendOutput("wait(" + ms + "ms)");
+
+            ScriptEventLoop loop = eventLoop;
+            if (loop == null) {
+                throw new InterruptedException("Script stopped");
+            }
+            holdFeed(ms);
+            loop.sleep(ms);
+
+            if (!running.get()) {
+                throw new InterruptedException("Script stopped");
+            }
+        }
+
+        private void holdFeed(int ms) {
+            RobotFleet fleet = executor.getRobotFleet();
+            if (fleet == null) return;
+            for (String name : executor.getOwnedRobots(ScriptTask.this)) {
+                RobotEndpoint robot = fleet.get(name);
+                if (robot != null) {
+                    robot.holdFeed(ms);
+                }
+            }
+        }
+
+        // Keep legacy 'wait' signature but delegate to sleep to avoid direct Object.wait use
+        public void wait(int ms) throws InterruptedException {
+            sleep(ms);
+        }
+
+        /**
+         * Log a message to the output.
+         * @param message the message to log
+         */
+        public void log(Object message) {
+            appendOutput("LOG: " + (message != null ? message.toString() : "null"));
+        }
+
+        /**
+         * Return the last detections as a JSON string, built lazily from the last frame.
+         */
+        public String getLastDetections() {
+            return executor.getLastDetectionsJson();
+        }
+
+        /**
+         * Schedule fn to run once after ms milliseconds on the script thread.
+         */
+        public int setTimeout(Function fn, double ms) {
+            return requireLoop().setTimeout(fn, ms);
+        }
+
+        /**
+         * Schedule fn to run every ms milliseconds at a fixed rate on the script thread.
+         */
+        public int setInterval(Function fn, double ms) {
+            return requireLoop().setInterval(fn, ms);
+        }
+
+        /**
+         * Cancel a timer created by setTimeout or setInterval.
+         */
+        public void clearTimer(int id) {
+            ScriptEventLoop loop = eventLoop;
+            if (loop != null) {
+                loop.clearTimer(id);
+            }
+        }
+
+        /**
+         * Publish a JSON-encoded value on a topic to every task subscribed to it.
+         */
+        public void publish(String topic, String json) {
+            checkRunning();
+            executor.publish(ScriptTask.this, topic, json);
+        }
+
+        /**
+         * Call fn(json, fromTask) on this task's thread for each message on topic.
+         */
+        public void subscribe(String topic, Function fn) {
+            requireLoop().subscribe(topic, fn);
+        }
+
+        public void unsubscribe(String topic) {
+            ScriptEventLoop loop = eventLoop;
+            if (loop != null) {
+                loop.unsubscribe(topic);
+            }
+        }
+
+        /**
+         * Address a fleet robot, a group, or "all": robot("left").move("forward", 0.5).
+         */
+        public RobotTarget target(String name) {
+            return new RobotTarget(name);
+        }
+
+        /**
+         * Name of the task this script runs as.
+         */
+        public String getTaskName() {
+            return name;
+        }
+
+        private ScriptEventLoop requireLoop() {
+            checkRunning();
+            ScriptEventLoop loop = eventLoop;
+            if (loop == null) {
+                throw new RuntimeException("Script stopped");
+            }
+            return loop;
+        }
+
+        private boolean acquireMotors() {
+            return ScriptTask.this.acquireMotors(RobotFleet.DEFAULT_ROBOT);
+        }
+
+    }
+
+    /**
+     * Robots addressed by name, group or "all", resolved against the fleet on every call
+     * so robots added later are picked up. Robots held by a higher-priority task are skipped.
+     */
+    public class RobotTarget {
+        private final String target;
+
+        RobotTarget(String target) {
+            this.target = target;
+        }
+
+        public void move(String direction, double speed) {
+            checkRunning();
+            float s = Math.max(0f, Math.min(1f, (float) speed));
+            for (RobotEndpoint robot : acquire()) {
+                robot.move(direction, s);
+            }
+            appendOutput(target + ".move('" + direction + "', " + s + ")");
+        }
+
+        public void rotate(String direction, double speed) {
+            checkRunning();
+            float s = Math.max(0f, Math.min(1f, (float) speed));
+            for (RobotEndpoint robot : acquire()) {
+                robot.rotate(direction, s);
+            }
+            appendOutput(target + ".rotate('" + direction + "', " + s + ")");
+        }
+
+        public void stop() {
+            for (RobotEndpoint robot : acquire()) {
+                robot.stop();
+            }
+            appendOutput(target + ".stop()");
+        }
+
+        /**
+         * Play the same timed setpoints on every robot of this target; returns the duration in ms.
+         */
+        public double trajectory(Object points, Object options) {
+            checkRunning();
+            Trajectory trajectory = toTrajectory(points, options);
+            RobotFleet fleet = executor.getRobotFleet();
+            for (RobotEndpoint robot : acquire()) {
+                fleet.play(robot, trajectory);
+            }
+            appendOutput(target + ".trajectory(" + trajectory.size() + " points, "
+                    + trajectory.getDurationMs() + "ms)");
+            return trajectory.getDurationMs();
+        }
+
+        public double trajectory(Object points) {
+            return trajectory(points, null);
+        }
+
+        public void heartbeat() {
+            for (RobotEndpoint robot : resolve()) {
+                robot.heartbeat();
+            }
+        }
+
+        /**
+         * Raw X,Y,R,E setpoint for holonomic moves.
+         */
+        public void drive(int x, int y, int r, int e) {
+            checkRunning();
+            for (RobotEndpoint robot : acquire()) {
+                robot.setSetpoint(x, y, r, e);
+            }
+        }
+
+        /**
+         * Names of the robots this target currently resolves to.
+         */
+        public String[] getNames() {
+            List<RobotEndpoint> robots = resolve();
+            String[] names = new String[robots.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = robots.get(i).getName();
+            }
+            return names;
+        }
+
+        private List<RobotEndpoint> resolve() {
+            RobotFleet fleet = executor.getRobotFleet();
+            if (fleet == null) {
+                return new ArrayList<>();
+            }
+            return fleet.resolve(target);
+        }
+
+        private List<RobotEndpoint> acquire() {
+            List<RobotEndpoint> robots = resolve();
+            if (robots.isEmpty()) {
+                appendOutput("No robot named " + target);
+            }
+            List<RobotEndpoint> granted = new ArrayList<>(robots.size());
+            for (RobotEndpoint robot : robots) {
+                if (acquireMotors(robot.getName())) {
+                    granted.add(robot);
+                }
+            }
+            return granted;
+        }
+    }
+
+    /**
+     * Build a Trajectory from a JS array of {t, x, y, r, e} and optional {interpolate, hold}.
+     */
+    private static Trajectory toTrajectory(Object points, Object options) {
+        if (!(points instanceof NativeArray)) {
+            throw new IllegalArgumentException("trajectory() expects an array of points");
+        }
+        NativeArray array = (NativeArray) points;
+        Trajectory.Builder builder = new Trajectory.Builder();
+        for (int i = 0; i < (int) array.getLength(); i++) {
+            Object p = array.get(i, array);
+            if (!(p instanceof Scriptable)) {
+                throw new IllegalArgumentException("Point " + i + " is not an object");
+            }
+            Scriptable point = (Scriptable) p;
+            Object t = ScriptableObject.getProperty(point, "t");
+            if (t == Scriptable.NOT_FOUND) {
+                throw new IllegalArgumentException("Point " + i + " has no 't'");
+            }
+            builder.add(Context.toNumber(t), axis(point, "x"), axis(point, "y"), axis(point, "r"), axis(point, "e"));
+        }
+        if (options instanceof Scriptable) {
+            Scriptable opts = (Scriptable) options;
+            Object interpolate = ScriptableObject.getProperty(opts, "interpolate");
+            Object hold = ScriptableObject.getProperty(opts, "hold");
+            builder.interpolate(interpolate != Scriptable.NOT_FOUND && Context.toBoolean(interpolate));
+            builder.hold(hold != Scriptable.NOT_FOUND && Context.toBoolean(hold));
+        }
+        return builder.build();
+    }
+
+    private static int axis(Scriptable point, String name) {
+        Object v = ScriptableObject.getProperty(point, name);
+        return v == Scriptable.NOT_FOUND ? 0 : (int) Math.round(Context.toNumber(v));
+    }
+
+    private boolean acquireMotors(String robotName) {
+        if (!executor.acquireMotors(this, robotName)) {
+            motorCommandsDenied++;
+            return false;
+        }
+        if (firstCommandLatencyMs < 0) {
+            firstCommandLatencyMs = (System.nanoTime() - runRequestedNs) / 1e6;
+        }
+        return true;
+    }
+
+    /**
+     * Check if the script is still running, throw if not.
+     */
+    private void checkRunning() {
+        if (!running.get()) {
+            throw new RuntimeException("Script stopped");
+        }
+    }
+}
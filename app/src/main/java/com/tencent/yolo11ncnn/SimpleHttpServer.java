@@ -9,13 +9,19 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.AssetManager;
 import android.util.Log;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import fi.iki.elonen.NanoHTTPD;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class SimpleHttpServer extends NanoHTTPD {
@@ -27,7 +33,18 @@ public class SimpleHttpServer extends NanoHTTPD {
     private boolean isOnline = false;
     private RobotControlCallback robotCallback;
     private VideoStreamServer videoStreamServer;
-    private String robotIp = "192.168.1.100"; // Default robot IP
+    private final DetectionBus detectionBus = new DetectionBus();
+    // Last frame off the bus, for GET /api/detections; guarded by itself
+    private final DetectionFrame latestDetections = new DetectionFrame(DetectionFrame.DEFAULT_CAPACITY);
+    private volatile String robotIp = "192.168.1.100"; // Default robot IP
+    private RobotFleet robotFleet;
+    
+    // Pushes status/scripts/metrics state to WebSocket subscribers instead of dashboards polling
+    private static final long STATE_PUBLISH_MS = 200;
+    private static final long METRICS_PUBLISH_MS = 1000;
+    private final Object publishLock = new Object();
+    private boolean publishRequested = false;
+    private volatile Thread statePublisher;
     
     // Script storage and execution
     private static final String SCRIPT_PREFS = "RobotScriptPrefs";
@@ -113,6 +130,21 @@ public class SimpleHttpServer extends NanoHTTPD {
                 }
             }
         });
+        
+        // Push new log lines to dashboards as they are written
+        this.scriptExecutor.setLogListener(new RhinoScriptExecutor.LogListener() {
+            @Override
+            public void onLine(String task, long seq, String line) {
+                SimpleWebSocketServer ws = webSocketServer;
+                if (ws == null || !ws.hasSubscribers(SimpleWebSocketServer.TOPIC_SCRIPT_LOG)) return;
+                JsonObject msg = new JsonObject();
+                msg.addProperty("type", "script_log");
+                msg.addProperty("task", task);
+                msg.addProperty("seq", seq);
+                msg.addProperty("line", line);
+                ws.publish(SimpleWebSocketServer.TOPIC_SCRIPT_LOG, msg.toString());
+            }
+        });
     }
     
     /**
@@ -122,6 +154,24 @@ public class SimpleHttpServer extends NanoHTTPD {
         return videoStreamServer;
     }
     
+    /**
+     * Set the robot fleet and register the default robot at the configured IP.
+     */
+    public void setRobotFleet(RobotFleet fleet) {
+        this.robotFleet = fleet;
+        fleet.add(RobotFleet.DEFAULT_ROBOT, robotIp, RobotEndpoint.DEFAULT_PORT);
+        if (webSocketServer != null) {
+            webSocketServer.setRobotFleet(fleet);
+        }
+        if (scriptExecutor != null) {
+            scriptExecutor.setRobotFleet(fleet);
+        }
+    }
+    
+    public RobotFleet getRobotFleet() {
+        return robotFleet;
+    }
+    
     /**
      * Get the robot IP address.
      */
@@ -149,6 +199,11 @@ public class SimpleHttpServer extends NanoHTTPD {
                 Log.i(TAG, "Video Stream Server started");
             }
             
+            // Consume detections off the camera thread
+            startDetectionConsumers();
+            
+            startStatePublisher();
+            
         } catch (IOException e) {
             Log.e(TAG, "Failed to start server: " + e.getMessage());
             isOnline = false;
@@ -162,6 +217,8 @@ public class SimpleHttpServer extends NanoHTTPD {
         stop();
         isOnline = false;
         
+        stopStatePublisher();
+        
         if (webSocketServer != null) {
             webSocketServer.shutdown();
         }
@@ -170,6 +227,8 @@ public class SimpleHttpServer extends NanoHTTPD {
             videoStreamServer.stop();
         }
         
+        detectionBus.shutdown();
+        
         Log.i(TAG, "Servers stopped");
     }
     
@@ -178,6 +237,11 @@ public class SimpleHttpServer extends NanoHTTPD {
         String uri = session.getUri();
         Method method = session.getMethod();
         
+        // Emergency stop goes first: no logging, body parsing or routing ahead of it
+        if (method == Method.POST && uri.equals("/api/robot/estop")) {
+            return handleEmergencyStop(session);
+        }
+        
         Log.d(TAG, method + " " + uri);
         
         try {
@@ -214,11 +278,32 @@ public class SimpleHttpServer extends NanoHTTPD {
     }
     
     /**
-     * Handle MJPEG video stream.
+     * Handle MJPEG video stream. Optional query parameters pick the rendition:
+     * fps (frame rate), w (width in pixels, height in proportion) and q (JPEG quality);
+     * out of range values are clamped, e.g. /stream/video?fps=5&w=640&q=60.
+     * These are the most the client gets: unless adapt=0, the stream steps down
+     * to minfps, minw and minq while the client's link cannot keep up.
      */
     private Response handleVideoStream(IHTTPSession session) {
-        Log.i(TAG, "Client connected to video stream");
-        return new MjpegResponse(videoStreamServer);
+        String client = session.getHeaders().get("remote-addr");
+        int fps, width, quality, minFps, minWidth, minQuality;
+        try {
+            fps = getIntQueryParam(session, "fps");
+            width = getIntQueryParam(session, "w");
+            quality = getIntQueryParam(session, "q");
+            minFps = getIntQueryParam(session, "minfps");
+            minWidth = getIntQueryParam(session, "minw");
+            minQuality = getIntQueryParam(session, "minq");
+        } catch (NumberFormatException e) {
+            return createJsonResponse(Response.Status.BAD_REQUEST,
+                    createErrorJson("Invalid stream parameter: " + e.getMessage()));
+        }
+        String adapt = getQueryParam(session, "adapt");
+        boolean adaptive = adapt == null || !(adapt.equals("0") || adapt.equalsIgnoreCase("false") || adapt.equalsIgnoreCase("off"));
+        Log.i(TAG, "Client connected to video stream: " + client + " (fps=" + fps + ", w=" + width + ", q=" + quality
+                + ", adaptive=" + adaptive + ")");
+        return new MjpegResponse(videoStreamServer.openAdaptiveViewer(client != null ? client : "viewer", adaptive,
+                fps, width, quality, minFps, minWidth, minQuality));
     }
     
     /**
@@ -244,6 +329,30 @@ public class SimpleHttpServer extends NanoHTTPD {
                 }
                 break;
                 
+            case "/api/detections":
+                if (method == Method.GET) {
+                    return handleDetectionsGet(session);
+                }
+                break;
+                
+            case "/api/detections/bus":
+                if (method == Method.GET) {
+                    return handleDetectionBusStats();
+                }
+                break;
+                
+            case "/api/video/viewers":
+                if (method == Method.GET) {
+                    return handleVideoViewers();
+                }
+                break;
+                
+            case "/api/websocket/clients":
+                if (method == Method.GET) {
+                    return handleWebSocketClients();
+                }
+                break;
+                
             case "/api/robot/move":
                 if (method == Method.POST) {
                     return handleRobotMove(session);
@@ -262,6 +371,30 @@ public class SimpleHttpServer extends NanoHTTPD {
                 }
                 break;
                 
+            case "/api/robot/trajectory":
+                if (method == Method.GET || method == Method.POST || method == Method.DELETE) {
+                    return handleRobotTrajectory(session, method);
+                }
+                break;
+                
+            case "/api/robot/teleop":
+                if (method == Method.GET) {
+                    return handleRobotTeleop();
+                }
+                break;
+                
+            case "/api/robot/watchdog":
+                if (method == Method.GET || method == Method.POST) {
+                    return handleRobotWatchdog(session, method);
+                }
+                break;
+                
+            case "/api/robot/heartbeat":
+                if (method == Method.POST) {
+                    return handleRobotHeartbeat(session);
+                }
+                break;
+                
             case "/api/robot/camera/switch":
                 if (method == Method.POST) {
                     return handleCameraSwitch();
@@ -282,9 +415,27 @@ public class SimpleHttpServer extends NanoHTTPD {
                 }
                 break;
                 
+            case "/api/robot/rate":
+                if (method == Method.GET || method == Method.POST) {
+                    return handleRobotRate(session, method);
+                }
+                break;
+                
+            case "/api/robot/protocol":
+                if (method == Method.GET || method == Method.POST) {
+                    return handleRobotProtocol(session, method);
+                }
+                break;
+                
+            case "/api/robots":
+                if (method == Method.GET || method == Method.POST || method == Method.DELETE) {
+                    return handleRobots(session, method);
+                }
+                break;
+                
             case "/api/robot/test":
                 if (method == Method.GET) {
-                    return handleRobotTest();
+                    return handleRobotTest(session);
                 }
                 break;
                 
@@ -305,13 +456,19 @@ public class SimpleHttpServer extends NanoHTTPD {
                 
             case "/api/script/stop":
                 if (method == Method.POST) {
-                    return handleScriptStop();
+                    return handleScriptStop(session);
                 }
                 break;
                 
             case "/api/script/status":
                 if (method == Method.GET) {
-                    return handleScriptStatus();
+                    return handleScriptStatus(session);
+                }
+                break;
+                
+            case "/api/script/tasks":
+                if (method == Method.GET) {
+                    return handleScriptTasks();
                 }
                 break;
         }
@@ -333,11 +490,89 @@ public class SimpleHttpServer extends NanoHTTPD {
         
         if (webSocketServer != null) {
             status.addProperty("webSocketClients", webSocketServer.getClientCount());
+            status.addProperty("webSocketMessagesSent", webSocketServer.getMessagesSent());
+            status.addProperty("stateUpdatesSkipped", webSocketServer.getStateUpdatesSkipped());
         }
         
         return createJsonResponse(Response.Status.OK, status.toString());
     }
     
+    /**
+     * Handle GET /api/detections - latest detections as JSON, or as a DetectionCodec
+     * key frame with ?format=binary
+     */
+    private Response handleDetectionsGet(IHTTPSession session) {
+        DetectionFrame frame = new DetectionFrame(DetectionFrame.DEFAULT_CAPACITY);
+        synchronized (latestDetections) {
+            frame.copyFrom(latestDetections);
+        }
+        if ("binary".equals(getQueryParam(session, "format"))) {
+            // DetectionCodec key frame; ids are the object indices
+            byte[] data = DetectionCodec.encodeKeyFrame(frame);
+            Response response = newFixedLengthResponse(Response.Status.OK, "application/octet-stream",
+                    new ByteArrayInputStream(data), data.length);
+            addCorsHeaders(response);
+            return response;
+        }
+        return createJsonResponse(Response.Status.OK, frame.toMessageJson(null, System.currentTimeMillis()));
+    }
+    
+    /**
+     * Handle GET /api/video/viewers - renditions, viewers and per-client stream stats
+     */
+    private Response handleVideoViewers() {
+        JsonObject response = videoStreamServer.getStats();
+        response.addProperty("success", true);
+        return createJsonResponse(Response.Status.OK, response.toString());
+    }
+    
+    /**
+     * Handle GET /api/detections/bus - per-subscriber delivery, drop and lag counters
+     */
+    private Response handleDetectionBusStats() {
+        JsonObject response = new JsonObject();
+        response.addProperty("success", true);
+        response.addProperty("published", detectionBus.getPublishedCount());
+        
+        JsonArray subscribers = new JsonArray();
+        for (DetectionBus.Subscriber s : detectionBus.getSubscribers()) {
+            JsonObject sub = new JsonObject();
+            sub.addProperty("name", s.getName());
+            sub.addProperty("delivered", s.getDelivered());
+            sub.addProperty("dropped", s.getDropped());
+            sub.addProperty("lag", s.getLag());
+            sub.addProperty("errors", s.getErrors());
+            sub.addProperty("latencyMs", s.getLastLatencyMs());
+            subscribers.add(sub);
+        }
+        response.add("subscribers", subscribers);
+        
+        return createJsonResponse(Response.Status.OK, response.toString());
+    }
+    
+    /**
+     * Handle GET /api/websocket/clients - outbound queue depth, bytes, drops and lag per client
+     */
+    private Response handleWebSocketClients() {
+        if (webSocketServer == null) {
+            return createJsonResponse(Response.Status.INTERNAL_ERROR,
+                    createErrorJson("WebSocket server not running"));
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("success", true);
+        response.addProperty("messagesSent", webSocketServer.getMessagesSent());
+        response.addProperty("stateUpdatesSkipped", webSocketServer.getStateUpdatesSkipped());
+        response.addProperty("slowClientsClosed", webSocketServer.getSlowClientsClosed());
+        response.addProperty("maxQueued", OutboundQueue.MAX_BUFFERED);
+        response.addProperty("maxQueuedBytes", OutboundQueue.MAX_BUFFERED_BYTES);
+        response.addProperty("slowClientLagMs", WebSocketSession.SLOW_CLIENT_LAG_MS);
+        response.add("frames", webSocketServer.getFrameStats());
+        response.addProperty("detectionFramesRateLimited", webSocketServer.getDetectionFramesRateLimited());
+        response.add("detectionCodec", webSocketServer.getDetectionCodecStats());
+        response.add("clients", webSocketServer.getClientStats());
+        return createJsonResponse(Response.Status.OK, response.toString());
+    }
+    
     /**
      * Handle POST /api/message
      */
@@ -467,6 +702,154 @@ public class SimpleHttpServer extends NanoHTTPD {
         }
     }
     
+    /**
+     * Handle POST /api/robot/estop?name= - Emergency-stop one robot, or every robot
+     * and every script when no name is given. Reads no body.
+     */
+    private Response handleEmergencyStop(IHTTPSession session) {
+        JsonObject response = new JsonObject();
+        if (robotFleet == null) {
+            return createJsonResponse(Response.Status.INTERNAL_ERROR,
+                    createErrorJson("Robot fleet not initialized"));
+        }
+        String name = getQueryParam(session, "name");
+        if (name == null) {
+            response.addProperty("stopped", robotFleet.emergencyStopAll());
+        } else {
+            RobotEndpoint robot = robotFleet.get(name);
+            if (robot == null) {
+                return createJsonResponse(Response.Status.NOT_FOUND, createErrorJson("Robot not found: " + name));
+            }
+            robot.emergencyStop();
+            response.addProperty("stopped", 1);
+        }
+        
+        // The robots are already stopping; now keep scripts and status from driving them again
+        if (name == null && scriptExecutor != null) {
+            scriptExecutor.stop();
+        }
+        if (robotCallback != null && (name == null || RobotFleet.DEFAULT_ROBOT.equals(name))) {
+            robotCallback.onStop();
+        }
+        broadcastRobotCommand("estop", name != null ? name : RobotFleet.ALL, 0);
+        Log.w(TAG, "Emergency stop: " + (name != null ? name : "all robots"));
+        
+        response.addProperty("success", true);
+        response.addProperty("command", "estop");
+        return createJsonResponse(Response.Status.OK, response.toString());
+    }
+    
+    /**
+     * Handle /api/robot/trajectory?name= - POST {points: [{t, x, y, r, e}], interpolate?, hold?}
+     * plays timed X,Y,R,E setpoints on the device; GET reports progress and timing; DELETE
+     * cancels playback and stops the robot.
+     */
+    private Response handleRobotTrajectory(IHTTPSession session, Method method) {
+        RobotEndpoint robot = findRobot(session);
+        if (robot == null) {
+            return createJsonResponse(Response.Status.NOT_FOUND, createErrorJson("Robot not found"));
+        }
+        TrajectoryPlayer.Playback playback;
+        if (method == Method.POST) {
+            try {
+                JsonObject request = JsonParser.parseString(getRequestBody(session)).getAsJsonObject();
+                Trajectory trajectory = Trajectory.fromJson(request);
+                playback = robotFleet.play(robot, trajectory);
+                broadcastRobotCommand("trajectory", robot.getName(), (float) trajectory.getDurationMs());
+            } catch (Exception e) {
+                return createJsonResponse(Response.Status.BAD_REQUEST,
+                        createErrorJson("Invalid trajectory: " + e.getMessage()));
+            }
+        } else {
+            playback = robot.getPlayback();
+            if (method == Method.DELETE) {
+                robot.stop();
+            }
+        }
+        
+        JsonObject response = new JsonObject();
+        response.addProperty("success", true);
+        response.addProperty("name", robot.getName());
+        response.addProperty("playing", playback != null && playback.isPlaying());
+        if (playback != null) {
+            response.add("playback", playback.toJson());
+        }
+        return createJsonResponse(Response.Status.OK, response.toString());
+    }
+    
+    /**
+     * Handle GET /api/robot/teleop - Binary WebSocket teleop channel statistics
+     */
+    private Response handleRobotTeleop() {
+        if (webSocketServer == null) {
+            return createJsonResponse(Response.Status.INTERNAL_ERROR,
+                    createErrorJson("WebSocket server not running"));
+        }
+        JsonObject response = webSocketServer.getTeleop().toJson();
+        response.addProperty("success", true);
+        RobotEndpoint robot = robotFleet != null ? robotFleet.get(RobotFleet.DEFAULT_ROBOT) : null;
+        if (robot != null) {
+            response.addProperty("setpointToWireUs", robot.getLastSetpointToWireUs());
+            response.addProperty("maxSetpointToWireUs", robot.getMaxSetpointToWireUs());
+            response.addProperty("coalescedUpdates", robot.getCoalescedUpdates());
+        }
+        return createJsonResponse(Response.Status.OK, response.toString());
+    }
+    
+    /**
+     * Handle GET/POST /api/robot/watchdog?name= - Get or set a robot's dead-man timeout.
+     * POST {deadmanMs}; 0 disables it.
+     */
+    private Response handleRobotWatchdog(IHTTPSession session, Method method) {
+        RobotEndpoint robot = findRobot(session);
+        if (robot == null) {
+            return createJsonResponse(Response.Status.NOT_FOUND, createErrorJson("Robot not found"));
+        }
+        if (method == Method.POST) {
+            try {
+                JsonObject request = JsonParser.parseString(getRequestBody(session)).getAsJsonObject();
+                if (!request.has("deadmanMs")) {
+                    return createJsonResponse(Response.Status.BAD_REQUEST,
+                            createErrorJson("Missing 'deadmanMs' parameter"));
+                }
+                robot.setDeadmanMs(request.get("deadmanMs").getAsInt());
+                Log.i(TAG, "Dead-man watchdog for " + robot.getName() + ": " + robot.getDeadmanMs() + "ms");
+            } catch (Exception e) {
+                return createJsonResponse(Response.Status.BAD_REQUEST,
+                        createErrorJson("Failed to set watchdog: " + e.getMessage()));
+            }
+        }
+        JsonObject response = safetyJson(robot);
+        response.addProperty("success", true);
+        response.addProperty("name", robot.getName());
+        return createJsonResponse(Response.Status.OK, response.toString());
+    }
+    
+    /**
+     * Handle POST /api/robot/heartbeat?name= - Feed a robot's dead-man watchdog, or every
+     * robot's when no name is given.
+     */
+    private Response handleRobotHeartbeat(IHTTPSession session) {
+        if (robotFleet == null) {
+            return createJsonResponse(Response.Status.INTERNAL_ERROR,
+                    createErrorJson("Robot fleet not initialized"));
+        }
+        String name = getQueryParam(session, "name");
+        for (RobotEndpoint robot : robotFleet.resolve(name != null ? name : RobotFleet.ALL)) {
+            robot.heartbeat();
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("success", true);
+        return createJsonResponse(Response.Status.OK, response.toString());
+    }
+    
+    private JsonObject safetyJson(RobotEndpoint robot) {
+        JsonObject json = robot.getStopStats().toJson();
+        json.addProperty("deadmanMs", robot.getDeadmanMs());
+        json.addProperty("msSinceFeed", robot.getMsSinceFeed());
+        return json;
+    }
+    
     /**
      * Handle POST /api/robot/camera/switch
      */
@@ -502,6 +885,13 @@ public class SimpleHttpServer extends NanoHTTPD {
             response.addProperty("lastCommand", status.lastCommand);
             response.addProperty("cameraFacing", status.cameraFacing);
             response.addProperty("timestamp", status.timestamp);
+            RobotEndpoint robot = robotFleet != null ? robotFleet.get(RobotFleet.DEFAULT_ROBOT) : null;
+            if (robot != null) {
+                response.add("controlLoop", robotJson(robot));
+            }
+            if (robotFleet != null) {
+                response.addProperty("robotCount", robotFleet.getAll().size());
+            }
             
             return createJsonResponse(Response.Status.OK, response.toString());
             
@@ -511,6 +901,139 @@ public class SimpleHttpServer extends NanoHTTPD {
         }
     }
     
+    /**
+     * Handle GET/POST /api/robot/rate?name= - Get or set a robot's send rate (default robot "main")
+     */
+    private Response handleRobotRate(IHTTPSession session, Method method) {
+        RobotEndpoint robot = findRobot(session);
+        if (robot == null) {
+            return createJsonResponse(Response.Status.NOT_FOUND, createErrorJson("Robot not found"));
+        }
+        if (method == Method.POST) {
+            try {
+                JsonObject request = JsonParser.parseString(getRequestBody(session)).getAsJsonObject();
+                if (!request.has("rateHz")) {
+                    return createJsonResponse(Response.Status.BAD_REQUEST,
+                            createErrorJson("Missing 'rateHz' parameter"));
+                }
+                robot.setRateHz(request.get("rateHz").getAsInt());
+            } catch (Exception e) {
+                return createJsonResponse(Response.Status.BAD_REQUEST,
+                        createErrorJson("Failed to set rate: " + e.getMessage()));
+            }
+        }
+        JsonObject response = robotJson(robot);
+        response.addProperty("success", true);
+        return createJsonResponse(Response.Status.OK, response.toString());
+    }
+    
+    /**
+     * Robot named by ?name=, or the default robot.
+     */
+    private RobotEndpoint findRobot(IHTTPSession session) {
+        if (robotFleet == null) return null;
+        String name = getQueryParam(session, "name");
+        return robotFleet.get(name != null ? name : RobotFleet.DEFAULT_ROBOT);
+    }
+    
+    private JsonObject robotJson(RobotEndpoint robot) {
+        JsonObject json = new JsonObject();
+        json.addProperty("name", robot.getName());
+        json.addProperty("ip", robot.getHost());
+        json.addProperty("port", robot.getPort());
+        JsonArray groups = new JsonArray();
+        for (String g : robot.getGroups()) {
+            groups.add(g);
+        }
+        json.add("groups", groups);
+        json.addProperty("rateHz", robot.getRateHz());
+        json.addProperty("x", robot.getX());
+        json.addProperty("y", robot.getY());
+        json.addProperty("r", robot.getR());
+        json.addProperty("e", robot.getE());
+        json.addProperty("packetsSent", robot.getPacketsSent());
+        json.addProperty("immediateSends", robot.getImmediateSends());
+        json.addProperty("coalescedUpdates", robot.getCoalescedUpdates());
+        json.addProperty("staleTicksSkipped", robot.getStaleTicksSkipped());
+        json.addProperty("sendErrors", robot.getSendErrors());
+        json.addProperty("msSinceLastSend", robot.getMsSinceLastSend());
+        json.addProperty("setpointToWireUs", robot.getLastSetpointToWireUs());
+        json.addProperty("maxSetpointToWireUs", robot.getMaxSetpointToWireUs());
+        json.addProperty("protocol", robot.getFormat().name().toLowerCase(Locale.US));
+        json.add("safety", safetyJson(robot));
+        if (robot.getFormat() == RobotProtocol.Format.BINARY) {
+            json.add("link", robot.getLinkStats().toJson());
+        }
+        return json;
+    }
+    
+    /**
+     * Handle /api/robots - GET lists the fleet; POST {name, ip, port?, rateHz?, protocol?, groups?}
+     * adds or updates a robot; DELETE ?name= removes one (the default robot stays).
+     */
+    private Response handleRobots(IHTTPSession session, Method method) {
+        if (robotFleet == null) {
+            return createJsonResponse(Response.Status.INTERNAL_ERROR,
+                    createErrorJson("Robot fleet not initialized"));
+        }
+        try {
+            if (method == Method.POST) {
+                JsonObject request = JsonParser.parseString(getRequestBody(session)).getAsJsonObject();
+                if (!request.has("name") || !request.has("ip")) {
+                    return createJsonResponse(Response.Status.BAD_REQUEST,
+                            createErrorJson("Missing 'name' or 'ip' parameter"));
+                }
+                String name = request.get("name").getAsString();
+                String ip = request.get("ip").getAsString();
+                if (name.isEmpty() || RobotFleet.ALL.equals(name) || !isValidIpAddress(ip)) {
+                    return createJsonResponse(Response.Status.BAD_REQUEST,
+                            createErrorJson("Invalid robot name or IP address"));
+                }
+                int port = request.has("port") ? request.get("port").getAsInt() : RobotEndpoint.DEFAULT_PORT;
+                RobotEndpoint robot = robotFleet.add(name, ip, port);
+                if (request.has("rateHz")) {
+                    robot.setRateHz(request.get("rateHz").getAsInt());
+                }
+                if (request.has("protocol")) {
+                    robot.setFormat(RobotProtocol.Format.valueOf(
+                            request.get("protocol").getAsString().toUpperCase(Locale.US)));
+                }
+                if (request.has("groups")) {
+                    List<String> groups = new ArrayList<>();
+                    for (JsonElement g : request.getAsJsonArray("groups")) {
+                        groups.add(g.getAsString());
+                    }
+                    robot.setGroups(groups);
+                }
+                if (RobotFleet.DEFAULT_ROBOT.equals(name)) {
+                    robotIp = ip;
+                }
+            } else if (method == Method.DELETE) {
+                String name = getQueryParam(session, "name");
+                if (name == null || RobotFleet.DEFAULT_ROBOT.equals(name)) {
+                    return createJsonResponse(Response.Status.BAD_REQUEST,
+                            createErrorJson("Cannot remove robot: " + name));
+                }
+                if (!robotFleet.remove(name)) {
+                    return createJsonResponse(Response.Status.NOT_FOUND, createErrorJson("Robot not found: " + name));
+                }
+            }
+            
+            JsonObject response = new JsonObject();
+            response.addProperty("success", true);
+            JsonArray robots = new JsonArray();
+            for (RobotEndpoint robot : robotFleet.getAll()) {
+                robots.add(robotJson(robot));
+            }
+            response.add("robots", robots);
+            response.addProperty("unknownPackets", robotFleet.getUnknownPackets());
+            return createJsonResponse(Response.Status.OK, response.toString());
+        } catch (Exception e) {
+            return createJsonResponse(Response.Status.BAD_REQUEST,
+                    createErrorJson("Robot registry request failed: " + e.getMessage()));
+        }
+    }
+    
     /**
      * Handle GET /api/robot/ip
      */
@@ -533,6 +1056,9 @@ public class SimpleHttpServer extends NanoHTTPD {
                 String newIp = request.get("ip").getAsString();
                 if (isValidIpAddress(newIp)) {
                     robotIp = newIp;
+                    if (robotFleet != null) {
+                        robotFleet.add(RobotFleet.DEFAULT_ROBOT, newIp, RobotEndpoint.DEFAULT_PORT);
+                    }
                     Log.i(TAG, "Robot IP set to: " + robotIp);
                     
                     JsonObject response = new JsonObject();
@@ -554,18 +1080,77 @@ public class SimpleHttpServer extends NanoHTTPD {
     }
     
     /**
-     * Handle GET /api/robot/test
+     * Handle GET /api/robot/test?mode=robot|loopback&name=&durationMs=&dropRate=
+     * robot (default) measures the live link of the named robot for durationMs; this needs the binary
+     * protocol since ASCII commands are never acknowledged. loopback runs a short
+     * binary session against a local ESP32 stand-in, without touching the robot.
      */
-    private Response handleRobotTest() {
+    private Response handleRobotTest(IHTTPSession session) {
         try {
-            // Test if we can reach the robot (basic connectivity check)
+            String mode = getQueryParam(session, "mode");
+            String durationParam = getQueryParam(session, "durationMs");
+            long durationMs = durationParam != null
+                    ? Math.max(100, Math.min(5000, Long.parseLong(durationParam))) : 1000;
+            
             JsonObject response = new JsonObject();
             response.addProperty("success", true);
-            response.addProperty("robotIp", robotIp);
-            response.addProperty("udpPort", 4210);
-            response.addProperty("message", "Robot IP configured (UDP test not implemented yet)");
+            response.addProperty("durationMs", durationMs);
+            
+            if ("loopback".equals(mode)) {
+                String dropParam = getQueryParam(session, "dropRate");
+                LoopbackRobot robot = new LoopbackRobot(0);
+                robot.setAckDropRate(dropParam != null ? Double.parseDouble(dropParam) : 0);
+                robot.start();
+                // A private fleet so the test never touches the real robots
+                RobotFleet fleet = new RobotFleet();
+                fleet.start();
+                RobotEndpoint endpoint = fleet.add("loopback", "127.0.0.1", robot.getPort());
+                endpoint.setRateHz(100);
+                endpoint.setFormat(RobotProtocol.Format.BINARY);
+                try {
+                    // Alternate setpoints so both periodic and immediate sends are exercised
+                    long end = System.currentTimeMillis() + durationMs;
+                    for (int i = 0; System.currentTimeMillis() < end; i++) {
+                        endpoint.setSetpoint(0, (i % 2) * 128, 0, 0);
+                        Thread.sleep(50);
+                    }
+                } finally {
+                    fleet.shutdown();
+                    robot.shutdown();
+                }
+                response.addProperty("mode", "loopback");
+                response.addProperty("commandsReceived", robot.getCommandsReceived());
+                response.addProperty("acksDropped", robot.getAcksDropped());
+                response.add("link", endpoint.getLinkStats().toJson());
+                Log.i(TAG, "Robot loopback test - acked " + endpoint.getLinkStats().getAcked()
+                        + "/" + endpoint.getLinkStats().getSent());
+                return createJsonResponse(Response.Status.OK, response.toString());
+            }
             
-            Log.i(TAG, "Robot test - IP: " + robotIp + ", Port: 4210");
+            RobotEndpoint target = findRobot(session);
+            if (target == null) {
+                return createJsonResponse(Response.Status.NOT_FOUND, createErrorJson("Robot not found"));
+            }
+            response.addProperty("mode", "robot");
+            response.addProperty("name", target.getName());
+            response.addProperty("robotIp", target.getHost());
+            response.addProperty("udpPort", target.getPort());
+            if (target.getFormat() != RobotProtocol.Format.BINARY) {
+                response.addProperty("reachable", false);
+                response.addProperty("message", "ASCII protocol has no acknowledgements, switch to binary to test the link");
+                return createJsonResponse(Response.Status.OK, response.toString());
+            }
+            
+            RobotLinkStats stats = target.getLinkStats();
+            long ackedBefore = stats.getAcked();
+            long sentBefore = stats.getSent();
+            Thread.sleep(durationMs);
+            long acked = stats.getAcked() - ackedBefore;
+            response.addProperty("reachable", acked > 0);
+            response.addProperty("sent", stats.getSent() - sentBefore);
+            response.addProperty("acked", acked);
+            response.add("link", stats.toJson());
+            Log.i(TAG, "Robot test - " + target.getName() + " at " + target.getHost() + ", acked " + acked);
             return createJsonResponse(Response.Status.OK, response.toString());
             
         } catch (Exception e) {
@@ -574,6 +1159,35 @@ public class SimpleHttpServer extends NanoHTTPD {
         }
     }
     
+    /**
+     * Handle GET/POST /api/robot/protocol?name= - Get or set a robot's link format ("ascii" or "binary")
+     */
+    private Response handleRobotProtocol(IHTTPSession session, Method method) {
+        RobotEndpoint robot = findRobot(session);
+        if (robot == null) {
+            return createJsonResponse(Response.Status.NOT_FOUND, createErrorJson("Robot not found"));
+        }
+        if (method == Method.POST) {
+            try {
+                JsonObject request = JsonParser.parseString(getRequestBody(session)).getAsJsonObject();
+                if (!request.has("protocol")) {
+                    return createJsonResponse(Response.Status.BAD_REQUEST,
+                            createErrorJson("Missing 'protocol' parameter"));
+                }
+                String protocol = request.get("protocol").getAsString();
+                robot.setFormat(RobotProtocol.Format.valueOf(protocol.toUpperCase(Locale.US)));
+            } catch (Exception e) {
+                return createJsonResponse(Response.Status.BAD_REQUEST,
+                        createErrorJson("Invalid protocol, expected 'ascii' or 'binary'"));
+            }
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("success", true);
+        response.addProperty("name", robot.getName());
+        response.addProperty("protocol", robot.getFormat().name().toLowerCase(Locale.US));
+        return createJsonResponse(Response.Status.OK, response.toString());
+    }
+    
     // ============================================
     // Script API Handlers
     // ============================================
@@ -614,7 +1228,8 @@ public class SimpleHttpServer extends NanoHTTPD {
     }
     
     /**
-     * Handle POST /api/script/run - Execute script using Rhino JS engine
+     * Handle POST /api/script/run - Execute script using Rhino JS engine.
+     * Optional body fields: name (default "main"), priority (1-10) and maxInstructionsPerSecond.
      */
     private Response handleScriptRun(IHTTPSession session) {
         if (scriptExecutor == null) {
@@ -622,11 +1237,6 @@ public class SimpleHttpServer extends NanoHTTPD {
                     createErrorJson("Script executor not initialized"));
         }
         
-        if (scriptExecutor.isRunning()) {
-            return createJsonResponse(Response.Status.BAD_REQUEST,
-                    createErrorJson("Script is already running"));
-        }
-        
         try {
             String body = getRequestBody(session);
             JsonObject json = JsonParser.parseString(body).getAsJsonObject();
@@ -637,12 +1247,24 @@ public class SimpleHttpServer extends NanoHTTPD {
                         createErrorJson("No script provided"));
             }
             
+            String name = json.has("name") ? json.get("name").getAsString() : RhinoScriptExecutor.DEFAULT_TASK;
+            int priority = json.has("priority") ? json.get("priority").getAsInt() : RhinoScriptExecutor.DEFAULT_PRIORITY;
+            // Optional CPU quota in interpreted instructions per second (0 = unlimited)
+            long maxInstructionsPerSecond = json.has("maxInstructionsPerSecond")
+                    ? json.get("maxInstructionsPerSecond").getAsLong() : 0;
+            
             // Execute using Rhino
-            scriptExecutor.execute(script);
+            ScriptTask task = scriptExecutor.execute(name, script, priority, maxInstructionsPerSecond);
+            requestStatePublish();
             
             JsonObject response = new JsonObject();
             response.addProperty("success", true);
             response.addProperty("message", "Script started (Rhino JS)");
+            response.addProperty("name", task.getName());
+            response.addProperty("priority", task.getPriority());
+            response.addProperty("compileMs", task.getCompileMs());
+            response.addProperty("cacheHit", task.isCacheHit());
+            response.addProperty("startLatencyMs", task.getStartLatencyMs());
             return createJsonResponse(Response.Status.OK, response.toString());
             
         } catch (Exception e) {
@@ -652,9 +1274,9 @@ public class SimpleHttpServer extends NanoHTTPD {
     }
     
     /**
-     * Handle POST /api/script/stop - Stop running script
+     * Handle POST /api/script/stop - Stop the script given by ?name=, or all scripts
      */
-    private Response handleScriptStop() {
+    private Response handleScriptStop(IHTTPSession session) {
         if (scriptExecutor == null || !scriptExecutor.isRunning()) {
             JsonObject response = new JsonObject();
             response.addProperty("success", true);
@@ -662,36 +1284,136 @@ public class SimpleHttpServer extends NanoHTTPD {
             return createJsonResponse(Response.Status.OK, response.toString());
         }
         
-        scriptExecutor.stop();
-        
+        String name = getQueryParam(session, "name");
         JsonObject response = new JsonObject();
         response.addProperty("success", true);
-        response.addProperty("message", "Script stopped");
+        if (name == null) {
+            scriptExecutor.stop();
+            response.addProperty("message", "All scripts stopped");
+        } else if (scriptExecutor.stop(name)) {
+            response.addProperty("message", "Script '" + name + "' stopped");
+        } else {
+            response.addProperty("message", "Script '" + name + "' is not running");
+        }
+        requestStatePublish();
         return createJsonResponse(Response.Status.OK, response.toString());
     }
     
     /**
-     * Handle GET /api/script/status - Get script execution status
+     * Handle GET /api/script/status - Get execution status and log of the task given
+     * by ?name= (default "main"). With ?since=<seq> only log lines from that sequence
+     * number on are returned; pass the returned nextSeq on the next poll.
      */
-    private Response handleScriptStatus() {
+    private Response handleScriptStatus(IHTTPSession session) {
         JsonObject response = new JsonObject();
         response.addProperty("success", true);
         
-        if (scriptExecutor != null) {
-            response.addProperty("running", scriptExecutor.isRunning());
-            response.addProperty("output", scriptExecutor.getOutput());
-            String error = scriptExecutor.getLastError();
-            if (error != null) {
-                response.addProperty("error", error);
-            }
-        } else {
+        String name = getQueryParam(session, "name");
+        ScriptTask task = scriptExecutor != null
+                ? scriptExecutor.getTask(name != null ? name : RhinoScriptExecutor.DEFAULT_TASK) : null;
+        if (task == null) {
             response.addProperty("running", false);
             response.addProperty("output", "");
+            return createJsonResponse(Response.Status.OK, response.toString());
+        }
+        
+        long since = 0;
+        String sinceParam = getQueryParam(session, "since");
+        if (sinceParam != null) {
+            try {
+                since = Math.max(0, Long.parseLong(sinceParam));
+            } catch (NumberFormatException e) {
+                return createJsonResponse(Response.Status.BAD_REQUEST,
+                        createErrorJson("Invalid since: " + sinceParam));
+            }
         }
         
+        ScriptLog log = task.getLog();
+        StringBuilder output = new StringBuilder();
+        long firstSeq = log.getFirstSeq();
+        // A cursor past the end means the log was recreated since the last poll
+        boolean restarted = since > log.getNextSeq();
+        long nextSeq = log.appendSince(restarted ? 0 : since, output);
+        
+        addTaskStatus(response, task);
+        response.addProperty("output", output.toString());
+        response.addProperty("nextSeq", nextSeq);
+        // Lines between since and firstSeq were dropped from the ring before this poll
+        response.addProperty("truncated", restarted || (since > 0 && since < firstSeq));
+        response.addProperty("motorOwner", scriptExecutor.getMotorOwner());
+        
         return createJsonResponse(Response.Status.OK, response.toString());
     }
     
+    /**
+     * Handle GET /api/script/tasks - Status of every running or recently finished script
+     */
+    private Response handleScriptTasks() {
+        JsonObject response = new JsonObject();
+        response.addProperty("success", true);
+        
+        JsonArray tasks = new JsonArray();
+        if (scriptExecutor != null) {
+            for (ScriptTask task : scriptExecutor.getTasks()) {
+                JsonObject t = new JsonObject();
+                addTaskStatus(t, task);
+                t.addProperty("nextSeq", task.getLog().getNextSeq());
+                tasks.add(t);
+            }
+            response.addProperty("motorOwner", scriptExecutor.getMotorOwner());
+            JsonObject owners = new JsonObject();
+            for (Map.Entry<String, String> e : scriptExecutor.getMotorOwners().entrySet()) {
+                owners.addProperty(e.getKey(), e.getValue());
+            }
+            response.add("motorOwners", owners);
+            response.addProperty("motorCommandsDenied", scriptExecutor.getMotorCommandsDenied());
+            response.addProperty("messagesPublished", scriptExecutor.getMessagesPublished());
+        }
+        response.addProperty("maxTasks", RhinoScriptExecutor.MAX_TASKS);
+        response.add("tasks", tasks);
+        return createJsonResponse(Response.Status.OK, response.toString());
+    }
+    
+    private void addTaskStatus(JsonObject json, ScriptTask task) {
+        json.addProperty("name", task.getName());
+        json.addProperty("priority", task.getPriority());
+        json.addProperty("running", task.isRunning());
+        json.addProperty("compileMs", task.getCompileMs());
+        json.addProperty("cacheHit", task.isCacheHit());
+        json.addProperty("startLatencyMs", task.getStartLatencyMs());
+        json.addProperty("firstCommandLatencyMs", task.getFirstCommandLatencyMs());
+        json.addProperty("motorCommandsDenied", task.getMotorCommandsDenied());
+        ScriptContextFactory.Budget budget = task.getBudget();
+        json.addProperty("instructionCount", budget.getInstructionCount());
+        json.addProperty("instructionsPerSecond", budget.getInstructionsPerSecond());
+        json.addProperty("maxInstructionsPerSecond", budget.getMaxInstructionsPerSecond());
+        json.addProperty("throttleEvents", budget.getThrottleEvents());
+        json.addProperty("throttledMs", budget.getThrottledMs());
+        String error = task.getLastError();
+        if (error != null) {
+            json.addProperty("error", error);
+        }
+    }
+    
+    /**
+     * First value of a query parameter, or null if absent or empty.
+     */
+    private String getQueryParam(IHTTPSession session, String name) {
+        List<String> values = session.getParameters().get(name);
+        if (values == null || values.isEmpty() || values.get(0).isEmpty()) {
+            return null;
+        }
+        return values.get(0);
+    }
+    
+    /**
+     * Integer query parameter, or 0 if absent.
+     */
+    private int getIntQueryParam(IHTTPSession session, String name) {
+        String value = getQueryParam(session, name);
+        return value != null ? Integer.parseInt(value.trim()) : 0;
+    }
+    
     /**
      * Validate IP address format
      */
@@ -711,20 +1433,187 @@ public class SimpleHttpServer extends NanoHTTPD {
     }
     
     /**
-     * Broadcast a robot command to WebSocket clients.
+     * Publish a robot command to "robot_command" subscribers and refresh the status topic.
      */
     private void broadcastRobotCommand(String command, String param, float value) {
-        if (webSocketServer != null) {
+        SimpleWebSocketServer ws = webSocketServer;
+        if (ws != null && ws.hasSubscribers(SimpleWebSocketServer.TOPIC_ROBOT_COMMAND)) {
             JsonObject msg = new JsonObject();
             msg.addProperty("type", "robot_command");
             msg.addProperty("command", command);
             msg.addProperty("param", param);
             msg.addProperty("value", value);
             msg.addProperty("timestamp", System.currentTimeMillis());
-            webSocketServer.broadcast(msg.toString());
+            ws.publish(SimpleWebSocketServer.TOPIC_ROBOT_COMMAND, msg.toString());
+        }
+        requestStatePublish();
+    }
+    
+    /**
+     * Publish state topics now rather than at the next STATE_PUBLISH_MS tick.
+     */
+    private void requestStatePublish() {
+        synchronized (publishLock) {
+            publishRequested = true;
+            publishLock.notify();
+        }
+    }
+    
+    private void startStatePublisher() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long lastMetrics = 0;
+                while (statePublisher == Thread.currentThread()) {
+                    synchronized (publishLock) {
+                        if (!publishRequested) {
+                            try {
+                                publishLock.wait(STATE_PUBLISH_MS);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                        publishRequested = false;
+                    }
+                    try {
+                        long now = System.currentTimeMillis();
+                        boolean metrics = now - lastMetrics >= METRICS_PUBLISH_MS;
+                        publishState(metrics);
+                        if (metrics) {
+                            lastMetrics = now;
+                        }
+                    } catch (Exception e) {
+                        Log.e(TAG, "State publish failed: " + e.getMessage());
+                    }
+                }
+            }
+        }, "StatePublisher");
+        thread.setDaemon(true);
+        statePublisher = thread;
+        thread.start();
+    }
+    
+    private void stopStatePublisher() {
+        Thread thread = statePublisher;
+        statePublisher = null;
+        if (thread != null) {
+            thread.interrupt();
         }
     }
     
+    /**
+     * Build and publish each state topic that has subscribers. Unchanged fields are
+     * filtered out per client by the WebSocket server.
+     */
+    private void publishState(boolean includeMetrics) {
+        SimpleWebSocketServer ws = webSocketServer;
+        if (ws == null) return;
+        if (ws.hasSubscribers(SimpleWebSocketServer.TOPIC_STATUS)) {
+            ws.publishState(SimpleWebSocketServer.TOPIC_STATUS, statusState());
+        }
+        if (ws.hasSubscribers(SimpleWebSocketServer.TOPIC_SCRIPTS)) {
+            ws.publishState(SimpleWebSocketServer.TOPIC_SCRIPTS, scriptsState());
+        }
+        if (includeMetrics && ws.hasSubscribers(SimpleWebSocketServer.TOPIC_METRICS)) {
+            ws.publishState(SimpleWebSocketServer.TOPIC_METRICS, metricsState(ws));
+        }
+    }
+    
+    private JsonObject statusState() {
+        RobotStatus status = robotCallback != null ? robotCallback.getRobotStatus() : new RobotStatus();
+        JsonObject json = new JsonObject();
+        json.addProperty("isMoving", status.isMoving);
+        json.addProperty("lastCommand", status.lastCommand);
+        json.addProperty("cameraFacing", status.cameraFacing);
+        JsonObject robots = new JsonObject();
+        if (robotFleet != null) {
+            for (RobotEndpoint robot : robotFleet.getAll()) {
+                JsonObject r = new JsonObject();
+                r.addProperty("x", robot.getX());
+                r.addProperty("y", robot.getY());
+                r.addProperty("r", robot.getR());
+                r.addProperty("e", robot.getE());
+                r.addProperty("protocol", robot.getFormat().name().toLowerCase(Locale.US));
+                TrajectoryPlayer.Playback playback = robot.getPlayback();
+                r.addProperty("playing", playback != null && playback.isPlaying());
+                // Only event-driven fields here, so an idle robot produces no deltas
+                JsonObject safety = robot.getStopStats().toJson();
+                safety.addProperty("deadmanMs", robot.getDeadmanMs());
+                r.add("safety", safety);
+                robots.add(robot.getName(), r);
+            }
+        }
+        json.add("robots", robots);
+        if (scriptExecutor != null) {
+            json.addProperty("motorOwner", scriptExecutor.getMotorOwner());
+        }
+        return json;
+    }
+    
+    private JsonObject scriptsState() {
+        JsonObject json = new JsonObject();
+        JsonObject tasks = new JsonObject();
+        boolean running = false;
+        if (scriptExecutor != null) {
+            for (ScriptTask task : scriptExecutor.getTasks()) {
+                JsonObject t = new JsonObject();
+                t.addProperty("priority", task.getPriority());
+                t.addProperty("running", task.isRunning());
+                t.addProperty("nextSeq", task.getLog().getNextSeq());
+                t.addProperty("motorCommandsDenied", task.getMotorCommandsDenied());
+                String error = task.getLastError();
+                if (error != null) {
+                    t.addProperty("error", error);
+                }
+                tasks.add(task.getName(), t);
+                running |= task.isRunning();
+            }
+            JsonObject owners = new JsonObject();
+            for (Map.Entry<String, String> e : scriptExecutor.getMotorOwners().entrySet()) {
+                owners.addProperty(e.getKey(), e.getValue());
+            }
+            json.add("motorOwners", owners);
+        }
+        json.addProperty("running", running);
+        json.add("tasks", tasks);
+        return json;
+    }
+    
+    private JsonObject metricsState(SimpleWebSocketServer ws) {
+        JsonObject json = new JsonObject();
+        JsonObject robots = new JsonObject();
+        if (robotFleet != null) {
+            for (RobotEndpoint robot : robotFleet.getAll()) {
+                robots.add(robot.getName(), robotJson(robot));
+            }
+        }
+        json.add("robots", robots);
+        json.add("teleop", ws.getTeleop().toJson());
+        JsonObject detections = new JsonObject();
+        detections.addProperty("published", detectionBus.getPublishedCount());
+        for (DetectionBus.Subscriber s : detectionBus.getSubscribers()) {
+            JsonObject sub = new JsonObject();
+            sub.addProperty("delivered", s.getDelivered());
+            sub.addProperty("dropped", s.getDropped());
+            sub.addProperty("latencyMs", s.getLastLatencyMs());
+            detections.add(s.getName(), sub);
+        }
+        json.add("detectionBus", detections);
+        if (videoStreamServer != null) {
+            json.add("video", videoStreamServer.getStats());
+        }
+        JsonObject websocket = new JsonObject();
+        websocket.addProperty("clients", ws.getClientCount());
+        websocket.addProperty("messagesSent", ws.getMessagesSent());
+        websocket.addProperty("stateUpdatesSkipped", ws.getStateUpdatesSkipped());
+        websocket.addProperty("slowClientsClosed", ws.getSlowClientsClosed());
+        websocket.add("frames", ws.getFrameStats());
+        websocket.addProperty("detectionFramesRateLimited", ws.getDetectionFramesRateLimited());
+        websocket.add("detectionCodec", ws.getDetectionCodecStats());
+        json.add("websocket", websocket);
+        return json;
+    }
+    
     /**
      * Serve static files from assets/web directory.
      */
@@ -824,35 +1713,54 @@ public class SimpleHttpServer extends NanoHTTPD {
     }
 
     /**
-     * Push detection JSON into the scripting environment (if active).
+     * Get the detection bus so other components can subscribe to frames.
      */
-    public void pushDetections(String detectionsJson) {
-        if (detectionsJson == null) detectionsJson = "[]";
-        if (this.scriptExecutor != null) {
-            this.scriptExecutor.pushDetections(detectionsJson);
-        }
-        // Optionally broadcast detections to websocket clients for debugging
-        if (this.webSocketServer != null) {
-            try {
-                // Simple wrapper message
-                com.google.gson.JsonObject msg = new com.google.gson.JsonObject();
-                msg.addProperty("type", "detections");
-                msg.addProperty("timestamp", System.currentTimeMillis());
-                msg.addProperty("detections", detectionsJson);
-                this.webSocketServer.broadcast(msg.toString());
-            } catch (Exception e) {
-                Log.w(TAG, "Failed to broadcast detections: " + e.getMessage());
+    public DetectionBus getDetectionBus() {
+        return detectionBus;
+    }
+
+    /**
+     * Publish a detection frame from the camera thread. Never blocks on consumers.
+     */
+    public void pushDetections(DetectionFrame frame) {
+        if (frame == null) return;
+        detectionBus.publish(frame);
+    }
+    
+    /**
+     * Subscribe the built-in consumers (scripts and WebSocket) to the detection bus.
+     */
+    private void startDetectionConsumers() {
+        detectionBus.subscribe("scripts", new DetectionBus.Listener() {
+            @Override
+            public void onDetections(DetectionFrame frame) {
+                if (scriptExecutor != null) {
+                    scriptExecutor.pushDetections(frame);
+                }
             }
-        }
+        });
+        
+        // JSON or binary is only built for "detections" subscribers, once per distinct filter
+        detectionBus.subscribe("websocket", new DetectionBus.Listener() {
+            @Override
+            public void onDetections(DetectionFrame frame) {
+                synchronized (latestDetections) {
+                    latestDetections.copyFrom(frame);
+                }
+                SimpleWebSocketServer ws = webSocketServer;
+                if (ws == null || !ws.hasSubscribers(SimpleWebSocketServer.TOPIC_DETECTIONS)) return;
+                ws.publishDetections(frame);
+            }
+        });
     }
     
     /**
      * MJPEG stream response - streams video frames as Motion JPEG over HTTP.
      */
     private static class MjpegResponse extends Response {
-        public MjpegResponse(VideoStreamServer videoServer) {
+        public MjpegResponse(AdaptiveViewer viewer) {
             super(Status.OK, "multipart/x-mixed-replace; boundary=boundary123", 
-                    new MjpegInputStream(videoServer), -1);
+                    new MjpegInputStream(viewer), -1);
             addHeader("Connection", "keep-alive");
             addHeader("Cache-Control", "no-cache");
             addHeader("Pragma", "no-cache");
@@ -860,103 +1768,85 @@ public class SimpleHttpServer extends NanoHTTPD {
     }
     
     /**
-     * Simple input stream for MJPEG video data.
+     * Input stream for one MJPEG viewer: each part is the newest frame the viewer
+     * has not sent yet. NanoHTTPD blocks in read() while the client drains the
+     * socket, which is how the viewer measures its link. NanoHTTPD closes the
+     * stream when the client goes away, which removes the viewer from the hub.
      */
     private static class MjpegInputStream extends java.io.InputStream {
-        private VideoStreamServer videoServer;
-        private java.io.ByteArrayInputStream currentFrameStream;
-        private static final byte[] BOUNDARY_FIRST = "--boundary123\r\n".getBytes();
-        private static final byte[] BOUNDARY_NEXT = "\r\n--boundary123\r\n".getBytes();
-        private static final byte[] CONTENT_TYPE = "Content-Type: image/jpeg\r\n".getBytes();
-        private static final byte[] CONTENT_LENGTH_PREFIX = "Content-Length: ".getBytes();
-        private static final byte[] CRLF = "\r\n".getBytes();
-        private static final byte[] DOUBLE_CRLF = "\r\n\r\n".getBytes();
-        
-        private int state = 0; // 0=boundary, 1=content-type, 2=content-length, 3=data
-        private byte[] currentFrame;
-        private byte[] contentLengthBytes;
-        private int dataIndex = 0;
+        private static final long FRAME_WAIT_MS = 500;
+        
+        private final AdaptiveViewer viewer;
+        // Part header of the current frame, then the frame itself
+        private byte[] header;
+        private java.nio.ByteBuffer currentFrame;
+        private int headerIndex = 0;
         private boolean firstFrame = true;
-        private int frameCount = 0;
+        private volatile boolean closed = false;
         
-        public MjpegInputStream(VideoStreamServer videoServer) {
-            this.videoServer = videoServer;
-            this.currentFrame = null;
-            Log.i(TAG, "MjpegInputStream created, waiting for frames...");
+        public MjpegInputStream(AdaptiveViewer viewer) {
+            this.viewer = viewer;
+            Log.i(TAG, "MjpegInputStream created for " + viewer.getName() + ", waiting for frames...");
         }
         
         @Override
         public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!nextFrameIfDone()) return -1;
+            if (headerIndex < header.length) {
+                int n = Math.min(len, header.length - headerIndex);
+                System.arraycopy(header, headerIndex, b, off, n);
+                headerIndex += n;
+                return n;
+            }
+            int n = Math.min(len, currentFrame.remaining());
+            currentFrame.get(b, off, n);
+            return n;
+        }
+        
+        /**
+         * Move on to the next frame once the current one is fully read; false once closed.
+         */
+        private boolean nextFrameIfDone() throws IOException {
+            if (currentFrame != null && currentFrame.hasRemaining()) return true;
             try {
-                while (true) {
-                    switch (state) {
-                        case 0: // Send boundary
-                            if (currentFrame == null) {
-                                currentFrame = videoServer.getNextFrame(500);
-                                if (currentFrame == null) {
-                                    if (frameCount == 0) {
-                                        Log.w(TAG, "Waiting for first frame... (queue size: " + videoServer.getQueueSize() + ")");
-                                    }
-                                    Thread.sleep(100);
-                                    continue;
-                                }
-                                frameCount++;
-                                if (frameCount <= 3 || frameCount % 30 == 0) {
-                                    Log.i(TAG, "Streaming frame #" + frameCount + " (size: " + currentFrame.length + " bytes)");
-                                }
-                                dataIndex = 0;
-                            }
-                            
-                            byte[] boundary = firstFrame ? BOUNDARY_FIRST : BOUNDARY_NEXT;
-                            if (dataIndex < boundary.length) {
-                                return boundary[dataIndex++] & 0xFF;
-                            }
-                            firstFrame = false;
-                            dataIndex = 0;
-                            state = 1;
-                            break;
-                            
-                        case 1: // Send Content-Type header
-                            if (dataIndex < CONTENT_TYPE.length) {
-                                return CONTENT_TYPE[dataIndex++] & 0xFF;
-                            }
-                            dataIndex = 0;
-                            state = 2;
-                            break;
-                            
-                        case 2: // Send Content-Length header
-                            if (contentLengthBytes == null) {
-                                String lengthStr = String.valueOf(currentFrame.length);
-                                contentLengthBytes = lengthStr.getBytes();
-                            }
-                            
-                            if (dataIndex < CONTENT_LENGTH_PREFIX.length) {
-                                return CONTENT_LENGTH_PREFIX[dataIndex++] & 0xFF;
-                            } else if (dataIndex < CONTENT_LENGTH_PREFIX.length + contentLengthBytes.length) {
-                                return contentLengthBytes[dataIndex++ - CONTENT_LENGTH_PREFIX.length] & 0xFF;
-                            } else if (dataIndex < CONTENT_LENGTH_PREFIX.length + contentLengthBytes.length + DOUBLE_CRLF.length) {
-                                return DOUBLE_CRLF[dataIndex++ - CONTENT_LENGTH_PREFIX.length - contentLengthBytes.length] & 0xFF;
-                            }
-                            dataIndex = 0;
-                            state = 3;
-                            break;
-                            
-                        case 3: // Send JPEG data
-                            if (dataIndex < currentFrame.length) {
-                                return currentFrame[dataIndex++] & 0xFF;
-                            }
-                            // Reset for next frame
-                            dataIndex = 0;
-                            state = 0;
-                            currentFrame = null;
-                            contentLengthBytes = null;
-                            break;
+                FrameHub.Frame frame = null;
+                while (frame == null) {
+                    if (closed) return false;
+                    frame = viewer.next(FRAME_WAIT_MS);
+                    if (frame == null && viewer.getDelivered() == 0) {
+                        Log.w(TAG, "Waiting for first frame for " + viewer.getName());
                     }
                 }
+                // Read in place; the viewer holds the frame until it asks for the next one
+                currentFrame = frame.data();
+                long count = viewer.getDelivered();
+                if (count <= 3 || count % 30 == 0) {
+                    Log.i(TAG, "Streaming frame #" + count + " to " + viewer.getName()
+                            + " (size: " + currentFrame.remaining() + " bytes, skipped: " + viewer.getSkipped() + ")");
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 throw new IOException("Stream interrupted");
             }
+            header = ((firstFrame ? "--boundary123\r\n" : "\r\n--boundary123\r\n")
+                    + "Content-Type: image/jpeg\r\n"
+                    + "Content-Length: " + currentFrame.remaining() + "\r\n\r\n").getBytes();
+            firstFrame = false;
+            headerIndex = 0;
+            return true;
+        }
+        
+        @Override
+        public void close() {
+            closed = true;
+            viewer.close();
         }
     }
 }
\ No newline at end of file
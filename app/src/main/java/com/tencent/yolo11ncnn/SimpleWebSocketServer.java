@@ -1,40 +1,134 @@
 /**
  * SimpleWebSocketServer.java
- * 
- * Minimal WebSocket server using Java-WebSocket for basic message testing.
+ *
+ * WebSocket server using Java-WebSocket. Clients subscribe to topics and only
+ * receive what they asked for:
+ *   {"type": "subscribe", "topics": ["status", "script_log", ...]}
+ *   {"type": "unsubscribe", "topics": [...]}
+ * A detections subscription may carry a "filter" (see DetectionFilter) so the
+ * client only gets the labels, scores, region and rate it asked for, and a
+ * "format": "binary" to get DetectionCodec frames (mostly deltas) instead of JSON.
+ * Event topics (script_log, detections, robot_command, broadcast) forward each
+ * message as-is. State topics (status, scripts, metrics) send
+ *   {"type": "state", "topic": t, "full": bool, "data": {...}}
+ * where data holds only the fields that changed since the client's last update
+ * (nested objects recursively, null for a removed field).
+ * Other text messages are echoed back only to clients subscribed to "echo"
+ * and relayed only to other clients subscribed to "broadcast".
+ *
+ * Every client has a bounded OutboundQueue (see WebSocketSession): detections
+ * and state are latest-wins, logs and other events drop the oldest, replies
+ * and teleop acks are never dropped. A sender thread keeps writing to clients
+ * that fell behind and disconnects those that stay behind too long.
+ *
+ * Published events are encoded and framed once (PreparedMessage) and the same
+ * frame is written to every subscriber. Clients that offer permessage-deflate
+ * get large event payloads compressed, also once per message.
+ *
+ * The text messages "estop" and "heartbeat" are handled before anything else:
+ * the first emergency-stops every robot, the second feeds their dead-man watchdogs.
+ * Binary messages are TeleopChannel joystick frames; "teleop:<name>" picks the
+ * robot they drive.
  */
 package com.tencent.yolo11ncnn;
 
 import android.util.Log;
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class SimpleWebSocketServer extends WebSocketServer {
     private static final String TAG = "SimpleWebSocketServer";
-    
+
+    // Event topics
+    public static final String TOPIC_SCRIPT_LOG = "script_log";
+    public static final String TOPIC_DETECTIONS = "detections";
+    public static final String TOPIC_ROBOT_COMMAND = "robot_command";
+    public static final String TOPIC_BROADCAST = "broadcast";
+    public static final String TOPIC_ECHO = "echo";
+    // State topics, sent as deltas
+    public static final String TOPIC_STATUS = "status";
+    public static final String TOPIC_SCRIPTS = "scripts";
+    public static final String TOPIC_METRICS = "metrics";
+
     // Thread-safe set of connected clients
     private final Set<WebSocket> clients = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    
+    // Latest state per state topic, so a new subscriber gets it right away
+    private final Map<String, JsonObject> stateCache = new ConcurrentHashMap<>();
+
+    // Fast-path robot safety commands
+    public static final String MSG_ESTOP = "estop";
+    public static final String MSG_HEARTBEAT = "heartbeat";
+    private volatile RobotFleet robotFleet;
+    private final TeleopChannel teleop = new TeleopChannel();
+
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong stateUpdatesSkipped = new AtomicLong();
+    private final AtomicLong slowClientsClosed = new AtomicLong();
+    private final AtomicLong messagesPrepared = new AtomicLong();
+    private final AtomicLong sharedFramesWritten = new AtomicLong();
+    private final AtomicLong messagesDeflated = new AtomicLong();
+    private final AtomicLong deflateBytesIn = new AtomicLong();
+    private final AtomicLong deflateBytesOut = new AtomicLong();
+    private final AtomicLong wireBytesSaved = new AtomicLong();
+    private final AtomicLong detectionFramesRateLimited = new AtomicLong();
+    private final AtomicLong detectionKeyFramesSent = new AtomicLong();
+    private final AtomicLong detectionDeltaFramesSent = new AtomicLong();
+    private final DetectionCodec detectionCodec = new DetectionCodec(this);
+
+    // Retry interval for clients with a backlog
+    private static final long SENDER_RETRY_NS = TimeUnit.MILLISECONDS.toNanos(10);
+    private volatile Thread senderThread;
+
     public SimpleWebSocketServer(int port) {
-        super(new InetSocketAddress(port));
+        this(port, true);
+    }
+
+    /**
+     * @param deflate offer permessage-deflate to clients that ask for it
+     */
+    public SimpleWebSocketServer(int port, boolean deflate) {
+        super(new InetSocketAddress(port), drafts(deflate));
         setReuseAddr(true);
-        Log.i(TAG, "Simple WebSocket server created on port " + port);
+        Log.i(TAG, "Simple WebSocket server created on port " + port + (deflate ? " (deflate)" : ""));
     }
-    
+
+    private static List<Draft> drafts(boolean deflate) {
+        // The extension compresses without context takeover, so a frame compressed
+        // once for one client is valid for all of them
+        Draft draft = deflate ? new Draft_6455(new PerMessageDeflateExtension()) : new Draft_6455();
+        return Collections.singletonList(draft);
+    }
+
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        WebSocketSession session = new WebSocketSession(conn, this);
+        conn.setAttachment(session);
         clients.add(conn);
         String clientId = conn.getRemoteSocketAddress().toString();
         Log.i(TAG, "Client connected: " + clientId + " (total: " + clients.size() + ")");
-        
+
         // Send welcome message
         try {
             JsonObject welcome = new JsonObject();
@@ -42,61 +136,383 @@ public class SimpleWebSocketServer extends WebSocketServer {
             welcome.addProperty("message", "Connected to Android WebSocket server");
             welcome.addProperty("clientId", clientId);
             welcome.addProperty("timestamp", System.currentTimeMillis());
-            
-            conn.send(welcome.toString());
+
+            session.sendControl(welcome.toString());
             Log.d(TAG, "Welcome message sent to: " + clientId);
         } catch (Exception e) {
             Log.e(TAG, "Failed to send welcome message: " + e.getMessage());
         }
     }
-    
+
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
         clients.remove(conn);
+        teleop.onDisconnect(conn);
         String clientId = conn.getRemoteSocketAddress().toString();
         Log.i(TAG, "Client disconnected: " + clientId + " (code: " + code + ", reason: " + reason + ", total: " + clients.size() + ")");
     }
-    
+
+    public void setRobotFleet(RobotFleet fleet) {
+        this.robotFleet = fleet;
+        teleop.setRobotFleet(fleet);
+    }
+
+    public TeleopChannel getTeleop() {
+        return teleop;
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        teleop.onFrame(conn, message);
+    }
+
     @Override
     public void onMessage(WebSocket conn, String message) {
+        // Safety commands skip logging, parsing and the echo
+        RobotFleet fleet = robotFleet;
+        if (fleet != null) {
+            if (MSG_ESTOP.equals(message)) {
+                fleet.emergencyStopAll();
+                Log.w(TAG, "Emergency stop from " + conn.getRemoteSocketAddress());
+                return;
+            }
+            if (MSG_HEARTBEAT.equals(message)) {
+                for (RobotEndpoint robot : fleet.resolve(RobotFleet.ALL)) {
+                    robot.heartbeat();
+                }
+                return;
+            }
+            if (message.startsWith(TeleopChannel.BIND_PREFIX)) {
+                String robot = message.substring(TeleopChannel.BIND_PREFIX.length());
+                boolean bound = teleop.bind(conn, robot);
+                JsonObject reply = new JsonObject();
+                reply.addProperty("type", "teleop");
+                reply.addProperty("robot", robot);
+                reply.addProperty("bound", bound);
+                ((WebSocketSession) conn.getAttachment()).sendControl(reply.toString());
+                return;
+            }
+        }
+
         String clientId = conn.getRemoteSocketAddress().toString();
         Log.d(TAG, "Received from " + clientId + ": " + message);
-        
-        // Echo message back to sender
+
         try {
-            JsonObject response = new JsonObject();
-            response.addProperty("type", "echo");
-            response.addProperty("originalMessage", message);
-            response.addProperty("timestamp", System.currentTimeMillis());
-            response.addProperty("from", "server");
-            
-            conn.send(response.toString());
-            Log.d(TAG, "Echo sent to: " + clientId);
-            
-            // Also broadcast to all other clients
+            if (handleSubscription(conn, message)) {
+                return;
+            }
+
+            WebSocketSession session = conn.getAttachment();
+            if (session.isSubscribed(TOPIC_ECHO)) {
+                JsonObject response = new JsonObject();
+                response.addProperty("type", "echo");
+                response.addProperty("originalMessage", message);
+                response.addProperty("timestamp", System.currentTimeMillis());
+                response.addProperty("from", "server");
+                session.sendControl(response.toString());
+            }
+
             broadcastToOthers(conn, message, clientId);
-            
+
         } catch (Exception e) {
             Log.e(TAG, "Failed to process message: " + e.getMessage());
         }
     }
-    
+
+    /**
+     * Handle a subscribe/unsubscribe request. Returns false if message is not one.
+     */
+    private boolean handleSubscription(WebSocket conn, String message) {
+        if (!message.startsWith("{")) {
+            return false;
+        }
+        JsonObject request;
+        try {
+            request = JsonParser.parseString(message).getAsJsonObject();
+        } catch (Exception e) {
+            return false;
+        }
+        String type = request.has("type") ? request.get("type").getAsString() : "";
+        boolean subscribe = "subscribe".equals(type);
+        if (!subscribe && !"unsubscribe".equals(type)) {
+            return false;
+        }
+
+        WebSocketSession session = conn.getAttachment();
+        JsonArray topics = request.has("topics") ? request.getAsJsonArray("topics") : new JsonArray();
+        String filterError = null;
+        for (JsonElement t : topics) {
+            String topic = t.getAsString();
+            if (subscribe) {
+                if (TOPIC_DETECTIONS.equals(topic)) {
+                    // Subscribing again replaces the filter; without one the client gets everything
+                    try {
+                        session.setDetectionFilter(request.has("filter")
+                                ? DetectionFilter.fromJson(request.getAsJsonObject("filter")) : null);
+                        session.setBinaryDetections(request.has("format")
+                                && "binary".equals(request.get("format").getAsString()));
+                    } catch (RuntimeException e) {
+                        filterError = e.getMessage();
+                        continue;
+                    }
+                }
+                session.subscribe(topic);
+            } else {
+                session.unsubscribe(topic);
+                if (TOPIC_DETECTIONS.equals(topic)) {
+                    session.setDetectionFilter(null);
+                    session.setBinaryDetections(false);
+                }
+            }
+        }
+
+        JsonObject reply = new JsonObject();
+        reply.addProperty("type", "subscribed");
+        if (filterError != null) {
+            reply.addProperty("error", "Invalid detections filter: " + filterError);
+        }
+        DetectionFilter filter = session.getDetectionFilter();
+        if (filter != null) {
+            reply.add("filter", filter.toJson());
+        }
+        if (session.isSubscribed(TOPIC_DETECTIONS)) {
+            reply.addProperty("format", session.isBinaryDetections() ? "binary" : "json");
+        }
+        JsonArray current = new JsonArray();
+        for (String t : session.getTopics()) {
+            current.add(t);
+        }
+        reply.add("topics", current);
+        session.sendControl(reply.toString());
+
+        // Bring new state subscribers up to date without waiting for the next change
+        if (subscribe) {
+            for (JsonElement t : topics) {
+                JsonObject state = stateCache.get(t.getAsString());
+                if (state != null) {
+                    session.send(OutboundQueue.Policy.LATEST, t.getAsString(), state);
+                }
+            }
+        }
+        return true;
+    }
+
     @Override
     public void onError(WebSocket conn, Exception ex) {
         String clientId = conn != null ? conn.getRemoteSocketAddress().toString() : "unknown";
         Log.e(TAG, "WebSocket error for " + clientId + ": " + ex.getMessage(), ex);
         if (conn != null) {
             clients.remove(conn);
+            teleop.onDisconnect(conn);
         }
     }
-    
+
     @Override
     public void onStart() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runSender();
+            }
+        }, "WebSocketSender");
+        thread.setDaemon(true);
+        senderThread = thread;
+        thread.start();
         Log.i(TAG, "Simple WebSocket server started successfully");
     }
-    
+
+    /**
+     * Keep writing to clients with a backlog as their sockets drain, and close
+     * those that have been behind for longer than SLOW_CLIENT_LAG_MS.
+     */
+    private void runSender() {
+        while (senderThread == Thread.currentThread()) {
+            boolean pending = false;
+            for (WebSocket client : clients) {
+                WebSocketSession session = client.getAttachment();
+                if (session == null || session.outbound.isEmpty()) continue;
+                if (session.flush()) {
+                    long lagMs = session.getLagMs();
+                    if (lagMs > WebSocketSession.SLOW_CLIENT_LAG_MS) {
+                        closeSlowClient(client, session, lagMs);
+                    } else {
+                        pending = true;
+                    }
+                }
+            }
+            if (pending) {
+                LockSupport.parkNanos(this, SENDER_RETRY_NS);
+            } else {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    private void closeSlowClient(WebSocket client, WebSocketSession session, long lagMs) {
+        Log.w(TAG, "Disconnecting slow client " + client.getRemoteSocketAddress() + ": " + lagMs
+                + "ms behind, " + session.outbound.depth() + " queued");
+        slowClientsClosed.incrementAndGet();
+        clients.remove(client);
+        // No closing handshake: it would wait behind the backlog this is meant to free
+        ((WebSocketImpl) client).closeConnection(CloseFrame.POLICY_VALIDATION, "Client too slow");
+    }
+
     /**
-     * Broadcast a message to all clients except the sender.
+     * A session has a backlog; make sure the sender thread is running.
+     */
+    void wakeSender() {
+        Thread thread = senderThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    void onMessageSent() {
+        messagesSent.incrementAndGet();
+    }
+
+    void onStateSkipped() {
+        stateUpdatesSkipped.incrementAndGet();
+    }
+
+    void onSharedFrameWritten(int savedBytes) {
+        messagesSent.incrementAndGet();
+        sharedFramesWritten.incrementAndGet();
+        wireBytesSaved.addAndGet(savedBytes);
+    }
+
+    void onDetectionFrameWritten(boolean delta) {
+        (delta ? detectionDeltaFramesSent : detectionKeyFramesSent).incrementAndGet();
+    }
+
+    void onDeflated(int bytesIn, int bytesOut) {
+        messagesDeflated.incrementAndGet();
+        deflateBytesIn.addAndGet(bytesIn);
+        deflateBytesOut.addAndGet(bytesOut);
+    }
+
+    /**
+     * True if any client is subscribed to topic; producers check this before building a message.
+     */
+    public boolean hasSubscribers(String topic) {
+        for (WebSocket client : clients) {
+            WebSocketSession session = client.getAttachment();
+            if (session != null && session.isSubscribed(topic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Send an event message to every client subscribed to topic. Detections are
+     * latest-wins per client; other events drop the oldest when a client falls behind.
+     */
+    public void publish(String topic, String json) {
+        OutboundQueue.Policy policy = TOPIC_DETECTIONS.equals(topic)
+                ? OutboundQueue.Policy.LATEST : OutboundQueue.Policy.DROP_OLDEST;
+        PreparedMessage prepared = null;
+        for (WebSocket client : clients) {
+            WebSocketSession session = client.getAttachment();
+            if (session == null || !session.isSubscribed(topic)) continue;
+            if (prepared == null) {
+                prepared = prepare(json);
+            }
+            session.send(policy, topic, prepared);
+        }
+    }
+
+    /**
+     * Send a detection frame to "detections" subscribers, each filtered and rate limited
+     * as it asked. Clients with the same filter and format share one encoded message. Call it on
+     * the thread that owns frame; nothing refers to the frame afterwards.
+     */
+    public void publishDetections(DetectionFrame frame) {
+        long now = System.nanoTime();
+        long timestampMs = System.currentTimeMillis();
+        PreparedMessage unfiltered = null;
+        Map<DetectionFilter, PreparedMessage> filtered = null;
+        // Binary frames per filter, null key = unfiltered
+        Map<DetectionFilter, DetectionCodec.Payload> binary = null;
+        for (WebSocket client : clients) {
+            WebSocketSession session = client.getAttachment();
+            if (session == null || !session.isSubscribed(TOPIC_DETECTIONS)) continue;
+            DetectionFilter filter = session.getDetectionFilter();
+            boolean binaryFormat = session.isBinaryDetections();
+            if (binaryFormat && binary == null) {
+                // Ids must follow every frame, including ones a rate-limited client skips
+                binary = new HashMap<>();
+                detectionCodec.track(frame);
+            }
+            if (filter != null && !filter.tryAcquire(now)) {
+                detectionFramesRateLimited.incrementAndGet();
+                continue;
+            }
+            Object message;
+            if (binaryFormat) {
+                DetectionCodec.Payload payload = binary.get(filter);
+                if (payload == null) {
+                    payload = detectionCodec.encode(frame, filter);
+                    binary.put(filter, payload);
+                }
+                message = payload;
+            } else if (filter == null) {
+                if (unfiltered == null) {
+                    unfiltered = prepare(frame.toMessageJson(null, timestampMs));
+                }
+                message = unfiltered;
+            } else {
+                if (filtered == null) {
+                    filtered = new HashMap<>();
+                }
+                PreparedMessage prepared = filtered.get(filter);
+                if (prepared == null) {
+                    prepared = prepare(frame.toMessageJson(filter, timestampMs));
+                    filtered.put(filter, prepared);
+                }
+                message = prepared;
+            }
+            session.send(OutboundQueue.Policy.LATEST, TOPIC_DETECTIONS, message);
+        }
+        if (binary != null) {
+            detectionCodec.expireGroups(now);
+        }
+    }
+
+    public long getDetectionFramesRateLimited() {
+        return detectionFramesRateLimited.get();
+    }
+
+    /**
+     * Binary detection frames encoded and sent, key frames and deltas apart.
+     */
+    public JsonObject getDetectionCodecStats() {
+        JsonObject json = new JsonObject();
+        json.addProperty("keyFramesEncoded", detectionCodec.getKeyFrames());
+        json.addProperty("deltaFramesEncoded", detectionCodec.getDeltaFrames());
+        json.addProperty("keyBytesEncoded", detectionCodec.getKeyBytes());
+        json.addProperty("deltaBytesEncoded", detectionCodec.getDeltaBytes());
+        json.addProperty("keyFramesSent", detectionKeyFramesSent.get());
+        json.addProperty("deltaFramesSent", detectionDeltaFramesSent.get());
+        return json;
+    }
+
+    /**
+     * Publish the latest state of a state topic. Each subscriber gets only the fields
+     * that changed since its last update, and nothing if none did; a client that is
+     * behind skips straight to the newest state. state must not be modified afterwards.
+     */
+    public void publishState(String topic, JsonObject state) {
+        stateCache.put(topic, state);
+        for (WebSocket client : clients) {
+            WebSocketSession session = client.getAttachment();
+            if (session == null || !session.isSubscribed(topic)) continue;
+            session.send(OutboundQueue.Policy.LATEST, topic, state);
+        }
+    }
+
+    /**
+     * Relay a message to the other clients subscribed to "broadcast".
      */
     private void broadcastToOthers(WebSocket sender, String originalMessage, String senderId) {
         JsonObject broadcast = new JsonObject();
@@ -104,58 +520,95 @@ public class SimpleWebSocketServer extends WebSocketServer {
         broadcast.addProperty("message", originalMessage);
         broadcast.addProperty("from", senderId);
         broadcast.addProperty("timestamp", System.currentTimeMillis());
-        
-        String broadcastJson = broadcast.toString();
-        
+
+        PreparedMessage prepared = prepare(broadcast.toString());
+
         for (WebSocket client : clients) {
-            if (client != sender && client.isOpen()) {
-                try {
-                    client.send(broadcastJson);
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to broadcast to client: " + e.getMessage());
-                    clients.remove(client);
-                }
+            WebSocketSession session = client.getAttachment();
+            if (client != sender && session != null && session.isSubscribed(TOPIC_BROADCAST)) {
+                session.send(OutboundQueue.Policy.DROP_OLDEST, TOPIC_BROADCAST, prepared);
             }
         }
     }
-    
+
     /**
-     * Broadcast a message to all connected clients.
+     * Broadcast a server message to clients subscribed to "broadcast".
      */
     public void broadcast(String message) {
         JsonObject broadcast = new JsonObject();
         broadcast.addProperty("type", "server_broadcast");
         broadcast.addProperty("message", message);
         broadcast.addProperty("timestamp", System.currentTimeMillis());
-        
-        String json = broadcast.toString();
-        Log.d(TAG, "Broadcasting to " + clients.size() + " clients: " + message);
-        
-        for (WebSocket client : clients) {
-            try {
-                if (client.isOpen()) {
-                    client.send(json);
-                } else {
-                    clients.remove(client);
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to send broadcast: " + e.getMessage());
-                clients.remove(client);
-            }
-        }
+
+        Log.d(TAG, "Broadcasting to subscribers: " + message);
+        publish(TOPIC_BROADCAST, broadcast.toString());
     }
-    
+
     /**
      * Get the number of connected clients.
      */
     public int getClientCount() {
         return clients.size();
     }
-    
+
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    /**
+     * State updates not sent because nothing changed for that client.
+     */
+    public long getStateUpdatesSkipped() {
+        return stateUpdatesSkipped.get();
+    }
+
+    public long getSlowClientsClosed() {
+        return slowClientsClosed.get();
+    }
+
+    private PreparedMessage prepare(String json) {
+        messagesPrepared.incrementAndGet();
+        return new PreparedMessage(json, this);
+    }
+
+    /**
+     * Encode-once and compression counters.
+     */
+    public JsonObject getFrameStats() {
+        JsonObject json = new JsonObject();
+        json.addProperty("messagesPrepared", messagesPrepared.get());
+        json.addProperty("sharedFramesWritten", sharedFramesWritten.get());
+        json.addProperty("messagesDeflated", messagesDeflated.get());
+        json.addProperty("deflateBytesIn", deflateBytesIn.get());
+        json.addProperty("deflateBytesOut", deflateBytesOut.get());
+        json.addProperty("wireBytesSaved", wireBytesSaved.get());
+        json.addProperty("deflateMinBytes", PreparedMessage.DEFLATE_MIN_BYTES);
+        return json;
+    }
+
+    /**
+     * Outbound queue depth, bytes, drops and lag of every client.
+     */
+    public JsonArray getClientStats() {
+        JsonArray stats = new JsonArray();
+        for (WebSocket client : clients) {
+            WebSocketSession session = client.getAttachment();
+            if (session != null) {
+                stats.add(session.statsJson());
+            }
+        }
+        return stats;
+    }
+
     /**
      * Close all client connections and stop the server.
      */
     public void shutdown() {
+        Thread thread = senderThread;
+        senderThread = null;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
         try {
             Log.i(TAG, "Shutting down WebSocket server...");
             stop(1000);
@@ -163,4 +616,4 @@ public class SimpleWebSocketServer extends WebSocketServer {
             Log.e(TAG, "Error stopping WebSocket server: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
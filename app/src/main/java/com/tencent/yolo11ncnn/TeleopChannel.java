@@ -0,0 +1,232 @@
+/**
+ * TeleopChannel.java
+ *
+ * Analog teleoperation over the WebSocket server. A joystick or gamepad sends
+ * small binary frames (up to ~60 Hz) that go straight into the robot's
+ * setpoint, which the fleet sends at once and coalesces, so only the newest
+ * command reaches the robot. Frames older than the last applied one from the
+ * same client are dropped. No HTTP request, body parse or JSON per update.
+ *
+ * All fields little-endian, like RobotProtocol:
+ * Command (22 bytes): 'T' 'P' version type=1 | u32 seq | u32 clientTimeUs |
+ *                     i16 x | i16 y | i16 r | i16 e | u8 flags | u8 reserved
+ * Ack (20 bytes):     'T' 'P' version type=2 | u32 seq | u32 echoed clientTimeUs |
+ *                     u32 setpointToWireUs | u32 framesApplied
+ *
+ * The ack is sent only for commands with FLAG_ACK_REQUEST. The client gets its
+ * round trip from the echoed time; setpointToWireUs is the phone's latest
+ * delay from applying a setpoint to the UDP send, so input-to-UDP is about
+ * half the round trip plus that.
+ *
+ * Frames set the robot's speed and nothing else clears it, so when a connection
+ * closes or fails while its last command was non-zero, the robot it was
+ * driving is stopped.
+ */
+package com.tencent.yolo11ncnn;
+
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import org.java_websocket.WebSocket;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TeleopChannel {
+    private static final String TAG = "TeleopChannel";
+
+    public static final byte MAGIC_0 = 'T';
+    public static final byte MAGIC_1 = 'P';
+    public static final byte VERSION = 1;
+    public static final byte TYPE_COMMAND = 1;
+    public static final byte TYPE_ACK = 2;
+    public static final int COMMAND_BYTES = 22;
+    public static final int ACK_BYTES = 20;
+
+    public static final int FLAG_ACK_REQUEST = 0x01;
+
+    // Text message that binds a connection's teleop frames to a robot: "teleop:<name>"
+    public static final String BIND_PREFIX = "teleop:";
+
+    /**
+     * Per-connection state, held by the connection's WebSocketSession.
+     */
+    static class ClientState {
+        volatile String robot = RobotFleet.DEFAULT_ROBOT;
+        boolean hasSeq = false;
+        int lastSeq;
+        // Robot the last applied frame went to, and whether that frame was non-zero; guarded by this
+        String drivenRobot;
+        boolean moving = false;
+    }
+
+    private volatile RobotFleet robotFleet;
+
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong framesApplied = new AtomicLong();
+    private final AtomicLong framesStale = new AtomicLong();
+    private final AtomicLong framesInvalid = new AtomicLong();
+    private final AtomicLong acksSent = new AtomicLong();
+    private final AtomicLong disconnectStops = new AtomicLong();
+    // Timings are from the WebSocket threads; a lost update under contention is harmless
+    private volatile long lastApplyNs = 0;
+    private volatile long maxApplyNs = 0;
+    private volatile long lastFrameNs = 0;
+    private volatile double frameRateHz = 0;
+    // Applied frames counted over about a second for frameRateHz
+    private long rateWindowStartNs = 0;
+    private long rateWindowFrames = 0;
+
+    public void setRobotFleet(RobotFleet fleet) {
+        this.robotFleet = fleet;
+    }
+
+    /**
+     * Bind conn's frames to the named robot. Returns false if there is no such robot.
+     */
+    public boolean bind(WebSocket conn, String robotName) {
+        RobotFleet fleet = robotFleet;
+        if (fleet == null || fleet.get(robotName) == null) {
+            return false;
+        }
+        state(conn).robot = robotName;
+        Log.i(TAG, conn.getRemoteSocketAddress() + " teleop bound to " + robotName);
+        return true;
+    }
+
+    /**
+     * Apply one binary frame from conn. Runs on the WebSocket thread.
+     */
+    public void onFrame(WebSocket conn, ByteBuffer frame) {
+        long recvNs = System.nanoTime();
+        framesReceived.incrementAndGet();
+        ByteBuffer buf = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int base = buf.position();
+        if (buf.remaining() < COMMAND_BYTES
+                || buf.get(base) != MAGIC_0 || buf.get(base + 1) != MAGIC_1
+                || buf.get(base + 2) != VERSION || buf.get(base + 3) != TYPE_COMMAND) {
+            framesInvalid.incrementAndGet();
+            return;
+        }
+        int seq = buf.getInt(base + 4);
+        int clientTimeUs = buf.getInt(base + 8);
+        int x = clamp(buf.getShort(base + 12));
+        int y = clamp(buf.getShort(base + 14));
+        int r = clamp(buf.getShort(base + 16));
+        int e = clamp(buf.getShort(base + 18));
+        int flags = buf.get(base + 20) & 0xFF;
+
+        ClientState state = state(conn);
+        synchronized (state) {
+            if (state.hasSeq && seq - state.lastSeq <= 0) {
+                // reordered or duplicate: a newer command was already applied
+                framesStale.incrementAndGet();
+                return;
+            }
+            state.hasSeq = true;
+            state.lastSeq = seq;
+        }
+
+        RobotFleet fleet = robotFleet;
+        RobotEndpoint robot = fleet != null ? fleet.get(state.robot) : null;
+        if (robot == null) {
+            framesInvalid.incrementAndGet();
+            return;
+        }
+        robot.setSetpoint(x, y, r, e);
+        synchronized (state) {
+            state.drivenRobot = robot.getName();
+            state.moving = x != 0 || y != 0 || r != 0 || e != 0;
+        }
+        framesApplied.incrementAndGet();
+
+        long doneNs = System.nanoTime();
+        long applyNs = doneNs - recvNs;
+        lastApplyNs = applyNs;
+        maxApplyNs = Math.max(maxApplyNs, applyNs);
+        synchronized (this) {
+            rateWindowFrames++;
+            long window = recvNs - rateWindowStartNs;
+            if (rateWindowStartNs == 0 || window > 2_000_000_000L) {
+                // first frame, or idle long enough that the old window means nothing
+                rateWindowStartNs = recvNs;
+                rateWindowFrames = 0;
+            } else if (window >= 1_000_000_000L) {
+                frameRateHz = rateWindowFrames * 1e9 / window;
+                rateWindowStartNs = recvNs;
+                rateWindowFrames = 0;
+            }
+        }
+        lastFrameNs = recvNs;
+
+        if ((flags & FLAG_ACK_REQUEST) != 0) {
+            sendAck(conn, seq, clientTimeUs, robot);
+        }
+    }
+
+    /**
+     * conn closed or failed: stop the robot it was driving, if its last command
+     * left it moving.
+     */
+    public void onDisconnect(WebSocket conn) {
+        WebSocketSession session = conn.getAttachment();
+        if (session == null) return;
+        ClientState state = session.teleop;
+        String robotName;
+        synchronized (state) {
+            if (!state.moving) return;
+            state.moving = false;
+            robotName = state.drivenRobot;
+        }
+        RobotFleet fleet = robotFleet;
+        RobotEndpoint robot = fleet != null ? fleet.get(robotName) : null;
+        if (robot != null) {
+            robot.stop();
+            disconnectStops.incrementAndGet();
+            Log.w(TAG, conn.getRemoteSocketAddress() + " disconnected while driving " + robotName + ", stopped it");
+        }
+    }
+
+    private void sendAck(WebSocket conn, int seq, int clientTimeUs, RobotEndpoint robot) {
+        ByteBuffer ack = ByteBuffer.allocate(ACK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ack.put(MAGIC_0).put(MAGIC_1).put(VERSION).put(TYPE_ACK);
+        ack.putInt(seq);
+        ack.putInt(clientTimeUs);
+        ack.putInt((int) Math.min(Integer.MAX_VALUE, robot.getLastSetpointToWireUs()));
+        ack.putInt((int) framesApplied.get());
+        ack.flip();
+        try {
+            WebSocketSession session = conn.getAttachment();
+            session.sendControl(ack);
+            acksSent.incrementAndGet();
+        } catch (Exception ex) {
+            Log.w(TAG, "Failed to send teleop ack: " + ex.getMessage());
+        }
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("framesReceived", framesReceived.get());
+        json.addProperty("framesApplied", framesApplied.get());
+        json.addProperty("framesStale", framesStale.get());
+        json.addProperty("framesInvalid", framesInvalid.get());
+        json.addProperty("acksSent", acksSent.get());
+        json.addProperty("disconnectStops", disconnectStops.get());
+        json.addProperty("frameRateHz", lastFrameNs != 0 && System.nanoTime() - lastFrameNs < 2_000_000_000L
+                ? frameRateHz : 0);
+        json.addProperty("lastApplyUs", lastApplyNs / 1e3);
+        json.addProperty("maxApplyUs", maxApplyNs / 1e3);
+        return json;
+    }
+
+    private static ClientState state(WebSocket conn) {
+        WebSocketSession session = conn.getAttachment();
+        return session.teleop;
+    }
+
+    private static int clamp(int v) {
+        return Math.max(-Trajectory.MAX_VALUE, Math.min(Trajectory.MAX_VALUE, v));
+    }
+}
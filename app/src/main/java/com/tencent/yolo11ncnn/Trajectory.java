@@ -0,0 +1,179 @@
+/**
+ * Trajectory.java
+ *
+ * A list of timestamped holonomic X,Y,R,E setpoints played back on the phone
+ * by TrajectoryPlayer, so one request replaces a stream of move/rotate calls
+ * and the timing does not depend on Wi-Fi. Times are milliseconds from the
+ * start of playback and must not decrease. With interpolate set the player
+ * also sends linearly interpolated setpoints between points at the robot's
+ * rate; with hold unset the robot is stopped after the last point.
+ */
+package com.tencent.yolo11ncnn;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+public final class Trajectory {
+    public static final int MAX_POINTS = 2000;
+    public static final int MAX_VALUE = 255;
+    private static final double MAX_DURATION_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final long[] timesNs;
+    private final int[] x, y, r, e;
+    private final boolean interpolate;
+    private final boolean hold;
+
+    private Trajectory(Builder b) {
+        int n = b.size;
+        timesNs = new long[n];
+        x = new int[n];
+        y = new int[n];
+        r = new int[n];
+        e = new int[n];
+        System.arraycopy(b.timesNs, 0, timesNs, 0, n);
+        System.arraycopy(b.x, 0, x, 0, n);
+        System.arraycopy(b.y, 0, y, 0, n);
+        System.arraycopy(b.r, 0, r, 0, n);
+        System.arraycopy(b.e, 0, e, 0, n);
+        interpolate = b.interpolate;
+        hold = b.hold;
+    }
+
+    public int size() {
+        return timesNs.length;
+    }
+
+    public double getDurationMs() {
+        return timesNs[timesNs.length - 1] / 1e6;
+    }
+
+    public boolean isInterpolated() {
+        return interpolate;
+    }
+
+    public boolean holdsLastPoint() {
+        return hold;
+    }
+
+    long timeNs(int i) {
+        return timesNs[i];
+    }
+
+    /**
+     * Write the setpoint at offset t (ns from start) into out[0..3]; t must lie in
+     * [time(i), time(i + 1)) unless i is the last point.
+     */
+    void valueAt(int i, long t, int[] out) {
+        if (!interpolate || i + 1 >= timesNs.length || timesNs[i + 1] == timesNs[i]) {
+            out[0] = x[i];
+            out[1] = y[i];
+            out[2] = r[i];
+            out[3] = e[i];
+            return;
+        }
+        double f = (double) (t - timesNs[i]) / (timesNs[i + 1] - timesNs[i]);
+        f = Math.max(0, Math.min(1, f));
+        out[0] = (int) Math.round(x[i] + (x[i + 1] - x[i]) * f);
+        out[1] = (int) Math.round(y[i] + (y[i + 1] - y[i]) * f);
+        out[2] = (int) Math.round(r[i] + (r[i + 1] - r[i]) * f);
+        out[3] = (int) Math.round(e[i] + (e[i + 1] - e[i]) * f);
+    }
+
+    /**
+     * Parse {"points": [{"t": ms, "x", "y", "r", "e"}, ...], "interpolate": bool, "hold": bool}.
+     * Missing axes are 0. Throws IllegalArgumentException if the trajectory is invalid.
+     */
+    public static Trajectory fromJson(JsonObject json) {
+        if (!json.has("points") || !json.get("points").isJsonArray()) {
+            throw new IllegalArgumentException("Missing 'points' array");
+        }
+        Builder b = new Builder();
+        JsonArray points = json.getAsJsonArray("points");
+        for (JsonElement el : points) {
+            JsonObject p = el.getAsJsonObject();
+            if (!p.has("t")) {
+                throw new IllegalArgumentException("Point " + b.size + " has no 't'");
+            }
+            b.add(p.get("t").getAsDouble(), getInt(p, "x"), getInt(p, "y"), getInt(p, "r"), getInt(p, "e"));
+        }
+        if (json.has("interpolate")) {
+            b.interpolate(json.get("interpolate").getAsBoolean());
+        }
+        if (json.has("hold")) {
+            b.hold(json.get("hold").getAsBoolean());
+        }
+        return b.build();
+    }
+
+    private static int getInt(JsonObject p, String key) {
+        return p.has(key) ? p.get(key).getAsInt() : 0;
+    }
+
+    public static class Builder {
+        private long[] timesNs = new long[16];
+        private int[] x = new int[16], y = new int[16], r = new int[16], e = new int[16];
+        private int size = 0;
+        private boolean interpolate = false;
+        private boolean hold = false;
+
+        public Builder add(double tMs, int x, int y, int r, int e) {
+            if (size == MAX_POINTS) {
+                throw new IllegalArgumentException("Too many points (max " + MAX_POINTS + ")");
+            }
+            if (Double.isNaN(tMs) || tMs < 0 || tMs > MAX_DURATION_MS) {
+                throw new IllegalArgumentException("Point " + size + " has invalid time " + tMs);
+            }
+            long t = (long) (tMs * 1e6);
+            if (size > 0 && t < timesNs[size - 1]) {
+                throw new IllegalArgumentException("Point " + size + " is earlier than the one before");
+            }
+            checkValue(x);
+            checkValue(y);
+            checkValue(r);
+            checkValue(e);
+            if (size == timesNs.length) {
+                int cap = Math.min(MAX_POINTS, size * 2);
+                timesNs = Arrays.copyOf(timesNs, cap);
+                this.x = Arrays.copyOf(this.x, cap);
+                this.y = Arrays.copyOf(this.y, cap);
+                this.r = Arrays.copyOf(this.r, cap);
+                this.e = Arrays.copyOf(this.e, cap);
+            }
+            timesNs[size] = t;
+            this.x[size] = x;
+            this.y[size] = y;
+            this.r[size] = r;
+            this.e[size] = e;
+            size++;
+            return this;
+        }
+
+        public Builder interpolate(boolean interpolate) {
+            this.interpolate = interpolate;
+            return this;
+        }
+
+        public Builder hold(boolean hold) {
+            this.hold = hold;
+            return this;
+        }
+
+        public Trajectory build() {
+            if (size == 0) {
+                throw new IllegalArgumentException("Trajectory has no points");
+            }
+            return new Trajectory(this);
+        }
+
+        private void checkValue(int v) {
+            if (v < -MAX_VALUE || v > MAX_VALUE) {
+                throw new IllegalArgumentException("Point " + size + " value " + v
+                        + " outside -" + MAX_VALUE + ".." + MAX_VALUE);
+            }
+        }
+    }
+}
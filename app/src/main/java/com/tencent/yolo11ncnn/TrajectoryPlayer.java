@@ -0,0 +1,202 @@
+/**
+ * TrajectoryPlayer.java
+ *
+ * Plays Trajectory setpoints into RobotEndpoints on one thread for the whole
+ * fleet. The thread parks until shortly before the next point is due and
+ * spins the rest of the way, so points land within tens of microseconds of
+ * their nanoTime schedule; each setpoint is then sent by the fleet thread
+ * right away. Any other setpoint or an emergency stop on the robot cancels
+ * its playback.
+ */
+package com.tencent.yolo11ncnn;
+
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class TrajectoryPlayer implements Runnable {
+    private static final String TAG = "TrajectoryPlayer";
+    // Park until this close to a deadline, then spin; parkNanos alone wakes up to ~100us late
+    private static final long SPIN_NS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    public enum State { PLAYING, DONE, CANCELLED }
+
+    /**
+     * One trajectory being played into one robot.
+     */
+    public static class Playback {
+        private final RobotEndpoint robot;
+        private final Trajectory trajectory;
+        private final long startNs;
+        private final int[] value = new int[4];
+
+        // Player-thread state
+        private int index = 0;
+        private long nextEventNs;
+
+        private volatile State state = State.PLAYING;
+        private volatile int pointsPlayed = 0;
+        private volatile long setpointsSent = 0;
+        private volatile long maxLateNs = 0;
+        private volatile long totalLateNs = 0;
+
+        Playback(RobotEndpoint robot, Trajectory trajectory, long startNs) {
+            this.robot = robot;
+            this.trajectory = trajectory;
+            this.startNs = startNs;
+            this.nextEventNs = startNs + trajectory.timeNs(0);
+        }
+
+        public RobotEndpoint getRobot() {
+            return robot;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public boolean isPlaying() {
+            return state == State.PLAYING;
+        }
+
+        void cancel() {
+            if (state == State.PLAYING) {
+                state = State.CANCELLED;
+            }
+        }
+
+        /**
+         * Apply whatever is due at now. Returns the next event time, or Long.MAX_VALUE when finished.
+         */
+        long advance(long now) {
+            long late = now - nextEventNs;
+            long t = now - startNs;
+            int n = trajectory.size();
+            // Points already in the past are skipped rather than replayed late
+            while (index + 1 < n && t >= trajectory.timeNs(index + 1)) {
+                index++;
+            }
+            trajectory.valueAt(index, t, value);
+            if (!robot.applyPlaybackSetpoint(this, value[0], value[1], value[2], value[3])) {
+                cancel();
+                return Long.MAX_VALUE;
+            }
+            setpointsSent++;
+            pointsPlayed = index + 1;
+            maxLateNs = Math.max(maxLateNs, late);
+            totalLateNs += late;
+
+            if (index + 1 >= n) {
+                if (!trajectory.holdsLastPoint()) {
+                    robot.applyPlaybackSetpoint(this, 0, 0, 0, 0);
+                }
+                robot.endPlayback(this);
+                state = State.DONE;
+                return Long.MAX_VALUE;
+            }
+            long next = startNs + trajectory.timeNs(index + 1);
+            if (trajectory.isInterpolated()) {
+                next = Math.min(next, now + TimeUnit.SECONDS.toNanos(1) / robot.getRateHz());
+            }
+            nextEventNs = next;
+            return next;
+        }
+
+        public JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("robot", robot.getName());
+            json.addProperty("state", state.name().toLowerCase(Locale.US));
+            json.addProperty("points", trajectory.size());
+            json.addProperty("pointsPlayed", pointsPlayed);
+            json.addProperty("setpointsSent", setpointsSent);
+            json.addProperty("durationMs", trajectory.getDurationMs());
+            json.addProperty("elapsedMs", (System.nanoTime() - startNs) / 1e6);
+            json.addProperty("interpolate", trajectory.isInterpolated());
+            json.addProperty("hold", trajectory.holdsLastPoint());
+            long sent = setpointsSent;
+            json.addProperty("avgLateUs", sent > 0 ? totalLateNs / 1e3 / sent : 0);
+            json.addProperty("maxLateUs", maxLateNs / 1e3);
+            return json;
+        }
+    }
+
+    private final Thread thread;
+    private volatile boolean running = false;
+    // Active playbacks, guarded by this
+    private final List<Playback> playbacks = new ArrayList<>();
+
+    public TrajectoryPlayer() {
+        thread = new Thread(this, "TrajectoryPlayer");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(500);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Start playing trajectory into robot now, replacing anything it was playing.
+     */
+    public Playback play(RobotEndpoint robot, Trajectory trajectory) {
+        Playback playback = new Playback(robot, trajectory, System.nanoTime());
+        robot.beginPlayback(playback);
+        synchronized (this) {
+            playbacks.add(playback);
+        }
+        LockSupport.unpark(thread);
+        Log.i(TAG, robot.getName() + ": playing " + trajectory.size() + " points over "
+                + trajectory.getDurationMs() + "ms");
+        return playback;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long now = System.nanoTime();
+            long next = Long.MAX_VALUE;
+            synchronized (this) {
+                for (int i = playbacks.size() - 1; i >= 0; i--) {
+                    Playback p = playbacks.get(i);
+                    long due = p.isPlaying() ? p.nextEventNs : Long.MAX_VALUE;
+                    if (due != Long.MAX_VALUE && now - due >= 0) {
+                        due = p.advance(now);
+                    }
+                    if (due == Long.MAX_VALUE) {
+                        playbacks.remove(i);
+                    } else {
+                        next = Math.min(next, due);
+                    }
+                }
+            }
+
+            if (next == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else {
+                long waitNs = next - System.nanoTime();
+                if (waitNs > SPIN_NS) {
+                    LockSupport.parkNanos(this, waitNs - SPIN_NS);
+                } else if (waitNs > 0) {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+}
@@ -2,110 +2,521 @@
  * VideoStreamServer.java
  * 
  * Simple MJPEG video stream server for streaming camera frames.
- * Provides a simple queue-based frame delivery system.
+ * Each viewer asks for a rendition (frame rate, width, JPEG quality). Only the
+ * renditions current viewers asked for are produced; each is JPEG-encoded once
+ * and published to its own FrameHub, from which every viewer of it takes the
+ * newest frame it has not sent yet, at its own frame rate. At most
+ * MAX_RENDITIONS exist at once; past that a viewer gets the closest one.
+ *
+ * Capture and encode follow demand: with no viewers the native tap is
+ * disabled and the PixelCopy loop blocks in awaitDemand, so nothing is read
+ * back or encoded until a viewer connects, which wakes both at once.
+ *
+ * The preferred source is the native tap (useNativeTap): the camera pipeline
+ * encodes the rendered frame itself into a ring of direct buffers, which
+ * viewers read in place until they release them. If native code reports the
+ * tap cannot deliver frames, or PixelCopy is forced, frames captured from the
+ * view with PixelCopy go through a FrameEncoder thread instead; the stats
+ * report which source is in use and why.
+ *
+ * Native slot layout (see yolo11ncnn.cpp), native byte order:
+ *   int length, int width, int height, int renditionId,
+ *   long frameId, long cameraTimestampNs, long renderTimestampNs, then length bytes of JPEG
  */
 package com.tencent.yolo11ncnn;
 
 import android.graphics.Bitmap;
 import android.util.Log;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 
-import java.io.ByteArrayOutputStream;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class VideoStreamServer {
     private static final String TAG = "VideoStreamServer";
-    private static final int JPEG_QUALITY = 80;
+    static final int JPEG_QUALITY = 80;
+    // Distinct encodes per captured frame
+    static final int MAX_RENDITIONS = 4;
     
-    private LinkedBlockingQueue<byte[]> frameQueue;
+    // Native tap ring: the latest frame of each rendition, frames viewers are mid-way through
+    // and the one being encoded
+    private static final int NATIVE_SLOTS = 8;
+    private static final int NATIVE_SLOT_BYTES = 512 * 1024;
+    private static final int NATIVE_HEADER_BYTES = 40;
+    private static final int OFFSET_LENGTH = 0;
+    private static final int OFFSET_WIDTH = 4;
+    private static final int OFFSET_HEIGHT = 8;
+    private static final int OFFSET_RENDITION = 12;
+    private static final int OFFSET_FRAME_ID = 16;
+    private static final int OFFSET_CAMERA_TS = 24;
+    private static final int OFFSET_RENDER_TS = 32;
+    // Draw detection boxes and FPS into the streamed frame
+    private static final boolean NATIVE_OVERLAYS = true;
+    
+    // By key, guarded by this
+    private final Map<String, Rendition> renditions = new LinkedHashMap<>();
+    // The same renditions, for the producers to read without locking
+    private final List<Rendition> active = new CopyOnWriteArrayList<>();
+    private int nextRenditionId = 1;
+    // Frames published by renditions that have since gone
+    private long retiredPublished = 0;
+    // When the last viewer left, 0 while there are viewers; guarded by this
+    private long idleSinceMs = System.currentTimeMillis();
+    private long idleMs = 0;
+    private long wakeups = 0;
+    private final List<AdaptiveViewer> clients = new CopyOnWriteArrayList<>();
+    private final Runnable onViewersChanged = new Runnable() {
+        @Override
+        public void run() {
+            onViewersChanged();
+        }
+    };
+    // Capture and rotation bitmaps: a few captures in flight plus the one being encoded
+    private final BitmapPool bitmapPool = new BitmapPool(4);
+    private volatile FrameEncoder encoder;
     private volatile boolean isStreaming = false;
     private long lastFrameTime = 0;
     private static final long MIN_FRAME_INTERVAL = 33; // ~30 FPS
     
+    private volatile YOLO11Ncnn nativeSource;
+    private ByteBuffer[] nativeBuffers;
+    private Runnable[] nativeReleasers;
+    // Why frames come from PixelCopy, null while the native tap is in use or before a source was picked
+    private volatile String fallbackReason;
+    
     public VideoStreamServer() {
-        this.frameQueue = new LinkedBlockingQueue<>(3); // Keep up to 3 frames buffered
     }
     
     /**
      * Start streaming.
      */
-    public void start() {
+    public synchronized void start() {
         if (isStreaming) return;
+        if (nativeSource == null) {
+            encoder = new FrameEncoder(active, bitmapPool);
+        }
         isStreaming = true;
+        applyNativeConfig();
+        notifyAll();
         Log.i(TAG, "Video stream started");
     }
     
     /**
      * Stop streaming.
      */
-    public void stop() {
+    public synchronized void stop() {
         isStreaming = false;
-        frameQueue.clear();
+        applyNativeConfig();
+        if (encoder != null) {
+            encoder.shutdown();
+            encoder = null;
+        }
+        for (Rendition r : active) {
+            r.hub.clear();
+        }
+        bitmapPool.clear();
         Log.i(TAG, "Video stream stopped");
     }
     
     /**
-     * Submit a frame for streaming. Non-blocking - drops if queue is full.
+     * Take frames from the native camera pipeline instead of PixelCopy captures.
+     * Allocates the slot ring and registers it with native code, which then
+     * calls onNativeFrame for each encoded frame. Returns false, leaving the
+     * caller to capture with PixelCopy, if native code cannot deliver through it.
      */
-    public synchronized void submitFrame(Bitmap frame) {
-        if (!isStreaming || frame == null) return;
-        
-        // Rate limit to ~30 FPS
-        long now = System.currentTimeMillis();
-        if (now - lastFrameTime < MIN_FRAME_INTERVAL) {
+    public synchronized boolean useNativeTap(YOLO11Ncnn source) {
+        final YOLO11Ncnn yolo = source;
+        ByteBuffer[] buffers = new ByteBuffer[NATIVE_SLOTS];
+        Runnable[] releasers = new Runnable[NATIVE_SLOTS];
+        for (int i = 0; i < NATIVE_SLOTS; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(NATIVE_SLOT_BYTES).order(ByteOrder.nativeOrder());
+            final int slot = i;
+            // One per slot, so publishing a frame allocates no callback
+            releasers[i] = new Runnable() {
+                @Override
+                public void run() {
+                    yolo.releaseStreamSlot(slot);
+                }
+            };
+        }
+        int usable = yolo.setStreamBuffers(buffers);
+        if (usable <= 0) {
+            yolo.setStreamBuffers(null);
+            usePixelCopy("native tap unavailable");
+            return false;
+        }
+        nativeBuffers = buffers;
+        nativeReleasers = releasers;
+        nativeSource = yolo;
+        fallbackReason = null;
+        if (encoder != null) {
+            encoder.shutdown();
+            encoder = null;
+        }
+        applyNativeConfig();
+        applyNativeRenditions();
+        Log.i(TAG, "Native frame tap enabled: " + usable + " x " + (NATIVE_SLOT_BYTES / 1024) + " KB slots");
+        return true;
+    }
+    
+    /**
+     * Record that frames will come from PixelCopy captures, and why.
+     */
+    public void usePixelCopy(String reason) {
+        fallbackReason = reason;
+        Log.w(TAG, "Capturing frames with PixelCopy: " + reason);
+    }
+    
+    /**
+     * Stop the native tap and unregister its buffers.
+     */
+    public synchronized void releaseNativeTap() {
+        YOLO11Ncnn yolo = nativeSource;
+        if (yolo == null) return;
+        yolo.setStreamConfig(false, NATIVE_OVERLAYS);
+        yolo.setStreamBuffers(null);
+        nativeSource = null;
+    }
+    
+    /**
+     * Whether frames come from the native tap rather than PixelCopy captures.
+     */
+    public boolean isNativeTap() {
+        return nativeSource != null;
+    }
+    
+    private void applyNativeConfig() {
+        YOLO11Ncnn yolo = nativeSource;
+        if (yolo != null) {
+            yolo.setStreamConfig(isStreaming && !active.isEmpty(), NATIVE_OVERLAYS);
+        }
+    }
+    
+    /**
+     * Block until streaming is on and some viewer wants frames, for capture loops
+     * that should do nothing while nobody is watching.
+     *
+     * @return how often the viewers need a frame, in ms
+     */
+    public synchronized long awaitDemand() throws InterruptedException {
+        while (!isStreaming || active.isEmpty()) {
+            wait();
+        }
+        return getCaptureIntervalMs();
+    }
+    
+    /**
+     * Interval of the fastest rendition, at least MIN_FRAME_INTERVAL.
+     */
+    public long getCaptureIntervalMs() {
+        long interval = Long.MAX_VALUE;
+        for (Rendition r : active) {
+            interval = Math.min(interval, Math.max(MIN_FRAME_INTERVAL, r.getIntervalMs()));
+        }
+        return interval == Long.MAX_VALUE ? MIN_FRAME_INTERVAL : interval;
+    }
+    
+    /**
+     * Whether any viewer is connected, so frames are being captured and encoded.
+     */
+    public boolean hasDemand() {
+        return !active.isEmpty();
+    }
+    
+    /**
+     * Tell native code which renditions to encode; caller holds this.
+     */
+    private void applyNativeRenditions() {
+        YOLO11Ncnn yolo = nativeSource;
+        if (yolo == null) return;
+        int n = active.size();
+        int[] ids = new int[n];
+        int[] widths = new int[n];
+        int[] qualities = new int[n];
+        int[] intervals = new int[n];
+        for (int i = 0; i < n; i++) {
+            Rendition r = active.get(i);
+            ids[i] = r.id;
+            widths[i] = r.width;
+            qualities[i] = r.quality;
+            intervals[i] = (int) r.getIntervalMs();
+        }
+        yolo.setStreamRenditions(ids, widths, qualities, intervals);
+    }
+    
+    /**
+     * A viewer came or went: retire renditions nobody watches, pass the rest on and
+     * start or stop capturing if that changed whether anyone is watching.
+     */
+    private synchronized void onViewersChanged() {
+        boolean wasIdle = idleSinceMs != 0;
+        Iterator<Rendition> it = renditions.values().iterator();
+        while (it.hasNext()) {
+            Rendition r = it.next();
+            if (r.hub.getViewerCount() == 0) {
+                it.remove();
+                active.remove(r);
+                retiredPublished += r.hub.getPublishedCount();
+                r.hub.close();
+                Log.i(TAG, "Rendition " + r.key() + " retired");
+            }
+        }
+        applyNativeRenditions();
+        boolean idle = active.isEmpty();
+        if (idle != wasIdle) {
+            long now = System.currentTimeMillis();
+            if (idle) {
+                idleSinceMs = now;
+                Log.i(TAG, "No viewers left, capture idle");
+            } else {
+                idleMs += now - idleSinceMs;
+                idleSinceMs = 0;
+                wakeups++;
+                Log.i(TAG, "Viewer connected, capture resumed");
+            }
+            applyNativeConfig();
+            notifyAll();
+        }
+    }
+    
+    /**
+     * Native code encoded a frame into slot. Published in place; the slot goes
+     * back to native code once the hub and every viewer are done with it.
+     */
+    public void onNativeFrame(int slot) {
+        YOLO11Ncnn yolo = nativeSource;
+        ByteBuffer[] buffers = nativeBuffers;
+        Runnable[] releasers = nativeReleasers;
+        if (yolo == null || buffers == null || slot < 0 || slot >= buffers.length) {
             return;
         }
-        lastFrameTime = now;
+        ByteBuffer b = buffers[slot];
+        Rendition r = findRendition(b.getInt(OFFSET_RENDITION));
+        if (!isStreaming || r == null) {
+            yolo.releaseStreamSlot(slot);
+            return;
+        }
+        int length = b.getInt(OFFSET_LENGTH);
+        r.recordFrame(length, b.getInt(OFFSET_WIDTH), b.getInt(OFFSET_HEIGHT));
+        ByteBuffer jpeg = b.duplicate();
+        jpeg.limit(NATIVE_HEADER_BYTES + length).position(NATIVE_HEADER_BYTES);
+        r.hub.publish(jpeg.slice(), b.getLong(OFFSET_FRAME_ID), b.getLong(OFFSET_CAMERA_TS),
+                b.getLong(OFFSET_RENDER_TS), releasers[slot]);
+    }
+    
+    private Rendition findRendition(int id) {
+        for (Rendition r : active) {
+            if (r.id == id) return r;
+        }
+        return null;
+    }
+    
+    /**
+     * A bitmap to capture a frame into, from the pool, or null if none can be
+     * allocated. Pass it to submitFrame, or to releaseBitmap if the capture fails.
+     */
+    public Bitmap acquireBitmap(int width, int height) {
+        return bitmapPool.acquire(width, height);
+    }
+    
+    public void releaseBitmap(Bitmap bitmap) {
+        bitmapPool.release(bitmap);
+    }
+    
+    /**
+     * Submit a captured frame for streaming; takes ownership of the bitmap. Returns at
+     * once: the encoder thread rotates, scales and compresses it for each rendition
+     * that is due, and viewers that are still sending an older frame skip to this
+     * one when they are ready. Dropped if nobody is watching.
+     *
+     * @param rotationDegrees clockwise rotation applied while encoding
+     * @param captureStartNs  System.nanoTime() when the capture was requested
+     */
+    public void submitFrame(Bitmap frame, int rotationDegrees, long captureStartNs) {
+        if (frame == null) return;
+        FrameEncoder e = encoder;
         
-        try {
-            // Encode to JPEG
-            byte[] jpegData = bitmapToJpeg(frame);
-            
-            // Try to add, drop if queue full
-            if (!frameQueue.offer(jpegData)) {
-                // Queue full, drop oldest frame and try again
-                frameQueue.poll();
-                frameQueue.offer(jpegData);
+        // Rate limit to the fastest rendition
+        long interval = getCaptureIntervalMs();
+        boolean accept;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            accept = isStreaming && e != null && !active.isEmpty()
+                    && now - lastFrameTime >= interval - interval / 4;
+            if (accept) {
+                lastFrameTime = now;
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error encoding frame: " + e.getMessage());
+        }
+        if (accept) {
+            e.submit(frame, rotationDegrees, captureStartNs);
+        } else {
+            releaseBitmap(frame);
         }
     }
     
     /**
-     * Get the next frame with timeout. Returns null if timeout.
+     * Add a full rate, full size viewer with its own cursor; close it when the client goes away.
      */
-    public byte[] getNextFrame(long timeoutMs) throws InterruptedException {
-        return frameQueue.poll(timeoutMs, java.util.concurrent.TimeUnit.MILLISECONDS);
+    public FrameHub.Viewer openViewer(String name) {
+        return openViewer(name, 0, 0, 0);
     }
     
     /**
-     * Get the next frame. Blocks until available.
+     * Add a viewer of the rendition with the given frame rate, width and JPEG quality,
+     * each 0 for the default (MAX_FPS, source width, JPEG_QUALITY) and clamped to the
+     * supported range. Close it when the client goes away.
      */
-    public byte[] getNextFrame() throws InterruptedException {
-        return frameQueue.take();
+    public synchronized FrameHub.Viewer openViewer(String name, int fps, int width, int quality) {
+        fps = fps <= 0 ? Rendition.MAX_FPS : Math.min(fps, Rendition.MAX_FPS);
+        width = width <= 0 ? 0 : Math.max(width, Rendition.MIN_WIDTH);
+        quality = quality <= 0 ? JPEG_QUALITY : Math.max(Rendition.MIN_QUALITY, Math.min(quality, Rendition.MAX_QUALITY));
+        
+        Rendition r = renditions.get(Rendition.key(width, quality));
+        if (r == null && renditions.size() >= MAX_RENDITIONS) {
+            r = closestRendition(width, quality);
+            Log.w(TAG, "Rendition limit reached, " + name + " gets " + r.key()
+                    + " instead of " + Rendition.key(width, quality));
+        }
+        if (r == null) {
+            r = new Rendition(nextRenditionId++, width, quality, onViewersChanged);
+            renditions.put(r.key(), r);
+            active.add(r);
+            Log.i(TAG, "Rendition " + r.key() + " added");
+        }
+        // Runs onViewersChanged, which updates the native renditions with the new rate
+        return r.hub.open(name, 1000 / fps);
+    }
+    
+    /**
+     * Add a client that starts on the rendition it asked for and, if adaptive, moves
+     * between renditions down to the given floor to suit its link. Close it when
+     * the client goes away.
+     */
+    public AdaptiveViewer openAdaptiveViewer(String name, boolean adaptive, int fps, int width, int quality,
+                                             int minFps, int minWidth, int minQuality) {
+        AdaptiveViewer client = new AdaptiveViewer(this, name, adaptive, fps, width, quality,
+                minFps, minWidth, minQuality);
+        clients.add(client);
+        return client;
+    }
+    
+    void onAdaptiveViewerClosed(AdaptiveViewer client) {
+        clients.remove(client);
     }
     
     /**
-     * Peek at next frame without removing.
+     * Width of frames encoded at the source size, or 0 if none has been yet.
      */
-    public byte[] peekNextFrame() {
-        return frameQueue.peek();
+    public int getSourceWidth() {
+        int width = 0;
+        for (Rendition r : active) {
+            if (r.width == 0) {
+                width = Math.max(width, r.getLastWidth());
+            }
+        }
+        return width;
+    }
+    
+    private Rendition closestRendition(int width, int quality) {
+        Rendition best = null;
+        long bestScore = Long.MAX_VALUE;
+        for (Rendition r : renditions.values()) {
+            // Width first, with the source width counted as large
+            long dw = Math.abs((r.width > 0 ? r.width : 4096) - (width > 0 ? width : 4096));
+            long score = dw * 100 + Math.abs(r.quality - quality);
+            if (score < bestScore) {
+                bestScore = score;
+                best = r;
+            }
+        }
+        return best;
+    }
+    
+    public int getViewerCount() {
+        int count = 0;
+        for (Rendition r : active) {
+            count += r.hub.getViewerCount();
+        }
+        return count;
     }
     
     /**
-     * Get queue size for debugging.
+     * Frames encoded and published so far, over all renditions.
      */
-    public int getQueueSize() {
-        return frameQueue.size();
+    public synchronized long getPublishedCount() {
+        long published = retiredPublished;
+        for (Rendition r : active) {
+            published += r.hub.getPublishedCount();
+        }
+        return published;
     }
     
     /**
-     * Convert bitmap to JPEG bytes.
+     * Published frames, renditions, per-viewer delivered/skipped counters and the
+     * settings each client is currently adapted to.
      */
-    private byte[] bitmapToJpeg(Bitmap bitmap) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, stream);
-        return stream.toByteArray();
+    public JsonObject getStats() {
+        JsonObject json = new JsonObject();
+        json.addProperty("published", getPublishedCount());
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            json.addProperty("active", idleSinceMs == 0);
+            json.addProperty("captureIntervalMs", getCaptureIntervalMs());
+            json.addProperty("idleMs", idleMs + (idleSinceMs != 0 ? now - idleSinceMs : 0));
+            json.addProperty("wakeups", wakeups);
+        }
+        YOLO11Ncnn yolo = nativeSource;
+        json.addProperty("source", yolo != null ? "native" : "pixelcopy");
+        String reason = fallbackReason;
+        if (reason != null) {
+            json.addProperty("fallbackReason", reason);
+        }
+        if (yolo != null) {
+            long[] s = yolo.getStreamStats();
+            JsonObject tap = new JsonObject();
+            tap.addProperty("encoded", s[0]);
+            tap.addProperty("replaced", s[1]);
+            tap.addProperty("noFreeSlot", s[2]);
+            tap.addProperty("tooLarge", s[3]);
+            json.add("nativeTap", tap);
+        }
+        FrameEncoder e = encoder;
+        if (e != null) {
+            json.add("encoder", e.getStats());
+            json.add("bitmapPool", bitmapPool.toJson());
+        }
+        JsonArray list = new JsonArray();
+        JsonArray viewers = new JsonArray();
+        for (Rendition r : active) {
+            JsonObject rendition = r.toJson();
+            rendition.addProperty("viewers", r.hub.getViewerCount());
+            list.add(rendition);
+            for (FrameHub.Viewer v : r.hub.getViewers()) {
+                JsonObject viewer = new JsonObject();
+                viewer.addProperty("name", v.getName());
+                viewer.addProperty("rendition", r.id);
+                viewer.addProperty("fps", v.getIntervalMs() > 0 ? 1000.0 / v.getIntervalMs() : Rendition.MAX_FPS);
+                viewer.addProperty("delivered", v.getDelivered());
+                viewer.addProperty("skipped", v.getSkipped());
+                viewer.addProperty("bytes", v.getBytes());
+                viewer.addProperty("since", v.getOpenedMs());
+                viewers.add(viewer);
+            }
+        }
+        json.add("renditions", list);
+        json.add("viewers", viewers);
+        JsonArray clientList = new JsonArray();
+        for (AdaptiveViewer c : clients) {
+            clientList.add(c.toJson());
+        }
+        json.add("clients", clientList);
+        return json;
     }
     
     /**
@@ -0,0 +1,294 @@
+/**
+ * WebSocketSession.java
+ *
+ * Per-connection state of the WebSocket server, kept as the connection's
+ * attachment: the topics the client subscribed to, the last state sent on
+ * each state topic (so only changed fields go out next time), its teleop
+ * channel state and its OutboundQueue.
+ *
+ * Messages are written from the queue only while the socket has less than
+ * SOCKET_HIGH_WATER_BYTES waiting to go out, so a slow client backs up in
+ * the bounded queue rather than in Java-WebSocket's unbounded one. A client
+ * that keeps a backlog for longer than SLOW_CLIENT_LAG_MS is disconnected.
+ */
+package com.tencent.yolo11ncnn;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class WebSocketSession {
+    // Bytes Java-WebSocket may hold for the socket before we stop handing it frames
+    public static final int SOCKET_HIGH_WATER_BYTES = 64 * 1024;
+    public static final long SLOW_CLIENT_LAG_MS = 5000;
+
+    private final WebSocket conn;
+    private final SimpleWebSocketServer server;
+    // Client negotiated permessage-deflate, so it gets compressed shared frames
+    private final boolean deflate;
+    final OutboundQueue outbound = new OutboundQueue();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    // When the queue last failed to drain completely, 0 while caught up
+    private volatile long stalledSinceNs = 0;
+
+    private final Set<String> topics = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Last state sent per state topic, guarded by this
+    private final Map<String, JsonObject> lastState = new HashMap<>();
+    final TeleopChannel.ClientState teleop = new TeleopChannel.ClientState();
+    // What this client wants from the detections topic, null for everything
+    private volatile DetectionFilter detectionFilter;
+    // Detections as DetectionCodec frames instead of JSON
+    private volatile boolean binaryDetections = false;
+    // Last binary detection frame written, the base a delta must match; writer only
+    private long lastDetectionFrameId = -1;
+
+    WebSocketSession(WebSocket conn, SimpleWebSocketServer server) {
+        this.conn = conn;
+        this.server = server;
+        Draft draft = conn.getDraft();
+        this.deflate = draft instanceof Draft_6455
+                && ((Draft_6455) draft).getExtension() instanceof PerMessageDeflateExtension;
+    }
+
+    public boolean isDeflate() {
+        return deflate;
+    }
+
+    public WebSocket getConnection() {
+        return conn;
+    }
+
+    /**
+     * Queue a message under policy and write what the socket can take now.
+     */
+    public void send(OutboundQueue.Policy policy, String key, Object payload) {
+        outbound.offer(policy, key, payload);
+        flush();
+    }
+
+    /**
+     * Queue a reply or ack; these are never dropped.
+     */
+    public void sendControl(Object payload) {
+        send(OutboundQueue.Policy.NEVER_DROP, null, payload);
+    }
+
+    /**
+     * Write queued messages until the queue is empty or the socket backs up.
+     * Returns true if messages are still waiting.
+     */
+    boolean flush() {
+        // One writer at a time keeps messages in order. The current writer may already
+        // be past its last poll, so the sender thread picks up what was just queued.
+        if (!draining.compareAndSet(false, true)) {
+            server.wakeSender();
+            return true;
+        }
+        try {
+            while (conn.isOpen() && socketBacklogBytes() < SOCKET_HIGH_WATER_BYTES) {
+                OutboundQueue.Message m = outbound.poll();
+                if (m == null) break;
+                write(m);
+            }
+        } catch (WebsocketNotConnectedException e) {
+            // Closed while writing; onClose drops the session
+        } finally {
+            draining.set(false);
+        }
+        boolean pending = !outbound.isEmpty();
+        if (!pending) {
+            stalledSinceNs = 0;
+        } else if (stalledSinceNs == 0) {
+            stalledSinceNs = System.nanoTime();
+            server.wakeSender();
+        }
+        return pending;
+    }
+
+    private void write(OutboundQueue.Message m) {
+        if (m.payload instanceof DetectionCodec.Payload) {
+            DetectionCodec.Payload frame = (DetectionCodec.Payload) m.payload;
+            // A delta only applies on top of the frame this client got last
+            boolean delta = frame.delta != null && frame.baseFrameId == lastDetectionFrameId;
+            lastDetectionFrameId = frame.frameId;
+            writePrepared(delta ? frame.delta : frame.key);
+            server.onDetectionFrameWritten(delta);
+            return;
+        }
+        if (m.payload instanceof PreparedMessage) {
+            writePrepared((PreparedMessage) m.payload);
+            return;
+        }
+        if (m.payload instanceof JsonObject) {
+            String state = renderState(m.key, (JsonObject) m.payload);
+            if (state == null) {
+                server.onStateSkipped();
+                return;
+            }
+            conn.send(state);
+        } else if (m.payload instanceof ByteBuffer) {
+            conn.send((ByteBuffer) m.payload);
+        } else {
+            conn.send((String) m.payload);
+        }
+        server.onMessageSent();
+    }
+
+    private void writePrepared(PreparedMessage prepared) {
+        // The frame is already complete, so it goes straight into the connection's write
+        // queue the way WebSocketImpl does it, skipping the per-connection re-encode
+        ((WebSocketImpl) conn).outQueue.add(prepared.frame(deflate));
+        server.onWriteDemand(conn);
+        server.onSharedFrameWritten(prepared.savedBytes(deflate));
+    }
+
+    /**
+     * The state message for topic, with only what changed since the last one this
+     * client got, or null if nothing did.
+     */
+    private String renderState(String topic, JsonObject state) {
+        JsonObject delta = nextDelta(topic, state);
+        if (delta == null) {
+            return null;
+        }
+        JsonObject msg = new JsonObject();
+        msg.addProperty("type", "state");
+        msg.addProperty("topic", topic);
+        // The first update is the state object itself, later ones are fresh deltas
+        msg.addProperty("full", delta == state);
+        msg.add("data", delta);
+        return msg.toString();
+    }
+
+    private long socketBacklogBytes() {
+        long bytes = 0;
+        for (ByteBuffer b : ((WebSocketImpl) conn).outQueue) {
+            bytes += b.remaining();
+        }
+        return bytes;
+    }
+
+    /**
+     * How long the client has had messages it could not take, 0 if caught up.
+     */
+    public long getLagMs() {
+        long since = stalledSinceNs;
+        return since == 0 ? 0 : (System.nanoTime() - since) / 1_000_000L;
+    }
+
+    public JsonObject statsJson() {
+        JsonObject json = outbound.toJson();
+        json.addProperty("client", String.valueOf(conn.getRemoteSocketAddress()));
+        json.addProperty("socketBytes", socketBacklogBytes());
+        json.addProperty("lagMs", getLagMs());
+        json.addProperty("deflate", deflate);
+        JsonArray subscribed = new JsonArray();
+        for (String t : topics) {
+            subscribed.add(t);
+        }
+        json.add("topics", subscribed);
+        DetectionFilter filter = detectionFilter;
+        if (filter != null) {
+            json.add("detectionFilter", filter.toJson());
+        }
+        json.addProperty("detectionFormat", binaryDetections ? "binary" : "json");
+        return json;
+    }
+
+    public boolean isSubscribed(String topic) {
+        return topics.contains(topic);
+    }
+
+    public Set<String> getTopics() {
+        return topics;
+    }
+
+    /**
+     * Subscribe; a state topic's next update is sent in full.
+     */
+    public void subscribe(String topic) {
+        topics.add(topic);
+        synchronized (this) {
+            lastState.remove(topic);
+        }
+    }
+
+    public DetectionFilter getDetectionFilter() {
+        return detectionFilter;
+    }
+
+    public void setDetectionFilter(DetectionFilter filter) {
+        this.detectionFilter = filter;
+    }
+
+    public boolean isBinaryDetections() {
+        return binaryDetections;
+    }
+
+    public void setBinaryDetections(boolean binary) {
+        this.binaryDetections = binary;
+        lastDetectionFrameId = -1;
+    }
+
+    public void unsubscribe(String topic) {
+        topics.remove(topic);
+        synchronized (this) {
+            lastState.remove(topic);
+        }
+    }
+
+    /**
+     * Fields of state that differ from what this client last got on topic, or null if
+     * nothing changed. Records state as sent. The first update on a topic is the whole state.
+     * state must not be modified afterwards.
+     */
+    private synchronized JsonObject nextDelta(String topic, JsonObject state) {
+        JsonObject prev = lastState.put(topic, state);
+        if (prev == null) {
+            return state;
+        }
+        JsonObject delta = diff(prev, state);
+        return delta.size() > 0 ? delta : null;
+    }
+
+    /**
+     * Changed fields of next relative to prev, recursing into nested objects.
+     * Removed fields are present with a null value.
+     */
+    static JsonObject diff(JsonObject prev, JsonObject next) {
+        JsonObject delta = new JsonObject();
+        for (Map.Entry<String, JsonElement> e : next.entrySet()) {
+            JsonElement before = prev.get(e.getKey());
+            JsonElement after = e.getValue();
+            if (before == null || !before.equals(after)) {
+                if (before != null && before.isJsonObject() && after.isJsonObject()) {
+                    delta.add(e.getKey(), diff(before.getAsJsonObject(), after.getAsJsonObject()));
+                } else {
+                    delta.add(e.getKey(), after);
+                }
+            }
+        }
+        for (String key : prev.keySet()) {
+            if (!next.has(key)) {
+                delta.add(key, JsonNull.INSTANCE);
+            }
+        }
+        return delta;
+    }
+}
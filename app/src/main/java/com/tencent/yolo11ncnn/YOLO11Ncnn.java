@@ -17,6 +17,8 @@ package com.tencent.yolo11ncnn;
 import android.content.res.AssetManager;
 import android.view.Surface;
 
+import java.nio.ByteBuffer;
+
 public class YOLO11Ncnn
 {
     public native boolean loadModel(AssetManager mgr, int taskid, int modelid, int cpugpu);
@@ -28,6 +30,22 @@ public class YOLO11Ncnn
     // Register the Android Activity instance so native code can callback safely
     public native void registerActivity(android.app.Activity activity);
 
+    // Register pooled direct buffers native code writes detections into (see DetectionFrame for the layout).
+    // Native calls MainActivity.onDetectionFrame(slot) after filling a slot.
+    public native void setDetectionBuffers(ByteBuffer[] buffers);
+
+    // Native frame tap for the video stream: pooled direct buffers native code JPEG-encodes
+    // rendered frames into (see VideoStreamServer for the layout), once per rendition and at
+    // most once per its intervalMs. Renditions are replaced as a whole; a width of 0 keeps the frame size.
+    // Native calls MainActivity.onStreamFrame(slot); the slot stays untouched until releaseStreamSlot(slot).
+    // setStreamBuffers returns how many slots frames will arrive through; 0 means the tap cannot deliver.
+    public native int setStreamBuffers(ByteBuffer[] buffers);
+    public native void setStreamConfig(boolean enabled, boolean overlays);
+    public native void setStreamRenditions(int[] ids, int[] widths, int[] qualities, int[] intervalsMs);
+    public native void releaseStreamSlot(int slot);
+    // {encoded, replaced before encode, dropped for lack of a free slot, dropped as too large}
+    public native long[] getStreamStats();
+
     static {
         System.loadLibrary("yolo11ncnn");
     }
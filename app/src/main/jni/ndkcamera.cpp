@@ -48,6 +48,10 @@ static void onImageAvailable(void* context, AImageReader* reader)
     int32_t format;
     AImage_getFormat(image, &format);
 
+    int64_t timestamp_ns = 0;
+    AImage_getTimestamp(image, &timestamp_ns);
+    ((NdkCamera*)context)->image_timestamp_ns = timestamp_ns;
+
     // assert format == AIMAGE_FORMAT_YUV_420_888
 
     int32_t width = 0;
@@ -166,6 +170,7 @@ NdkCamera::NdkCamera()
 {
     camera_facing = 0;
     camera_orientation = 0;
+    image_timestamp_ns = 0;
 
     camera_manager = 0;
     camera_device = 0;
@@ -42,6 +42,8 @@ public:
 public:
     int camera_facing;
     int camera_orientation;
+    // sensor timestamp of the image being processed, valid during on_image
+    int64_t image_timestamp_ns;
 
 private:
     ACameraManager* camera_manager;
@@ -21,8 +21,13 @@
 #include <jni.h>
 
 #include <string>
+#include <string.h>
 #include <vector>
 #include <atomic>
+#include <algorithm>
+
+#include <pthread.h>
+#include <time.h>
 
 #include <platform.h>
 #include <benchmark.h>
@@ -33,6 +38,7 @@
 
 #include <opencv2/core/core.hpp>
 #include <opencv2/imgproc/imgproc.hpp>
+#include <opencv2/highgui/highgui.hpp>
 
 #if __ARM_NEON
 #include <arm_neon.h>
@@ -118,6 +124,308 @@ static std::atomic<int> g_display_rotation{0};
 static JavaVM* g_jvm_global = nullptr;
 // Global reference to the registered MainActivity instance (set via registerActivity)
 static jobject g_main_activity_global = nullptr;
+// MainActivity class and its static onDetectionFrame(int) callback, resolved once in registerActivity
+static jclass g_main_activity_class = nullptr;
+static jmethodID g_on_detection_frame = nullptr;
+static jmethodID g_on_stream_frame = nullptr;
+
+// Pooled direct ByteBuffers registered from Java via setDetectionBuffers, guarded by lock.
+// Layout must match DetectionFrame.java:
+//   header  int count, int capacity, int width, int height, int64 frame_id, int64 timestamp_ns
+//   body    int label[capacity], float score[capacity], x[capacity], y[capacity], w[capacity], h[capacity]
+#define DETECTION_HEADER_BYTES 32
+#define DETECTION_BYTES_PER_OBJECT 24
+static std::vector<jobject> g_detection_buffer_refs;
+static std::vector<unsigned char*> g_detection_buffers;
+static int g_detection_capacity = 0;
+static int g_detection_next_slot = 0;
+// Id of the frame being rendered, shared by its detections and its stream frame; camera thread only
+static int64_t g_frame_id = 0;
+
+// Video stream tap: rendered frames JPEG-encoded on a native thread into pooled direct
+// ByteBuffers registered from Java via setStreamBuffers. Layout must match VideoStreamServer.java:
+//   header  int length, int width, int height, int rendition_id, int64 frame_id, int64 camera_timestamp_ns
+//           int64 render_timestamp_ns (CLOCK_MONOTONIC, same clock as System.nanoTime)
+//   body    length bytes of JPEG
+// A slot is busy from encode until Java calls releaseStreamSlot, so viewers read it in place.
+// Each rendition (width, quality, interval) that viewers asked for is encoded into its own
+// slots; a frame is converted once and encoded once per rendition that is due.
+// Everything below is guarded by g_stream_mutex.
+#define STREAM_HEADER_BYTES 40
+static pthread_mutex_t g_stream_mutex = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t g_stream_cond = PTHREAD_COND_INITIALIZER;
+static std::vector<jobject> g_stream_buffer_refs;
+static std::vector<unsigned char*> g_stream_buffers;
+static std::vector<int> g_stream_capacity;
+static std::vector<char> g_stream_busy;
+static int g_stream_next_slot = 0;
+static bool g_stream_enabled = false;
+static bool g_stream_overlays = true;
+static bool g_stream_thread_started = false;
+struct StreamRendition
+{
+    int id;
+    int width;          // 0 = frame width
+    int quality;
+    int interval_ms;
+    int64_t last_ns;
+};
+static std::vector<StreamRendition> g_stream_renditions;
+// Latest frame waiting for the encoder thread, BGR, and the renditions it is due for
+static cv::Mat g_stream_pending;
+static std::vector<int> g_stream_pending_ids;
+static bool g_stream_has_pending = false;
+static int64_t g_stream_pending_frame_id = 0;
+static int64_t g_stream_pending_camera_ns = 0;
+static int64_t g_stream_pending_render_ns = 0;
+// encoded, replaced before encode, no free slot, larger than a slot
+static int64_t g_stream_stats[4] = {0, 0, 0, 0};
+
+static pthread_key_t g_jni_env_key;
+static pthread_once_t g_jni_env_key_once = PTHREAD_ONCE_INIT;
+
+static void detach_current_thread(void* env)
+{
+    if (env && g_jvm_global)
+        g_jvm_global->DetachCurrentThread();
+}
+
+static void make_jni_env_key()
+{
+    pthread_key_create(&g_jni_env_key, detach_current_thread);
+}
+
+// Attach the calling camera thread once and keep it attached until the thread exits,
+// instead of paying for attach/detach on every frame
+static JNIEnv* get_thread_env()
+{
+    if (!g_jvm_global)
+        return nullptr;
+
+    JNIEnv* env = nullptr;
+    if (g_jvm_global->GetEnv((void**)&env, JNI_VERSION_1_4) == JNI_OK)
+        return env;
+
+    if (g_jvm_global->AttachCurrentThread(&env, NULL) != 0)
+        return nullptr;
+
+    pthread_once(&g_jni_env_key_once, make_jni_env_key);
+    pthread_setspecific(g_jni_env_key, env);
+
+    return env;
+}
+
+static int64_t monotonic_time_ns()
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+// Write objects into the next pooled buffer as struct-of-arrays, returns the slot index or -1
+static int write_detection_frame(const cv::Mat& rgb, const std::vector<Object>& objects, int64_t frame_id)
+{
+    if (g_detection_buffers.empty())
+        return -1;
+
+    const int slot = g_detection_next_slot;
+    g_detection_next_slot = (g_detection_next_slot + 1) % (int)g_detection_buffers.size();
+
+    const int capacity = g_detection_capacity;
+    const int count = std::min((int)objects.size(), capacity);
+
+    unsigned char* base = g_detection_buffers[slot];
+    int* header = (int*)base;
+    header[0] = count;
+    header[1] = capacity;
+    header[2] = rgb.cols;
+    header[3] = rgb.rows;
+    int64_t* stamps = (int64_t*)(base + 16);
+    stamps[0] = frame_id;
+    stamps[1] = monotonic_time_ns();
+
+    int* labels = (int*)(base + DETECTION_HEADER_BYTES);
+    float* scores = (float*)(labels + capacity);
+    float* xs = scores + capacity;
+    float* ys = xs + capacity;
+    float* ws = ys + capacity;
+    float* hs = ws + capacity;
+    for (int i = 0; i < count; i++)
+    {
+        const Object& o = objects[i];
+        labels[i] = o.label;
+        scores[i] = o.prob;
+        xs[i] = o.rect.x;
+        ys[i] = o.rect.y;
+        ws[i] = o.rect.width;
+        hs[i] = o.rect.height;
+    }
+
+    return slot;
+}
+
+// Encode one rendition of frame into a free slot and hand it to Java; encoder thread only
+static void stream_encode_rendition(const cv::Mat& frame, cv::Mat& scaled, int id, int64_t frame_id, int64_t camera_ns,
+                                    int64_t render_ns, std::vector<uchar>& jpeg, std::vector<int>& params)
+{
+    int width = -1;
+    {
+        pthread_mutex_lock(&g_stream_mutex);
+        for (size_t i = 0; i < g_stream_renditions.size(); i++)
+        {
+            if (g_stream_renditions[i].id == id)
+            {
+                width = g_stream_renditions[i].width;
+                params[1] = g_stream_renditions[i].quality;
+            }
+        }
+        pthread_mutex_unlock(&g_stream_mutex);
+    }
+    // dropped since the frame was taken
+    if (width < 0)
+        return;
+
+    const cv::Mat* work = &frame;
+    if (width > 0 && width < frame.cols)
+    {
+        int height = std::max(1, (int)((int64_t)frame.rows * width / frame.cols));
+        cv::resize(frame, scaled, cv::Size(width, height), 0, 0, cv::INTER_AREA);
+        work = &scaled;
+    }
+
+    cv::imencode(".jpg", *work, jpeg, params);
+
+    int slot = -1;
+    {
+        pthread_mutex_lock(&g_stream_mutex);
+        const int n = (int)g_stream_buffers.size();
+        for (int i = 0; i < n && slot < 0; i++)
+        {
+            int s = (g_stream_next_slot + i) % n;
+            if (!g_stream_busy[s])
+                slot = s;
+        }
+        if (slot < 0)
+        {
+            g_stream_stats[2]++;
+        }
+        else if ((int)jpeg.size() > g_stream_capacity[slot] - STREAM_HEADER_BYTES)
+        {
+            g_stream_stats[3]++;
+            slot = -1;
+        }
+        else
+        {
+            g_stream_next_slot = (slot + 1) % n;
+            g_stream_busy[slot] = 1;
+
+            unsigned char* base = g_stream_buffers[slot];
+            int* header = (int*)base;
+            header[0] = (int)jpeg.size();
+            header[1] = work->cols;
+            header[2] = work->rows;
+            header[3] = id;
+            int64_t* stamps = (int64_t*)(base + 16);
+            stamps[0] = frame_id;
+            stamps[1] = camera_ns;
+            stamps[2] = render_ns;
+            memcpy(base + STREAM_HEADER_BYTES, jpeg.data(), jpeg.size());
+            g_stream_stats[0]++;
+        }
+        pthread_mutex_unlock(&g_stream_mutex);
+    }
+    if (slot < 0)
+        return;
+
+    JNIEnv* env = get_thread_env();
+    if (env && g_on_stream_frame != nullptr)
+    {
+        env->CallStaticVoidMethod(g_main_activity_class, g_on_stream_frame, (jint)slot);
+        if (env->ExceptionCheck())
+        {
+            env->ExceptionDescribe();
+            env->ExceptionClear();
+        }
+    }
+    else
+    {
+        // nobody to hand it to
+        pthread_mutex_lock(&g_stream_mutex);
+        g_stream_busy[slot] = 0;
+        pthread_mutex_unlock(&g_stream_mutex);
+    }
+}
+
+// Encoder thread: takes the newest pending frame and encodes each rendition it is due for
+static void* stream_encoder_thread(void*)
+{
+    cv::Mat work;
+    cv::Mat scaled;
+    std::vector<int> ids;
+    std::vector<uchar> jpeg;
+    std::vector<int> params(2);
+    params[0] = CV_IMWRITE_JPEG_QUALITY;
+
+    while (true)
+    {
+        int64_t frame_id, camera_ns, render_ns;
+        {
+            pthread_mutex_lock(&g_stream_mutex);
+            while (!g_stream_has_pending)
+                pthread_cond_wait(&g_stream_cond, &g_stream_mutex);
+            // swap buffers so the camera thread converts the next frame into the old one
+            cv::swap(work, g_stream_pending);
+            ids.swap(g_stream_pending_ids);
+            g_stream_pending_ids.clear();
+            g_stream_has_pending = false;
+            frame_id = g_stream_pending_frame_id;
+            camera_ns = g_stream_pending_camera_ns;
+            render_ns = g_stream_pending_render_ns;
+            pthread_mutex_unlock(&g_stream_mutex);
+        }
+
+        for (size_t r = 0; r < ids.size(); r++)
+            stream_encode_rendition(work, scaled, ids[r], frame_id, camera_ns, render_ns, jpeg, params);
+    }
+
+    return 0;
+}
+
+// Hand the frame to the encoder thread if streaming is on and some rendition's interval has passed.
+// Converts to BGR for imencode; a frame the encoder has not started on yet is replaced, keeping
+// the renditions it was due for so a slow rendition does not lose its turn.
+static void stream_frame(const cv::Mat& rgb, int64_t frame_id, int64_t camera_ns, int64_t render_ns)
+{
+    pthread_mutex_lock(&g_stream_mutex);
+    bool due = false;
+    if (g_stream_enabled && !g_stream_buffers.empty())
+    {
+        for (size_t i = 0; i < g_stream_renditions.size(); i++)
+        {
+            StreamRendition& r = g_stream_renditions[i];
+            // a quarter interval of slack so camera jitter does not halve the rate
+            const int64_t interval_ns = (int64_t)r.interval_ms * 1000000LL;
+            if (render_ns - r.last_ns < interval_ns - interval_ns / 4)
+                continue;
+            r.last_ns = render_ns;
+            due = true;
+            if (std::find(g_stream_pending_ids.begin(), g_stream_pending_ids.end(), r.id) == g_stream_pending_ids.end())
+                g_stream_pending_ids.push_back(r.id);
+        }
+    }
+    if (due)
+    {
+        if (g_stream_has_pending)
+            g_stream_stats[1]++;
+        cv::cvtColor(rgb, g_stream_pending, cv::COLOR_RGB2BGR);
+        g_stream_pending_frame_id = frame_id;
+        g_stream_pending_camera_ns = camera_ns;
+        g_stream_pending_render_ns = render_ns;
+        g_stream_has_pending = true;
+        pthread_cond_signal(&g_stream_cond);
+    }
+    pthread_mutex_unlock(&g_stream_mutex);
+}
 
 class MyNdkCamera : public NdkCameraWindow
 {
@@ -144,6 +452,16 @@ void MyNdkCamera::on_image_render(cv::Mat& rgb) const
         rgb = tmp;
     }
 
+    int detection_slot = -1;
+    const int64_t frame_id = ++g_frame_id;
+    const int64_t render_ns = monotonic_time_ns();
+    bool stream_overlays;
+    {
+        pthread_mutex_lock(&g_stream_mutex);
+        stream_overlays = g_stream_overlays;
+        pthread_mutex_unlock(&g_stream_mutex);
+    }
+
     // yolo11
     {
         ncnn::MutexLockGuard g(lock);
@@ -153,62 +471,16 @@ void MyNdkCamera::on_image_render(cv::Mat& rgb) const
             std::vector<Object> objects;
             g_yolo11->detect(rgb, objects);
 
+            // a clean stream is taken before the boxes are drawn
+            if (!stream_overlays)
+                stream_frame(rgb, frame_id, image_timestamp_ns, render_ns);
+
             g_yolo11->draw(rgb, objects);
-            // If we have detections, convert to JSON and call back into Java
-            if (!objects.empty() && g_jvm_global != nullptr)
+
+            // If we have detections, hand them to Java through the pooled buffers
+            if (!objects.empty())
             {
-                std::string json = "[";
-                for (size_t i = 0; i < objects.size(); i++)
-                {
-                    const Object& o = objects[i];
-                    float x = o.rect.x;
-                    float y = o.rect.y;
-                    float w = o.rect.width;
-                    float h = o.rect.height;
-                    int label = o.label;
-                    float prob = o.prob;
-                    char buf[256];
-                    snprintf(buf, sizeof(buf), "{\"label\":%d,\"x\":%.1f,\"y\":%.1f,\"w\":%.1f,\"h\":%.1f,\"score\":%.4f}", label, x, y, w, h, prob);
-                    json += buf;
-                    if (i + 1 < objects.size()) json += ",";
-                }
-                json += "]";
-
-                // Attach to JVM and call MainActivity.pushDetectionsToScripts using the registered activity
-                JNIEnv* env = nullptr;
-                bool attached = false;
-                if (g_jvm_global->GetEnv((void**)&env, JNI_VERSION_1_4) == JNI_EDETACHED)
-                {
-                    if (g_jvm_global->AttachCurrentThread(&env, NULL) == 0)
-                    {
-                        attached = true;
-                    }
-                    else
-                    {
-                        env = nullptr;
-                    }
-                }
-
-                if (env && g_main_activity_global != nullptr)
-                {
-                    // Get the MainActivity class from the global activity reference
-                    jclass cls = env->GetObjectClass(g_main_activity_global);
-                    if (cls)
-                    {
-                        // Call the static helper defined on MainActivity
-                        jmethodID mid = env->GetStaticMethodID(cls, "pushDetectionsToScripts", "(Ljava/lang/String;)V");
-                        if (mid)
-                        {
-                            jstring jstr = env->NewStringUTF(json.c_str());
-                            env->CallStaticVoidMethod(cls, mid, jstr);
-                            env->DeleteLocalRef(jstr);
-                        }
-                        env->DeleteLocalRef(cls);
-                    }
-                }
-
-                if (env && attached)
-                    g_jvm_global->DetachCurrentThread();
+                detection_slot = write_detection_frame(rgb, objects, frame_id);
             }
         }
         else
@@ -217,7 +489,25 @@ void MyNdkCamera::on_image_render(cv::Mat& rgb) const
         }
     }
 
+    // Notify Java outside the model lock so a slow consumer never blocks loadModel
+    if (detection_slot >= 0 && g_on_detection_frame != nullptr)
+    {
+        JNIEnv* env = get_thread_env();
+        if (env)
+        {
+            env->CallStaticVoidMethod(g_main_activity_class, g_on_detection_frame, (jint)detection_slot);
+            if (env->ExceptionCheck())
+            {
+                env->ExceptionDescribe();
+                env->ExceptionClear();
+            }
+        }
+    }
+
     draw_fps(rgb);
+
+    if (stream_overlays)
+        stream_frame(rgb, frame_id, image_timestamp_ns, render_ns);
 }
 
 static MyNdkCamera* g_camera = 0;
@@ -248,10 +538,212 @@ JNIEXPORT void JNICALL Java_com_tencent_yolo11ncnn_YOLO11Ncnn_registerActivity(J
         g_main_activity_global = nullptr;
     }
 
+    if (g_main_activity_class != nullptr)
+    {
+        env->DeleteGlobalRef(g_main_activity_class);
+        g_main_activity_class = nullptr;
+        g_on_detection_frame = nullptr;
+        g_on_stream_frame = nullptr;
+    }
+
     if (activity != nullptr)
     {
         g_main_activity_global = env->NewGlobalRef(activity);
+
+        jclass cls = env->GetObjectClass(activity);
+        g_main_activity_class = (jclass)env->NewGlobalRef(cls);
+        g_on_detection_frame = env->GetStaticMethodID(cls, "onDetectionFrame", "(I)V");
+        if (env->ExceptionCheck())
+        {
+            env->ExceptionClear();
+            g_on_detection_frame = nullptr;
+        }
+        g_on_stream_frame = env->GetStaticMethodID(cls, "onStreamFrame", "(I)V");
+        if (env->ExceptionCheck())
+        {
+            env->ExceptionClear();
+            g_on_stream_frame = nullptr;
+        }
+        env->DeleteLocalRef(cls);
+    }
+}
+
+// public native void setDetectionBuffers(ByteBuffer[] buffers);
+JNIEXPORT void JNICALL Java_com_tencent_yolo11ncnn_YOLO11Ncnn_setDetectionBuffers(JNIEnv* env, jobject thiz, jobjectArray buffers)
+{
+    ncnn::MutexLockGuard g(lock);
+
+    for (size_t i = 0; i < g_detection_buffer_refs.size(); i++)
+    {
+        env->DeleteGlobalRef(g_detection_buffer_refs[i]);
+    }
+    g_detection_buffer_refs.clear();
+    g_detection_buffers.clear();
+    g_detection_capacity = 0;
+    g_detection_next_slot = 0;
+
+    if (buffers == nullptr)
+        return;
+
+    const int n = env->GetArrayLength(buffers);
+    int capacity = 0;
+    for (int i = 0; i < n; i++)
+    {
+        jobject buf = env->GetObjectArrayElement(buffers, i);
+        unsigned char* addr = buf ? (unsigned char*)env->GetDirectBufferAddress(buf) : nullptr;
+        jlong size = buf ? env->GetDirectBufferCapacity(buf) : 0;
+        if (!addr || size < DETECTION_HEADER_BYTES)
+        {
+            __android_log_print(ANDROID_LOG_WARN, "ncnn", "setDetectionBuffers: slot %d is not a usable direct buffer", i);
+            if (buf) env->DeleteLocalRef(buf);
+            continue;
+        }
+
+        // every slot uses the smallest capacity so the arrays line up identically
+        int slot_capacity = (int)((size - DETECTION_HEADER_BYTES) / DETECTION_BYTES_PER_OBJECT);
+        capacity = g_detection_buffers.empty() ? slot_capacity : std::min(capacity, slot_capacity);
+
+        g_detection_buffer_refs.push_back(env->NewGlobalRef(buf));
+        g_detection_buffers.push_back(addr);
+        env->DeleteLocalRef(buf);
+    }
+    g_detection_capacity = capacity;
+
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setDetectionBuffers %d slots, capacity %d", (int)g_detection_buffers.size(), capacity);
+}
+
+// public native int setStreamBuffers(ByteBuffer[] buffers);
+// Returns the number of slots frames will be delivered through: 0 if none is usable, the
+// encoder thread could not start or MainActivity.onStreamFrame was not found.
+JNIEXPORT jint JNICALL Java_com_tencent_yolo11ncnn_YOLO11Ncnn_setStreamBuffers(JNIEnv* env, jobject thiz, jobjectArray buffers)
+{
+    pthread_mutex_lock(&g_stream_mutex);
+
+    for (size_t i = 0; i < g_stream_buffer_refs.size(); i++)
+    {
+        env->DeleteGlobalRef(g_stream_buffer_refs[i]);
+    }
+    g_stream_buffer_refs.clear();
+    g_stream_buffers.clear();
+    g_stream_capacity.clear();
+    g_stream_busy.clear();
+    g_stream_next_slot = 0;
+
+    const int n = buffers != nullptr ? env->GetArrayLength(buffers) : 0;
+    for (int i = 0; i < n; i++)
+    {
+        jobject buf = env->GetObjectArrayElement(buffers, i);
+        unsigned char* addr = buf ? (unsigned char*)env->GetDirectBufferAddress(buf) : nullptr;
+        jlong size = buf ? env->GetDirectBufferCapacity(buf) : 0;
+        if (!addr || size <= STREAM_HEADER_BYTES)
+        {
+            __android_log_print(ANDROID_LOG_WARN, "ncnn", "setStreamBuffers: slot %d is not a usable direct buffer", i);
+            if (buf) env->DeleteLocalRef(buf);
+            continue;
+        }
+
+        g_stream_buffer_refs.push_back(env->NewGlobalRef(buf));
+        g_stream_buffers.push_back(addr);
+        g_stream_capacity.push_back((int)std::min(size, (jlong)0x7fffffff));
+        g_stream_busy.push_back(0);
+        env->DeleteLocalRef(buf);
+    }
+
+    if (!g_stream_buffers.empty() && !g_stream_thread_started)
+    {
+        pthread_t thread;
+        if (pthread_create(&thread, 0, stream_encoder_thread, 0) == 0)
+        {
+            pthread_detach(thread);
+            g_stream_thread_started = true;
+        }
     }
+
+    const int usable = g_stream_thread_started && g_on_stream_frame != nullptr ? (int)g_stream_buffers.size() : 0;
+
+    pthread_mutex_unlock(&g_stream_mutex);
+
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setStreamBuffers %d slots, %d usable", n, usable);
+
+    return usable;
+}
+
+// public native void setStreamConfig(boolean enabled, boolean overlays);
+JNIEXPORT void JNICALL Java_com_tencent_yolo11ncnn_YOLO11Ncnn_setStreamConfig(JNIEnv* env, jobject thiz, jboolean enabled, jboolean overlays)
+{
+    pthread_mutex_lock(&g_stream_mutex);
+    g_stream_enabled = enabled;
+    g_stream_overlays = overlays;
+    pthread_mutex_unlock(&g_stream_mutex);
+
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setStreamConfig enabled=%d overlays=%d", enabled, overlays);
+}
+
+// public native void setStreamRenditions(int[] ids, int[] widths, int[] qualities, int[] intervalsMs);
+JNIEXPORT void JNICALL Java_com_tencent_yolo11ncnn_YOLO11Ncnn_setStreamRenditions(JNIEnv* env, jobject thiz, jintArray ids, jintArray widths, jintArray qualities, jintArray intervalsMs)
+{
+    int n = ids != nullptr ? env->GetArrayLength(ids) : 0;
+    if (n > 0 && (widths == nullptr || qualities == nullptr || intervalsMs == nullptr
+                  || env->GetArrayLength(widths) < n || env->GetArrayLength(qualities) < n || env->GetArrayLength(intervalsMs) < n))
+    {
+        __android_log_print(ANDROID_LOG_WARN, "ncnn", "setStreamRenditions: arrays differ in length");
+        return;
+    }
+
+    std::vector<jint> id(n), width(n), quality(n), interval(n);
+    if (n > 0)
+    {
+        env->GetIntArrayRegion(ids, 0, n, id.data());
+        env->GetIntArrayRegion(widths, 0, n, width.data());
+        env->GetIntArrayRegion(qualities, 0, n, quality.data());
+        env->GetIntArrayRegion(intervalsMs, 0, n, interval.data());
+    }
+
+    pthread_mutex_lock(&g_stream_mutex);
+    std::vector<StreamRendition> renditions(n);
+    for (int i = 0; i < n; i++)
+    {
+        StreamRendition& r = renditions[i];
+        r.id = id[i];
+        r.width = std::max(0, (int)width[i]);
+        r.quality = std::max(1, std::min(100, (int)quality[i]));
+        r.interval_ms = std::max(0, (int)interval[i]);
+        // a rendition that already existed keeps its schedule
+        r.last_ns = 0;
+        for (size_t j = 0; j < g_stream_renditions.size(); j++)
+        {
+            if (g_stream_renditions[j].id == r.id)
+                r.last_ns = g_stream_renditions[j].last_ns;
+        }
+    }
+    g_stream_renditions.swap(renditions);
+    pthread_mutex_unlock(&g_stream_mutex);
+
+    __android_log_print(ANDROID_LOG_DEBUG, "ncnn", "setStreamRenditions %d renditions", n);
+}
+
+// public native void releaseStreamSlot(int slot);
+JNIEXPORT void JNICALL Java_com_tencent_yolo11ncnn_YOLO11Ncnn_releaseStreamSlot(JNIEnv* env, jobject thiz, jint slot)
+{
+    pthread_mutex_lock(&g_stream_mutex);
+    if (slot >= 0 && slot < (int)g_stream_busy.size())
+        g_stream_busy[slot] = 0;
+    pthread_mutex_unlock(&g_stream_mutex);
+}
+
+// public native long[] getStreamStats();
+JNIEXPORT jlongArray JNICALL Java_com_tencent_yolo11ncnn_YOLO11Ncnn_getStreamStats(JNIEnv* env, jobject thiz)
+{
+    jlong stats[4];
+    pthread_mutex_lock(&g_stream_mutex);
+    for (int i = 0; i < 4; i++)
+        stats[i] = g_stream_stats[i];
+    pthread_mutex_unlock(&g_stream_mutex);
+
+    jlongArray result = env->NewLongArray(4);
+    if (result)
+        env->SetLongArrayRegion(result, 0, 4, stats);
+    return result;
 }
 
 JNIEXPORT void JNI_OnUnload(JavaVM* vm, void* reserved)
@@ -277,6 +769,13 @@ JNIEXPORT void JNI_OnUnload(JavaVM* vm, void* reserved)
             env->DeleteGlobalRef(g_main_activity_global);
         }
         g_main_activity_global = nullptr;
+        if (env && g_main_activity_class != nullptr)
+        {
+            env->DeleteGlobalRef(g_main_activity_class);
+        }
+        g_main_activity_class = nullptr;
+        g_on_detection_frame = nullptr;
+        g_on_stream_frame = nullptr;
     }
 }
 
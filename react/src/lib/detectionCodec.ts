@@ -0,0 +1,83 @@
+// Decoder for DetectionCodec.java binary detection frames (all little-endian):
+//   header  'D' 'T' version type | u32 frameId | u32 baseFrameId | u16 width | u16 height | u16 records | u16 removed
+//   record  u16 id | u8 label | u8 score*255 | u16 x | u16 y | u16 w | u16 h   (pixels)
+//   then `removed` u16 ids.
+// Key frames (type 1) list every object; deltas (type 2) only new or changed objects
+// and removed ids, relative to baseFrameId.
+const HEADER_BYTES = 20;
+const RECORD_BYTES = 12;
+const TYPE_KEY = 1;
+const TYPE_DELTA = 2;
+
+export interface Detection {
+    id: number;
+    label: number;
+    score: number;
+    x: number;
+    y: number;
+    w: number;
+    h: number;
+}
+
+export interface DetectionFrame {
+    frameId: number;
+    width: number;
+    height: number;
+    detections: Detection[];
+}
+
+/** True if data starts with the DetectionCodec magic. */
+export function isDetectionFrame(data: ArrayBuffer): boolean {
+    if (data.byteLength < HEADER_BYTES) return false;
+    const b = new Uint8Array(data, 0, 2);
+    return b[0] === 0x44 && b[1] === 0x54;
+}
+
+/** Keeps the objects of the last frame so deltas can be applied on top of it. */
+export class DetectionStream {
+    private frameId = -1;
+    private objects = new Map<number, Detection>();
+
+    /** Decode a key frame or delta; null if it is a delta against a frame this stream does not have. */
+    decode(data: ArrayBuffer): DetectionFrame | null {
+        const v = new DataView(data);
+        const type = v.getUint8(3);
+        const frameId = v.getUint32(4, true);
+        const baseFrameId = v.getUint32(8, true);
+        const width = v.getUint16(12, true);
+        const height = v.getUint16(14, true);
+        const records = v.getUint16(16, true);
+        const removed = v.getUint16(18, true);
+
+        if (type === TYPE_DELTA) {
+            if (baseFrameId !== this.frameId) return null;
+        } else if (type === TYPE_KEY) {
+            this.objects.clear();
+        } else {
+            return null;
+        }
+        let o = HEADER_BYTES;
+        for (let i = 0; i < records; i++, o += RECORD_BYTES) {
+            const id = v.getUint16(o, true);
+            this.objects.set(id, {
+                id,
+                label: v.getUint8(o + 2),
+                score: v.getUint8(o + 3) / 255,
+                x: v.getUint16(o + 4, true),
+                y: v.getUint16(o + 6, true),
+                w: v.getUint16(o + 8, true),
+                h: v.getUint16(o + 10, true),
+            });
+        }
+        for (let i = 0; i < removed; i++, o += 2) {
+            this.objects.delete(v.getUint16(o, true));
+        }
+        this.frameId = frameId;
+        return { frameId, width, height, detections: [...this.objects.values()] };
+    }
+
+    reset() {
+        this.frameId = -1;
+        this.objects.clear();
+    }
+}
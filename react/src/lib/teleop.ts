@@ -0,0 +1,135 @@
+// Binary joystick frames for the phone's WebSocket teleop channel (TeleopChannel.java).
+// Command: 'T' 'P' version type=1 | u32 seq | u32 clientTimeUs | i16 x, y, r, e | u8 flags | u8 0
+// Ack:     'T' 'P' version type=2 | u32 seq | u32 clientTimeUs | u32 setpointToWireUs | u32 framesApplied
+const VERSION = 1;
+const TYPE_COMMAND = 1;
+const TYPE_ACK = 2;
+const COMMAND_BYTES = 22;
+const ACK_BYTES = 20;
+const FLAG_ACK_REQUEST = 0x01;
+
+// Send at most this often; the newest value is always the one that goes out
+const MAX_RATE_HZ = 60;
+// Resend a non-zero command this often so the robot's dead-man watchdog stays fed
+const KEEPALIVE_MS = 100;
+// Ask for an ack every this many frames to measure latency
+const ACK_EVERY = 10;
+const RECONNECT_MS = 1000;
+
+export type TeleopStats = {
+    connected: boolean;
+    framesSent: number;
+    rttMs: number;
+    setpointToWireUs: number;
+    // Estimate: half the round trip plus the phone's setpoint-to-UDP delay
+    inputToUdpMs: number;
+};
+
+type Axes = [number, number, number, number];
+
+const nowUs = () => Math.floor(performance.now() * 1000) >>> 0;
+const clamp = (v: number) => Math.max(-255, Math.min(255, Math.round(v)));
+
+export class TeleopClient {
+    private url: string;
+    private robot: string;
+    private onStats: (s: TeleopStats) => void;
+    private ws: WebSocket | null = null;
+    private closed = false;
+    private seq = 0;
+    private latest: Axes = [0, 0, 0, 0];
+    private sent: Axes = [0, 0, 0, 0];
+    private lastSendMs = 0;
+    private flushTimer: number | null = null;
+    private keepalive: number | null = null;
+    private stats: TeleopStats = { connected: false, framesSent: 0, rttMs: -1, setpointToWireUs: -1, inputToUdpMs: -1 };
+
+    constructor(url: string, robot: string, onStats: (s: TeleopStats) => void) {
+        this.url = url;
+        this.robot = robot;
+        this.onStats = onStats;
+    }
+
+    connect() {
+        this.closed = false;
+        const ws = new WebSocket(this.url);
+        ws.binaryType = "arraybuffer";
+        ws.onopen = () => {
+            ws.send(`teleop:${this.robot}`);
+            this.update({ connected: true });
+        };
+        ws.onmessage = (ev) => {
+            if (ev.data instanceof ArrayBuffer) this.onAck(ev.data);
+        };
+        ws.onclose = () => {
+            this.update({ connected: false });
+            if (!this.closed) setTimeout(() => this.connect(), RECONNECT_MS);
+        };
+        this.ws = ws;
+        if (this.keepalive === null) {
+            this.keepalive = window.setInterval(() => {
+                const moving = this.sent.some((v) => v !== 0);
+                if (moving && performance.now() - this.lastSendMs >= KEEPALIVE_MS) this.flush();
+            }, KEEPALIVE_MS / 2);
+        }
+    }
+
+    close() {
+        this.closed = true;
+        this.set(0, 0, 0, 0);
+        this.flush();
+        if (this.keepalive !== null) clearInterval(this.keepalive);
+        if (this.flushTimer !== null) clearTimeout(this.flushTimer);
+        this.keepalive = null;
+        this.flushTimer = null;
+        this.ws?.close();
+        this.ws = null;
+    }
+
+    /** Set the analog command (-255..255 per axis); sent at once or merged into the next frame. */
+    set(x: number, y: number, r: number, e: number) {
+        this.latest = [clamp(x), clamp(y), clamp(r), clamp(e)];
+        if (this.latest.every((v, i) => v === this.sent[i])) return;
+        const wait = 1000 / MAX_RATE_HZ - (performance.now() - this.lastSendMs);
+        if (wait <= 0) {
+            this.flush();
+        } else if (this.flushTimer === null) {
+            this.flushTimer = window.setTimeout(() => this.flush(), wait);
+        }
+    }
+
+    private flush() {
+        this.flushTimer = null;
+        const ws = this.ws;
+        if (!ws || ws.readyState !== WebSocket.OPEN) return;
+        this.seq = (this.seq + 1) >>> 0;
+        const buf = new ArrayBuffer(COMMAND_BYTES);
+        const v = new DataView(buf);
+        v.setUint8(0, 0x54); // 'T'
+        v.setUint8(1, 0x50); // 'P'
+        v.setUint8(2, VERSION);
+        v.setUint8(3, TYPE_COMMAND);
+        v.setUint32(4, this.seq, true);
+        v.setUint32(8, nowUs(), true);
+        this.latest.forEach((a, i) => v.setInt16(12 + i * 2, a, true));
+        v.setUint8(20, this.seq % ACK_EVERY === 0 ? FLAG_ACK_REQUEST : 0);
+        ws.send(buf);
+        this.sent = [...this.latest] as Axes;
+        this.lastSendMs = performance.now();
+        this.stats.framesSent++;
+    }
+
+    private onAck(data: ArrayBuffer) {
+        if (data.byteLength < ACK_BYTES) return;
+        const v = new DataView(data);
+        if (v.getUint8(0) !== 0x54 || v.getUint8(1) !== 0x50 || v.getUint8(3) !== TYPE_ACK) return;
+        const rttMs = ((nowUs() - v.getUint32(8, true)) >>> 0) / 1000;
+        const setpointToWireUs = v.getUint32(12, true);
+        this.update({ rttMs, setpointToWireUs, inputToUdpMs: rttMs / 2 + setpointToWireUs / 1000 });
+    }
+
+    private update(s: Partial<TeleopStats>) {
+        this.stats = { ...this.stats, ...s };
+        this.onStats(this.stats);
+    }
+}
@@ -0,0 +1,164 @@
+// Shared connection to the phone's WebSocket server (SimpleWebSocketServer.java).
+// Pages subscribe to topics instead of polling the HTTP API:
+//   event topics (script_log, detections, robot_command, broadcast) deliver each message as sent;
+//   state topics (status, scripts, metrics) deliver {"type":"state","topic","full","data"},
+//   where data holds only changed fields (null = removed), merged here into the full state.
+// Detections subscribed with format "binary" arrive as DetectionCodec frames and are
+// decoded here into the same {"type":"detections", frameId, width, height, detections} shape.
+import { DetectionStream, isDetectionFrame } from "./detectionCodec";
+
+const RECONNECT_MS = 1000;
+
+type Handler = (msg: any) => void;
+
+export interface SubscribeOptions {
+    /** Server-side detections filter: labels, minScore, roi, maxHz */
+    filter?: object;
+    /** Detections as compact binary frames (mostly deltas) instead of JSON */
+    format?: "json" | "binary";
+}
+
+let ws: WebSocket | null = null;
+let connected = false;
+let reconnectTimer: number | null = null;
+const handlers = new Map<string, Set<Handler>>();
+// Subscribe options per topic (detections only), resent on reconnect
+const options = new Map<string, SubscribeOptions>();
+const detectionStream = new DetectionStream();
+// Merged state per state topic, so late subscribers start from the current state
+const states = new Map<string, any>();
+const connectionHandlers = new Set<(connected: boolean) => void>();
+
+const url = () => `ws://${window.location.hostname || "localhost"}:8081`;
+
+function send(msg: object) {
+    if (ws && ws.readyState === WebSocket.OPEN) ws.send(JSON.stringify(msg));
+}
+
+function setConnected(value: boolean) {
+    connected = value;
+    connectionHandlers.forEach((h) => h(value));
+}
+
+function connect() {
+    if (ws) return;
+    const socket = new WebSocket(url());
+    socket.binaryType = "arraybuffer";
+    socket.onopen = () => {
+        // A new connection is a new server session: every state topic starts with a full update
+        // and binary detections with a key frame
+        states.clear();
+        detectionStream.reset();
+        const topics = [...handlers.keys()];
+        const plain = topics.filter((t) => !options.has(t));
+        if (plain.length > 0) send({ type: "subscribe", topics: plain });
+        options.forEach((opts, topic) => send({ type: "subscribe", topics: [topic], ...opts }));
+        setConnected(true);
+    };
+    socket.onmessage = (ev) => {
+        if (ev.data instanceof ArrayBuffer) {
+            if (!isDetectionFrame(ev.data)) return;
+            const frame = detectionStream.decode(ev.data);
+            if (frame) handlers.get("detections")?.forEach((h) => h({ type: "detections", ...frame }));
+            return;
+        }
+        if (typeof ev.data !== "string") return;
+        let msg: any;
+        try {
+            msg = JSON.parse(ev.data);
+        } catch {
+            return;
+        }
+        const topic = msg.type === "state" ? msg.topic : msg.type;
+        if (msg.type === "state") {
+            const prev = states.get(topic);
+            // Deltas before the first full update cannot be applied; the server always starts with one
+            if (!msg.full && prev === undefined) return;
+            states.set(topic, msg.full ? msg.data : merge(prev, msg.data));
+        }
+        handlers.get(topic)?.forEach((h) => h(msg));
+    };
+    socket.onclose = () => {
+        if (ws !== socket) return;
+        ws = null;
+        setConnected(false);
+        // Stay connected only while someone is subscribed
+        if (handlers.size > 0 && reconnectTimer === null) {
+            reconnectTimer = window.setTimeout(() => {
+                reconnectTimer = null;
+                if (handlers.size > 0) connect();
+            }, RECONNECT_MS);
+        }
+    };
+    ws = socket;
+}
+
+/**
+ * Receive every message on topic. Options (detections only) replace the ones the
+ * connection had, e.g. { filter: { labels: ["ball"], minScore: 0.5, maxHz: 5 }, format: "binary" }.
+ * Returns the unsubscribe function.
+ */
+export function subscribe(topic: string, handler: Handler, opts?: SubscribeOptions): () => void {
+    let set = handlers.get(topic);
+    if (opts) {
+        options.set(topic, opts);
+        detectionStream.reset();
+    }
+    if (!set || opts) send({ type: "subscribe", topics: [topic], ...opts });
+    if (!set) {
+        set = new Set();
+        handlers.set(topic, set);
+    }
+    set.add(handler);
+    connect();
+    return () => {
+        const s = handlers.get(topic);
+        if (!s) return;
+        s.delete(handler);
+        if (s.size === 0) {
+            handlers.delete(topic);
+            states.delete(topic);
+            options.delete(topic);
+            send({ type: "unsubscribe", topics: [topic] });
+        }
+        if (handlers.size === 0 && ws) {
+            const socket = ws;
+            ws = null;
+            socket.close();
+            setConnected(false);
+        }
+    };
+}
+
+function merge(target: any, delta: any): any {
+    const out = { ...target };
+    for (const [k, v] of Object.entries(delta)) {
+        if (v === null) {
+            delete out[k];
+        } else if (typeof v === "object" && !Array.isArray(v) && typeof out[k] === "object" && out[k] !== null && !Array.isArray(out[k])) {
+            out[k] = merge(out[k], v);
+        } else {
+            out[k] = v;
+        }
+    }
+    return out;
+}
+
+/** Receive the full, up-to-date state of a state topic each time it changes. */
+export function subscribeState<T = any>(topic: string, handler: (state: T) => void): () => void {
+    const unsubscribe = subscribe(topic, (msg) => {
+        if (msg.type === "state") handler(states.get(topic));
+    });
+    const current = states.get(topic);
+    if (current !== undefined) handler(current);
+    return unsubscribe;
+}
+
+/** Called with the connection state now and on every change. Returns the unsubscribe function. */
+export function onConnectionChange(handler: (connected: boolean) => void): () => void {
+    connectionHandlers.add(handler);
+    handler(connected);
+    return () => {
+        connectionHandlers.delete(handler);
+    };
+}
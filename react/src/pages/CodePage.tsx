@@ -1,5 +1,6 @@
 import { useEffect, useState, useRef } from "react";
 import Editor from '@monaco-editor/react';
+import { subscribe, subscribeState, onConnectionChange } from "@/lib/ws";
 
 const getBase = () => {
   const host = window.location.hostname || "localhost";
@@ -11,13 +12,41 @@ export default function CodePage() {
   const [running, setRunning] = useState(false);
   const [output, setOutput] = useState<string>("");
   const saveTimer = useRef<number | null>(null);
+  // Sequence number of the next log line we have not received yet
+  const nextSeq = useRef<number>(0);
+  // Pushed lines that arrive while an HTTP catch-up is in flight, applied after it
+  const pending = useRef<{ seq: number; line: string }[] | null>(null);
 
   useEffect(() => {
     loadScript();
-    const iv = setInterval(fetchStatus, 1000);
-    return () => clearInterval(iv);
+    // Log lines and run state are pushed; HTTP only fills gaps after (re)connecting or a missed line
+    const unsubs = [
+      subscribe("script_log", (msg) => {
+        if (msg.task === "main") appendLine(msg.seq, msg.line);
+      }),
+      subscribeState("scripts", (s) => {
+        setRunning(!!s.running);
+        const main = s.tasks?.main;
+        if (main && main.nextSeq > nextSeq.current) catchUp();
+      }),
+      onConnectionChange((connected) => {
+        if (connected) catchUp();
+      }),
+    ];
+    return () => unsubs.forEach((u) => u());
   }, []);
 
+  function appendLine(seq: number, line: string) {
+    if (pending.current) {
+      pending.current.push({ seq, line });
+    } else if (seq === nextSeq.current) {
+      nextSeq.current = seq + 1;
+      setOutput((prev) => prev + line + "\n");
+    } else if (seq > nextSeq.current) {
+      catchUp();
+    }
+  }
+
   async function loadScript() {
     try {
       const res = await fetch(`${getBase()}/api/script`);
@@ -51,15 +80,20 @@ export default function CodePage() {
     } catch (e) {}
   }
 
-  async function fetchStatus() {
+  async function catchUp() {
+    if (pending.current) return;
+    pending.current = [];
     try {
-      const res = await fetch(`${getBase()}/api/script/status`);
+      const res = await fetch(`${getBase()}/api/script/status?since=${nextSeq.current}`);
       const json = await res.json();
       if (json) {
-        setRunning(!!json.running);
-        if (json.output) setOutput(json.output);
+        if (typeof json.nextSeq === "number") nextSeq.current = json.nextSeq;
+        if (json.output) setOutput((prev) => (json.truncated ? "" : prev) + json.output);
       }
     } catch (e) {}
+    const queued = pending.current;
+    pending.current = null;
+    queued.forEach((l) => appendLine(l.seq, l.line));
   }
 
   return (
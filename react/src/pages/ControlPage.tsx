@@ -1,4 +1,11 @@
-import { useState, useEffect } from "react";
+import { useState, useEffect, useRef, type PointerEvent as ReactPointerEvent } from "react";
+import { TeleopClient, type TeleopStats } from "@/lib/teleop";
+import { subscribeState } from "@/lib/ws";
+
+// How often to feed the robot's dead-man watchdog while a move is active
+const HEARTBEAT_MS = 200;
+// Gamepad stick values below this are treated as centred
+const DEADZONE = 0.1;
 
 const getHttpBase = () => {
     const host = window.location.hostname || "localhost";
@@ -8,23 +15,85 @@ const getHttpBase = () => {
 export default function ControlPage() {
     const [status, setStatus] = useState<any>({ isMoving: false, lastCommand: "none", cameraFacing: 0 });
     const [speed, setSpeed] = useState(0.5);
+    const [driving, setDriving] = useState(false);
     const base = getHttpBase();
+    const teleop = useRef<TeleopClient | null>(null);
+    const [teleopStats, setTeleopStats] = useState<TeleopStats | null>(null);
+    const [stick, setStick] = useState({ x: 0, y: 0 });
+    const [turn, setTurn] = useState(0);
+    const [gamepad, setGamepad] = useState<string | null>(null);
+    const speedRef = useRef(speed);
 
     useEffect(() => {
-        const iv = setInterval(fetchStatus, 1000);
-        fetchStatus();
-        return () => clearInterval(iv);
+        speedRef.current = speed;
+    }, [speed]);
+
+    useEffect(() => {
+        const host = window.location.hostname || "localhost";
+        const client = new TeleopClient(`ws://${host}:8081`, "main", setTeleopStats);
+        client.connect();
+        teleop.current = client;
+        return () => client.close();
     }, []);
 
-    async function fetchStatus() {
-        try {
-            const res = await fetch(`${base}/api/robot/status`);
-            const json = await res.json();
-            if (json.success) setStatus({ isMoving: json.isMoving, lastCommand: json.lastCommand, cameraFacing: json.cameraFacing });
-        } catch (e) {
-            // ignore
+    // Joystick and rotation are -1..1; forward is up on screen
+    useEffect(() => {
+        const s = speedRef.current * 255;
+        teleop.current?.set(stick.x * s, -stick.y * s, turn * s, 0);
+    }, [stick, turn]);
+
+    useEffect(() => {
+        let frame = 0;
+        let padActive = false;
+        const dz = (v: number) => (Math.abs(v) < DEADZONE ? 0 : v);
+        const poll = () => {
+            const pad = Array.from(navigator.getGamepads()).find((p) => p);
+            setGamepad(pad ? pad.id : null);
+            if (pad) {
+                const [x, y, r] = [dz(pad.axes[0] ?? 0), dz(pad.axes[1] ?? 0), dz(pad.axes[2] ?? 0)];
+                const active = x !== 0 || y !== 0 || r !== 0;
+                // Drive only while a stick is deflected, plus one frame to send the release
+                if (active || padActive) {
+                    const s = speedRef.current * 255;
+                    teleop.current?.set(x * s, -y * s, r * s, 0);
+                }
+                padActive = active;
+            }
+            frame = requestAnimationFrame(poll);
+        };
+        frame = requestAnimationFrame(poll);
+        return () => cancelAnimationFrame(frame);
+    }, []);
+
+    const onStick = (e: ReactPointerEvent<HTMLDivElement>) => {
+        if (e.buttons === 0) return;
+        const rect = e.currentTarget.getBoundingClientRect();
+        let x = ((e.clientX - rect.left) / rect.width) * 2 - 1;
+        let y = ((e.clientY - rect.top) / rect.height) * 2 - 1;
+        const len = Math.hypot(x, y);
+        if (len > 1) {
+            x /= len;
+            y /= len;
         }
-    }
+        setStick({ x, y });
+    };
+    const releaseStick = () => setStick({ x: 0, y: 0 });
+
+    // Pushed by the phone when something changes, no polling
+    useEffect(() => subscribeState("status", (s) => setStatus({
+        isMoving: s.isMoving,
+        lastCommand: s.lastCommand,
+        cameraFacing: s.cameraFacing,
+        safety: s.robots?.main?.safety,
+    })), []);
+
+    useEffect(() => {
+        if (!driving) return;
+        const iv = setInterval(() => {
+            fetch(`${base}/api/robot/heartbeat?name=main`, { method: "POST" }).catch(() => {});
+        }, HEARTBEAT_MS);
+        return () => clearInterval(iv);
+    }, [driving]);
 
     async function post(path: string, body: any) {
         await fetch(`${base}${path}`, {
@@ -34,9 +103,14 @@ export default function ControlPage() {
         });
     }
 
-    const move = (direction: string) => post("/api/robot/move", { direction, speed });
-    const rotate = (direction: string) => post("/api/robot/rotate", { direction, speed });
-    const stop = () => post("/api/robot/stop", {});
+    const move = (direction: string) => { setDriving(true); return post("/api/robot/move", { direction, speed }); };
+    const rotate = (direction: string) => { setDriving(true); return post("/api/robot/rotate", { direction, speed }); };
+    const stop = () => { setDriving(false); return post("/api/robot/stop", {}); };
+    // No body, so the server can act on it before parsing anything
+    const emergencyStop = () => {
+        setDriving(false);
+        return fetch(`${base}/api/robot/estop`, { method: "POST" });
+    };
     const switchCamera = () => post("/api/robot/camera/switch", {});
 
     return (
@@ -88,13 +162,61 @@ export default function ControlPage() {
 
                     <div className="flex gap-3 w-full py-4">
                         <button onClick={() => switchCamera()} className="flex-1 btn">Switch Camera</button>
-                        <button onClick={() => stop()} className="flex-1 btn-destructive">Emergency Stop</button>
+                        <button onClick={() => emergencyStop()} className="flex-1 btn-destructive">Emergency Stop</button>
                     </div>
 
                 </article>
 
 
 
+                <article className="mb-4 break-inside-avoid rounded-xl border border-[#22242b] bg-[linear-gradient(160deg,#131419_0%,#0f1014_100%)] p-4 text-zinc-100 shadow-[0_16px_40px_rgba(0,0,0,0.28)]">
+                    <div className="mb-3 text-sm font-semibold tracking-wide">Joystick</div>
+
+                    <div
+                        className="relative mx-auto h-48 w-48 touch-none rounded-full border border-[#22242b] bg-[#0f1014]"
+                        onPointerDown={(e) => {
+                            e.currentTarget.setPointerCapture(e.pointerId);
+                            onStick(e);
+                        }}
+                        onPointerMove={onStick}
+                        onPointerUp={releaseStick}
+                        onPointerCancel={releaseStick}
+                    >
+                        <div
+                            className="absolute h-12 w-12 rounded-full bg-emerald-400/80"
+                            style={{
+                                left: `calc(${(stick.x + 1) * 50}% - 1.5rem)`,
+                                top: `calc(${(stick.y + 1) * 50}% - 1.5rem)`,
+                            }}
+                        />
+                    </div>
+
+                    <div className="w-full py-4">
+                        <label className="block text-sm mb-2">Rotate</label>
+                        <input
+                            type="range" min={-1} max={1} step={0.01} value={turn}
+                            onChange={(e) => setTurn(Number(e.target.value))}
+                            onPointerUp={() => setTurn(0)}
+                            className="w-full"
+                        />
+                    </div>
+
+                    <div className="grid grid-cols-3 gap-4 text-sm">
+                        <div>
+                            <div className="text-xs text-muted">Link</div>
+                            <div className="font-semibold">{teleopStats?.connected ? (gamepad ? "Gamepad" : "Connected") : "Offline"}</div>
+                        </div>
+                        <div>
+                            <div className="text-xs text-muted">Round Trip</div>
+                            <div className="font-semibold">{teleopStats && teleopStats.rttMs >= 0 ? `${teleopStats.rttMs.toFixed(1)} ms` : "-"}</div>
+                        </div>
+                        <div>
+                            <div className="text-xs text-muted">Input to UDP</div>
+                            <div className="font-semibold">{teleopStats && teleopStats.inputToUdpMs >= 0 ? `${teleopStats.inputToUdpMs.toFixed(1)} ms` : "-"}</div>
+                        </div>
+                    </div>
+                </article>
+
                 <article className="mb-4 break-inside-avoid rounded-xl border border-[#22242b] bg-[linear-gradient(160deg,#131419_0%,#0f1014_100%)] p-4 text-zinc-100 shadow-[0_16px_40px_rgba(0,0,0,0.28)]">
                     <div className="mb-3 text-sm font-semibold tracking-wide">Status</div>
                     <div className="grid grid-cols-3 gap-4">
@@ -110,6 +232,28 @@ export default function ControlPage() {
                             <div className="text-xs text-muted">Camera</div>
                             <div className="font-semibold">{status.cameraFacing === 0 ? "Back" : "Front"}</div>
                         </div>
+                        {status.safety && (
+                            <>
+                                <div>
+                                    <div className="text-xs text-muted">Stop Latency</div>
+                                    <div className="font-semibold">
+                                        {status.safety.lastStopMs >= 0 ? `${status.safety.lastStopMs.toFixed(2)} ms` : "-"}
+                                    </div>
+                                </div>
+                                <div>
+                                    <div className="text-xs text-muted">Max / Bound</div>
+                                    <div className="font-semibold">
+                                        {status.safety.maxStopMs.toFixed(2)} / {status.safety.boundMs} ms
+                                    </div>
+                                </div>
+                                <div>
+                                    <div className="text-xs text-muted">Watchdog</div>
+                                    <div className="font-semibold">
+                                        {status.safety.deadmanMs > 0 ? `${status.safety.deadmanMs} ms (${status.safety.watchdogTrips} trips)` : "Off"}
+                                    </div>
+                                </div>
+                            </>
+                        )}
                     </div>
 
                 </article>